@@ -0,0 +1,78 @@
+package com.eroelf.javaxsx.util;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Helpers to wait for {@link CompletableFuture}s, rethrowing task failures as they were thrown on the caller thread.
+ * A {@link CompletionException}, even one wrapped by a dependent stage, is unwrapped into the {@link RuntimeException} or {@link Error} thrown by the task, while a checked exception stays wrapped.
+ * 
+ * @author weikun.zhong
+ */
+public final class Futures
+{
+	/**
+	 * Waits for the given {@code future}.
+	 * 
+	 * @return the result.
+	 */
+	public static <V> V join(CompletableFuture<V> future)
+	{
+		try
+		{
+			return future.join();
+		}
+		catch(CompletionException e)
+		{
+			throw rethrow(e.getCause(), e);
+		}
+	}
+
+	/**
+	 * Waits for the given {@code future} until the {@code deadlineNano} (compared with {@link System#nanoTime()}).
+	 * 
+	 * @return the result, or {@code null} if the deadline passed and the {@code future} was cancelled.
+	 */
+	public static <V> V join(CompletableFuture<V> future, long deadlineNano)
+	{
+		try
+		{
+			return future.get(Math.max(deadlineNano-System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+		}
+		catch(TimeoutException e)
+		{
+			future.cancel(false);
+			return null;
+		}
+		catch(ExecutionException e)
+		{
+			throw rethrow(e.getCause(), null);
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			future.cancel(false);
+			return null;
+		}
+	}
+
+	private static RuntimeException rethrow(Throwable cause, RuntimeException fallback)
+	{
+		while(cause instanceof CompletionException && cause.getCause()!=null)
+		{
+			fallback=(CompletionException)cause;
+			cause=cause.getCause();
+		}
+		if(cause instanceof RuntimeException)
+			return (RuntimeException)cause;
+		else if(cause instanceof Error)
+			throw (Error)cause;
+		return fallback!=null ? fallback : new CompletionException(cause);
+	}
+
+	private Futures()
+	{}
+}
@@ -4,16 +4,12 @@ import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
-import java.util.Map;
 import java.util.Set;
 
-import org.apache.commons.math3.distribution.NormalDistribution;
-
 import com.eroelf.javaxsx.util.math.DataPreProcessor.DataStatistics.HistInfo;
 import com.eroelf.javaxsx.util.math.mapping.Mapping;
 import com.google.common.base.CaseFormat;
@@ -524,59 +520,43 @@ public class DataPreProcessor
 		}
 	}
 
-	public void toNormal(double min, double max)
+	/**
+	 * Fits a {@link RankTransform} into the standard normal distribution truncated to {@code [min, max]} on the original data, which can also be applied to values out of the data.
+	 * 
+	 * @param min the lower bound of the transformed values.
+	 * @param max the upper bound of the transformed values.
+	 * @return the fitted {@link RankTransform}.
+	 */
+	public RankTransform fitNormal(double min, double max)
 	{
-		final NormalDistribution normalDistribution=new NormalDistribution();
+		return RankTransform.fitNormal(original.data, min, max);
+	}
 
-		double[] a=Arrays.copyOf(original.data, original.data.length);
-		Arrays.sort(a);
-		Map<Double, Double> lookupTable=new HashMap<Double, Double>();
-		int i=0;
-		double cumulativeAtMin=normalDistribution.cumulativeProbability(min);
-		double cumulativeAtMax=normalDistribution.cumulativeProbability(max);
-		double k=(cumulativeAtMax-cumulativeAtMin);
-		while(i<a.length)
-		{
-			int j=i+1;
-			while(j<a.length && a[j]==a[i])
-			{
-				++j;
-			}
-			lookupTable.put(a[i], normalDistribution.inverseCumulativeProbability(k*((double)(j-i)/2d+i)/a.length+cumulativeAtMin));
-			i=j;
-		}
-		for(i=0; i<original.data.length; i++)
-		{
-			processed.data[i]=lookupTable.get(original.data[i]);
-		}
-		processed.resetStatistics();
-		if(original.validMaxMin)
-		{
-			processed.maxIdx=original.maxIdx;
-			processed.minIdx=original.minIdx;
-			processed.validMaxMin=original.validMaxMin;
-		}
+	/**
+	 * Fits a {@link RankTransform} into the uniform distribution on {@code [0, 1]} on the original data, which can also be applied to values out of the data.
+	 * 
+	 * @return the fitted {@link RankTransform}.
+	 */
+	public RankTransform fitUniform()
+	{
+		return RankTransform.fitUniform(original.data);
+	}
+
+	public void toNormal(double min, double max)
+	{
+		applyRankTransform(fitNormal(min, max));
 	}
 
 	public void toUniform()
 	{
-		double[] a=Arrays.copyOf(original.data, original.data.length);
-		Arrays.sort(a);
-		Map<Double, Double> lookupTable=new HashMap<Double, Double>();
-		int i=0;
-		while(i<a.length)
-		{
-			int j=i+1;
-			while(j<a.length && a[j]==a[i])
-			{
-				++j;
-			}
-			lookupTable.put(a[i], ((double)(j-i)/2d+i)/a.length);
-			i=j;
-		}
-		for(i=0; i<original.data.length; i++)
+		applyRankTransform(fitUniform());
+	}
+
+	private void applyRankTransform(RankTransform transform)
+	{
+		for(int i=0; i<original.data.length; i++)
 		{
-			processed.data[i]=lookupTable.get(original.data[i]);
+			processed.data[i]=transform.map(original.data[i]);
 		}
 		processed.resetStatistics();
 		if(original.validMaxMin)
@@ -0,0 +1,254 @@
+package com.eroelf.javaxsx.util.math;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.function.DoubleBinaryOperator;
+
+import org.apache.commons.math3.distribution.NormalDistribution;
+
+import com.eroelf.javaxsx.util.math.mapping.Mapping;
+
+/**
+ * An immutable monotone transform fitted on a sample of data, e.g. the rank transform towards a uniform or a normal distribution, which can be applied to values never seen during fitting.
+ * It keeps the sorted distinct values of the sample as breakpoints together with their transformed values. A value is transformed by a binary search, with linear interpolation between two breakpoints and clamping outside them, in {@code O(log n)} time with no allocation.
+ * {@code NaN} values are ignored during fitting and transformed into {@code NaN}.
+ *
+ * @author weikun.zhong
+ * @see DataPreProcessor#fitUniform()
+ * @see DataPreProcessor#fitNormal(double, double)
+ */
+public final class RankTransform implements Mapping
+{
+	private static final int BINARY_MAGIC=0x52544631;
+
+	private final double[] breakpoints;
+	private final double[] values;
+
+	/**
+	 * @param breakpoints strictly increasing breakpoints.
+	 * @param values the transformed values of the breakpoints.
+	 */
+	public RankTransform(double[] breakpoints, double[] values)
+	{
+		if(breakpoints.length==0 || breakpoints.length!=values.length)
+			throw new IllegalArgumentException("RankTransform::RankTransform: breakpoints and values must be non-empty and of the same length!");
+		for(int i=1; i<breakpoints.length; i++)
+		{
+			if(!(breakpoints[i-1]<breakpoints[i]))
+				throw new IllegalArgumentException("RankTransform::RankTransform: breakpoints must be strictly increasing!");
+		}
+		this.breakpoints=Arrays.copyOf(breakpoints, breakpoints.length);
+		this.values=Arrays.copyOf(values, values.length);
+	}
+
+	/**
+	 * Fits the transform into the uniform distribution on {@code [0, 1]}, which maps every distinct value to the middle of its rank range divided by the number of values.
+	 *
+	 * @param data the sample, which is not changed.
+	 * @return the fitted transform.
+	 */
+	public static RankTransform fitUniform(double[] data)
+	{
+		return fit(data, (rank, n) -> rank/n);
+	}
+
+	/**
+	 * Fits the transform into the standard normal distribution truncated to {@code [min, max]}.
+	 *
+	 * @param data the sample, which is not changed.
+	 * @param min the lower bound of the transformed values.
+	 * @param max the upper bound of the transformed values.
+	 * @return the fitted transform.
+	 */
+	public static RankTransform fitNormal(double[] data, double min, double max)
+	{
+		NormalDistribution normalDistribution=new NormalDistribution();
+		double cumulativeAtMin=normalDistribution.cumulativeProbability(min);
+		double k=normalDistribution.cumulativeProbability(max)-cumulativeAtMin;
+		return fit(data, (rank, n) -> normalDistribution.inverseCumulativeProbability(k*rank/n+cumulativeAtMin));
+	}
+
+	/**
+	 * @param rankFunction gives the transformed value of a distinct value from its middle rank and the number of values.
+	 */
+	private static RankTransform fit(double[] data, DoubleBinaryOperator rankFunction)
+	{
+		double[] sorted=sortValid(data);
+		int distinctNum=countDistinct(sorted);
+		double[] breakpoints=new double[distinctNum];
+		double[] values=new double[distinctNum];
+		int i=0, d=0;
+		while(i<sorted.length)
+		{
+			int j=i+1;
+			while(j<sorted.length && sorted[j]==sorted[i])
+			{
+				++j;
+			}
+			breakpoints[d]=sorted[i];
+			values[d++]=rankFunction.applyAsDouble((double)(j-i)/2d+i, sorted.length);
+			i=j;
+		}
+		return new RankTransform(breakpoints, values);
+	}
+
+	private static double[] sortValid(double[] data)
+	{
+		double[] sorted=new double[data.length];
+		int n=0;
+		for(double v : data)
+		{
+			if(!Double.isNaN(v))
+				sorted[n++]=v;
+		}
+		if(n==0)
+			throw new IllegalArgumentException("RankTransform::fit: no valid data!");
+		sorted=n<sorted.length ? Arrays.copyOf(sorted, n) : sorted;
+		Arrays.sort(sorted);
+		return sorted;
+	}
+
+	private static int countDistinct(double[] sorted)
+	{
+		int count=1;
+		for(int i=1; i<sorted.length; i++)
+		{
+			if(sorted[i]!=sorted[i-1])
+				++count;
+		}
+		return count;
+	}
+
+	@Override
+	public double map(double v)
+	{
+		if(Double.isNaN(v))
+			return Double.NaN;
+		int last=breakpoints.length-1;
+		if(v<=breakpoints[0])
+			return values[0];
+		if(v>=breakpoints[last])
+			return values[last];
+		int lo=0, hi=last;
+		while(hi-lo>1)
+		{
+			int mid=(lo+hi)>>>1;
+			if(breakpoints[mid]<=v)
+				lo=mid;
+			else
+				hi=mid;
+		}
+		if(v==breakpoints[lo])
+			return values[lo];
+		return values[lo]+(values[hi]-values[lo])*((v-breakpoints[lo])/(breakpoints[hi]-breakpoints[lo]));
+	}
+
+	/**
+	 * @return the number of breakpoints.
+	 */
+	public int size()
+	{
+		return breakpoints.length;
+	}
+
+	public double[] getBreakpoints()
+	{
+		return Arrays.copyOf(breakpoints, breakpoints.length);
+	}
+
+	public double[] getValues()
+	{
+		return Arrays.copyOf(values, values.length);
+	}
+
+	/**
+	 * Saves this transform in a binary format which can be loaded by {@link #load(InputStream)}.
+	 *
+	 * @param out the stream to write to.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public void save(OutputStream out) throws IOException
+	{
+		DataOutputStream dos=new DataOutputStream(out);
+		dos.writeInt(BINARY_MAGIC);
+		dos.writeInt(breakpoints.length);
+		for(int i=0; i<breakpoints.length; i++)
+		{
+			dos.writeDouble(breakpoints[i]);
+			dos.writeDouble(values[i]);
+		}
+		dos.flush();
+	}
+
+	public void save(String file) throws IOException
+	{
+		try(OutputStream out=new BufferedOutputStream(new FileOutputStream(file)))
+		{
+			save(out);
+		}
+	}
+
+	/**
+	 * Loads a transform saved by {@link #save(OutputStream)}.
+	 *
+	 * @param in the stream to read from.
+	 * @return the loaded transform.
+	 * @throws IOException if an I/O error occurs or the stream is not a saved transform.
+	 */
+	public static RankTransform load(InputStream in) throws IOException
+	{
+		return load(in, -1);
+	}
+
+	/**
+	 * @param length the number of bytes of the stream, which is checked against the size before anything is allocated, or a negative value if unknown, in which case the arrays grow as the breakpoints are read, so that a corrupted size fails at the end of the stream rather than allocating what it claims.
+	 */
+	private static RankTransform load(InputStream in, long length) throws IOException
+	{
+		DataInputStream dis=new DataInputStream(in);
+		if(dis.readInt()!=BINARY_MAGIC)
+			throw new IOException("RankTransform::load: not a saved rank transform!");
+		int size=dis.readInt();
+		if(size<=0 || size>Integer.MAX_VALUE-8 || length>=0 && length!=8+16L*size)
+			throw new IOException("RankTransform::load: corrupted rank transform!");
+		int capacity=length>=0 ? size : Math.min(size, 1<<12);
+		double[] breakpoints=new double[capacity];
+		double[] values=new double[capacity];
+		for(int i=0; i<size; i++)
+		{
+			if(i==capacity)
+			{
+				capacity=(int)Math.min(2L*capacity, size);
+				breakpoints=Arrays.copyOf(breakpoints, capacity);
+				values=Arrays.copyOf(values, capacity);
+			}
+			breakpoints[i]=dis.readDouble();
+			values[i]=dis.readDouble();
+		}
+		try
+		{
+			return new RankTransform(breakpoints, values);
+		}
+		catch(IllegalArgumentException e)
+		{
+			throw new IOException("RankTransform::load: corrupted rank transform!", e);
+		}
+	}
+
+	public static RankTransform load(String file) throws IOException
+	{
+		try(InputStream in=new BufferedInputStream(new FileInputStream(file)))
+		{
+			return load(in, new File(file).length());
+		}
+	}
+}
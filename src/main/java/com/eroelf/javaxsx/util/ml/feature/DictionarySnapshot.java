@@ -0,0 +1,115 @@
+package com.eroelf.javaxsx.util.ml.feature;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * The snapshot file of a {@link FeatureDictionary} or a {@link FrozenFeatureDictionary}.
+ * The little-endian layout is: a 24-byte header ({@code magic, formatVersion, size, bucketNum, charNum} and a padding int), {@code size+1} int name offsets, {@code bucketNum} int perfect hash displacements, and {@code charNum} chars of all names concatenated in the id order.
+ * A snapshot of a {@link FeatureDictionary} has no displacements.
+ *
+ * @author weikun.zhong
+ */
+final class DictionarySnapshot
+{
+	private static final int MAGIC=0x4A584644;
+	private static final int FORMAT_VERSION=1;
+	private static final int HEADER_SIZE=24;
+
+	final int[] offsets;
+	final int[] displacements;
+	final char[] chars;
+
+	DictionarySnapshot(int[] offsets, int[] displacements, char[] chars)
+	{
+		this.offsets=offsets;
+		this.displacements=displacements;
+		this.chars=chars;
+	}
+
+	int size()
+	{
+		return offsets.length-1;
+	}
+
+	static DictionarySnapshot of(String[] names, int size)
+	{
+		int[] offsets=new int[size+1];
+		long charNum=0;
+		for(int i=0; i<size; i++)
+		{
+			charNum+=names[i].length();
+			if(charNum>Integer.MAX_VALUE)
+				throw new IllegalArgumentException("DictionarySnapshot::of: too many chars!");
+			offsets[i+1]=(int)charNum;
+		}
+		char[] chars=new char[(int)charNum];
+		for(int i=0; i<size; i++)
+		{
+			names[i].getChars(0, names[i].length(), chars, offsets[i]);
+		}
+		return new DictionarySnapshot(offsets, new int[0], chars);
+	}
+
+	void write(String file) throws IOException
+	{
+		long total=HEADER_SIZE+4L*offsets.length+4L*displacements.length+2L*chars.length;
+		if(total>Integer.MAX_VALUE)
+			throw new IllegalArgumentException("DictionarySnapshot::write: snapshot larger than 2GB is not supported!");
+		try(RandomAccessFile raf=new RandomAccessFile(file, "rw"); FileChannel channel=raf.getChannel())
+		{
+			raf.setLength(0);
+			MappedByteBuffer out=channel.map(MapMode.READ_WRITE, 0, total);
+			out.order(ByteOrder.LITTLE_ENDIAN);
+			out.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(size()).putInt(displacements.length).putInt(chars.length).putInt(0);
+			out.asIntBuffer().put(offsets);
+			out.position(out.position()+4*offsets.length);
+			out.asIntBuffer().put(displacements);
+			out.position(out.position()+4*displacements.length);
+			out.asCharBuffer().put(chars);
+			out.force();
+		}
+	}
+
+	static DictionarySnapshot read(String file) throws IOException
+	{
+		try(RandomAccessFile raf=new RandomAccessFile(file, "r"); FileChannel channel=raf.getChannel())
+		{
+			if(channel.size()>Integer.MAX_VALUE)
+				throw new IOException("DictionarySnapshot::read: snapshot larger than 2GB is not supported!");
+			ByteBuffer in=channel.map(MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+			if(in.capacity()<HEADER_SIZE || in.getInt()!=MAGIC)
+				throw new IOException("DictionarySnapshot::read: not a feature dictionary snapshot!");
+			int formatVersion=in.getInt();
+			if(formatVersion!=FORMAT_VERSION)
+				throw new IOException("DictionarySnapshot::read: unsupported format version "+formatVersion+"!");
+			int size=in.getInt();
+			int bucketNum=in.getInt();
+			int charNum=in.getInt();
+			in.getInt();
+			if(size<0 || bucketNum<0 || charNum<0 || HEADER_SIZE+4L*(size+1)+4L*bucketNum+2L*charNum!=in.capacity())
+				throw new IOException("DictionarySnapshot::read: corrupted feature dictionary snapshot!");
+			int[] offsets=new int[size+1];
+			in.asIntBuffer().get(offsets);
+			in.position(in.position()+4*offsets.length);
+			if(offsets[0]!=0 || offsets[size]!=charNum)
+				throw new IOException("DictionarySnapshot::read: corrupted feature dictionary snapshot!");
+			for(int i=0; i<size; i++)
+			{
+				if(offsets[i]>offsets[i+1])
+					throw new IOException("DictionarySnapshot::read: corrupted feature dictionary snapshot!");
+			}
+			int[] displacements=new int[bucketNum];
+			in.asIntBuffer().get(displacements);
+			in.position(in.position()+4*bucketNum);
+			char[] chars=new char[charNum];
+			in.asCharBuffer().get(chars);
+			return new DictionarySnapshot(offsets, displacements, chars);
+		}
+	}
+}
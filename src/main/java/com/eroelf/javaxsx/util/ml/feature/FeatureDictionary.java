@@ -0,0 +1,160 @@
+package com.eroelf.javaxsx.util.ml.feature;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A concurrent dictionary which maps feature names to dense feature indices in {@code [0, size())}, so that {@link com.eroelf.javaxsx.util.ml.feature.model.Modeler Modeler}s, trainers, and the mappings of {@link com.eroelf.javaxsx.util.ml.feature.score.impl.LogisticRegressionScorer LogisticRegressionScorer} share one index.
+ * Looking up is lock-free. A new name is given the next id by an append-only allocator, which only locks the rare first occurrence of each name, and an id never changes once given.
+ *
+ * Call the {@link #freeze() freeze} method for a {@link FrozenFeatureDictionary}, which is smaller and faster for serving, and use the {@link #save(String) save} and {@link #load(String) load} methods to snapshot the dictionary.
+ *
+ * @author weikun.zhong
+ */
+public class FeatureDictionary
+{
+	public static final int ABSENT=-1;
+
+	private final ConcurrentHashMap<String, Integer> ids;
+	private final int maxSize;
+	private volatile String[] names;
+	private volatile int size=0;
+
+	/**
+	 * Creates an unbounded dictionary.
+	 */
+	public FeatureDictionary()
+	{
+		this(Integer.MAX_VALUE-8);
+	}
+
+	/**
+	 * @param maxSize the maximum number of names, more names are not interned.
+	 */
+	public FeatureDictionary(int maxSize)
+	{
+		if(maxSize<0)
+			throw new IllegalArgumentException("FeatureDictionary::FeatureDictionary: maxSize must not be negative!");
+		this.maxSize=maxSize;
+		ids=new ConcurrentHashMap<>();
+		names=new String[16];
+	}
+
+	/**
+	 * @return the id of the given name, or {@link #ABSENT} if the name is not in this dictionary.
+	 */
+	public int idOf(String name)
+	{
+		Integer id=ids.get(name);
+		return id!=null ? id : ABSENT;
+	}
+
+	/**
+	 * Gets the id of the given name, and gives the name the next id if it is not in this dictionary.
+	 *
+	 * @param name the feature name.
+	 * @return the id of the name, or {@link #ABSENT} if the name is new and this dictionary is full.
+	 */
+	public int intern(String name)
+	{
+		Integer id=ids.get(name);
+		if(id==null)
+		{
+			if(size>=maxSize)
+				return ABSENT;
+			id=ids.computeIfAbsent(name, this::allocate);
+			if(id==ABSENT)
+				ids.remove(name, ABSENT);
+		}
+		return id;
+	}
+
+	private synchronized Integer allocate(String name)
+	{
+		int id=size;
+		if(id>=maxSize)
+			return ABSENT;
+		String[] current=names;
+		if(id==current.length)
+		{
+			current=Arrays.copyOf(current, (int)Math.min((long)id<<1, Integer.MAX_VALUE-8));
+			names=current;
+		}
+		current[id]=name;
+		size=id+1;
+		return id;
+	}
+
+	/**
+	 * @return the name of the given id, or {@code null} if the id is not given.
+	 */
+	public String nameOf(int id)
+	{
+		int n=size;
+		String[] current=names;
+		return id>=0 && id<n ? current[id] : null;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public int getMaxSize()
+	{
+		return maxSize;
+	}
+
+	/**
+	 * @return a {@link FrozenFeatureDictionary} of all names interned so far, with the same ids.
+	 */
+	public synchronized FrozenFeatureDictionary freeze()
+	{
+		return new FrozenFeatureDictionary(DictionarySnapshot.of(names, size));
+	}
+
+	/**
+	 * Writes a snapshot of all names interned so far.
+	 *
+	 * @param file the snapshot file to write.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public void save(String file) throws IOException
+	{
+		DictionarySnapshot snapshot;
+		synchronized(this)
+		{
+			snapshot=DictionarySnapshot.of(names, size);
+		}
+		snapshot.write(file);
+	}
+
+	/**
+	 * Loads a snapshot written by either a {@link FeatureDictionary} or a {@link FrozenFeatureDictionary} into a new unbounded dictionary, with the same ids.
+	 *
+	 * @param file the snapshot file.
+	 * @return the loaded dictionary.
+	 * @throws IOException if an I/O error occurs or the file is not a snapshot.
+	 */
+	public static FeatureDictionary load(String file) throws IOException
+	{
+		return of(DictionarySnapshot.read(file));
+	}
+
+	static FeatureDictionary of(DictionarySnapshot snapshot)
+	{
+		FeatureDictionary dictionary=new FeatureDictionary();
+		int size=snapshot.size();
+		dictionary.names=new String[Math.max(size, 16)];
+		for(int i=0; i<size; i++)
+		{
+			String name=new String(snapshot.chars, snapshot.offsets[i], snapshot.offsets[i+1]-snapshot.offsets[i]);
+			dictionary.names[i]=name;
+			if(dictionary.ids.put(name, i)!=null)
+				throw new IllegalArgumentException("FeatureDictionary::of: duplicated name \""+name+"\"!");
+		}
+		dictionary.size=size;
+		return dictionary;
+	}
+}
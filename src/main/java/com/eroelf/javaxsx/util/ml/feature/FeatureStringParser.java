@@ -0,0 +1,473 @@
+package com.eroelf.javaxsx.util.ml.feature;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Parses {@code idx:value} feature strings, the inverse of {@link Item#getFeatureString()}, or LIBSVM lines which are feature strings led by labels, into {@link SparseBatch} buffers or {@link Item} objects.
+ * Numbers are scanned by hand: indices never allocate, and values take an exact fast path for up to 15 significant digits with small exponents, falling back to {@link Double#parseDouble(String)} otherwise.
+ * A parser keeps its own reading buffer, thus is not thread-safe; use one parser per thread.
+ *
+ * @author weikun.zhong
+ */
+public class FeatureStringParser
+{
+	private static final double[] POW10=new double[23];
+	static
+	{
+		POW10[0]=1;
+		for(int i=1; i<POW10.length; i++)
+		{
+			POW10[i]=POW10[i-1]*10;
+		}
+	}
+
+	private static final class AsciiSequence implements CharSequence
+	{
+		private byte[] bytes;
+		private int offset;
+		private int length;
+
+		@Override
+		public int length()
+		{
+			return length;
+		}
+
+		@Override
+		public char charAt(int index)
+		{
+			return (char)(bytes[offset+index]&0xff);
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end)
+		{
+			return new String(bytes, offset+start, end-start, StandardCharsets.ISO_8859_1);
+		}
+
+		@Override
+		public String toString()
+		{
+			return subSequence(0, length).toString();
+		}
+	}
+
+	private final boolean labeled;
+	private final AsciiSequence ascii=new AsciiSequence();
+	private CharSequence s;
+	private int pos;
+	private int end;
+
+	private char[] buffer;
+	private CharBuffer bufferView;
+	private int bufferStart=0;
+	private int bufferEnd=0;
+	private boolean eof=false;
+
+	/**
+	 * @param labeled {@code true} if each line is led by a label as LIBSVM lines are, or {@code false} for pure feature strings whose labels are regarded as {@link Double#NaN}.
+	 */
+	public FeatureStringParser(boolean labeled)
+	{
+		this.labeled=labeled;
+	}
+
+	/**
+	 * Parses one line into a new row of the given {@link SparseBatch}.
+	 *
+	 * @param line the line.
+	 * @param batch the {@link SparseBatch} to which the row is added.
+	 * @return {@code true} if a row is added, or {@code false} if the line is blank.
+	 * @throws NumberFormatException if the line is malformed, in which case no row is added.
+	 */
+	public boolean parseLine(CharSequence line, SparseBatch batch)
+	{
+		return parseLine(line, 0, line.length(), batch);
+	}
+
+	/**
+	 * Parses one line of ASCII bytes, e.g. from a memory-mapped file, into a new row of the given {@link SparseBatch}.
+	 *
+	 * @see #parseLine(CharSequence, SparseBatch)
+	 */
+	public boolean parseLine(byte[] bytes, int from, int to, SparseBatch batch)
+	{
+		ascii.bytes=bytes;
+		ascii.offset=from;
+		ascii.length=to-from;
+		return parseLine(ascii, 0, to-from, batch);
+	}
+
+	private boolean parseLine(CharSequence line, int from, int to, SparseBatch batch)
+	{
+		s=line;
+		pos=from;
+		end=to;
+		skipSpaces();
+		if(pos==end)
+			return false;
+		batch.startRow(labeled ? scanDouble() : Double.NaN);
+		try
+		{
+			skipSpaces();
+			while(pos<end)
+			{
+				int idx=scanInt();
+				if(pos>=end || s.charAt(pos)!=':')
+					throw new NumberFormatException("FeatureStringParser::parseLine: ':' expected at "+pos+"!");
+				++pos;
+				batch.addFeature(idx, scanDouble());
+				skipSpaces();
+			}
+			return true;
+		}
+		catch(RuntimeException e)
+		{
+			batch.dropRow();
+			throw e;
+		}
+	}
+
+	/**
+	 * Parses one line and sets its features to the given {@link Item} object, the label, if any, is skipped.
+	 *
+	 * @param line the line.
+	 * @param item the {@link Item} object to be filled.
+	 * @return the filled {@link Item} object.
+	 */
+	public <T extends Item> T parseItem(CharSequence line, T item)
+	{
+		s=line;
+		pos=0;
+		end=line.length();
+		skipSpaces();
+		if(labeled && pos<end)
+			scanDouble();
+		skipSpaces();
+		while(pos<end)
+		{
+			int idx=scanInt();
+			if(pos>=end || s.charAt(pos)!=':')
+				throw new NumberFormatException("FeatureStringParser::parseItem: ':' expected at "+pos+"!");
+			++pos;
+			item.setFeature(idx, scanDouble());
+			skipSpaces();
+		}
+		return item;
+	}
+
+	/**
+	 * Parses all lines in the given range of a text block, e.g. a chunk of a file, into rows of the given {@link SparseBatch}.
+	 *
+	 * @param text the text block.
+	 * @param from the start of the range.
+	 * @param to the end of the range.
+	 * @param batch the {@link SparseBatch} to which the rows are added.
+	 * @return the number of added rows.
+	 */
+	public int parseLines(CharSequence text, int from, int to, SparseBatch batch)
+	{
+		int rows=0;
+		int lineStart=from;
+		for(int i=from; i<=to; i++)
+		{
+			if(i==to || text.charAt(i)=='\n')
+			{
+				if(parseLine(text, lineStart, i, batch))
+					++rows;
+				lineStart=i+1;
+			}
+		}
+		return rows;
+	}
+
+	/**
+	 * Reads and parses lines from the given {@link Reader} into rows of the given {@link SparseBatch}, through a reusable reading buffer of this parser, so that no object is created for any line.
+	 * Successive invocations continue from where the previous one stopped, so the same {@link Reader} should be passed until it is exhausted.
+	 *
+	 * @param reader the {@link Reader} to read from.
+	 * @param batch the {@link SparseBatch} to which the rows are added.
+	 * @param maxRows the maximum number of rows to add.
+	 * @return the number of added rows, {@code 0} if the {@link Reader} is exhausted.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public int read(Reader reader, SparseBatch batch, int maxRows) throws IOException
+	{
+		if(buffer==null)
+		{
+			buffer=new char[1<<16];
+			bufferView=CharBuffer.wrap(buffer);
+		}
+		int rows=0;
+		while(rows<maxRows)
+		{
+			int newline=-1;
+			for(int i=bufferStart; i<bufferEnd; i++)
+			{
+				if(buffer[i]=='\n')
+				{
+					newline=i;
+					break;
+				}
+			}
+			if(newline>=0)
+			{
+				if(parseLine(bufferView, bufferStart, newline, batch))
+					++rows;
+				bufferStart=newline+1;
+			}
+			else if(eof)
+			{
+				if(bufferStart<bufferEnd && parseLine(bufferView, bufferStart, bufferEnd, batch))
+					++rows;
+				bufferStart=bufferEnd;
+				break;
+			}
+			else
+				fill(reader);
+		}
+		return rows;
+	}
+
+	private void fill(Reader reader) throws IOException
+	{
+		int remaining=bufferEnd-bufferStart;
+		if(bufferStart>0)
+			System.arraycopy(buffer, bufferStart, buffer, 0, remaining);
+		else if(remaining==buffer.length)
+		{
+			buffer=Arrays.copyOf(buffer, buffer.length<<1);
+			bufferView=CharBuffer.wrap(buffer);
+		}
+		bufferStart=0;
+		bufferEnd=remaining;
+		int n=reader.read(buffer, bufferEnd, buffer.length-bufferEnd);
+		if(n<0)
+			eof=true;
+		else
+			bufferEnd+=n;
+	}
+
+	/**
+	 * Parses all lines from the given {@link Reader} in parallel: the caller thread reads blocks of whole lines, and the worker threads parse the blocks into their own {@link SparseBatch} objects and pass them to the {@code consumer}.
+	 * The {@code consumer} is called concurrently, each time with a batch of the rows of one block in the order of the lines, and must not keep the batch after returning since it is reused.
+	 *
+	 * @param reader the {@link Reader} to read from.
+	 * @param labeled {@code true} if each line is led by a label.
+	 * @param threadNum the number of parsing threads.
+	 * @param consumer receives the parsed batches.
+	 * @return the number of parsed rows.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public static long parseParallel(Reader reader, boolean labeled, int threadNum, Consumer<? super SparseBatch> consumer) throws IOException
+	{
+		final int blockSize=1<<18;
+		threadNum=Math.max(threadNum, 1);
+		final ThreadLocal<FeatureStringParser> parsers=ThreadLocal.withInitial(() -> new FeatureStringParser(labeled));
+		final ThreadLocal<SparseBatch> batches=ThreadLocal.withInitial(SparseBatch::new);
+		final LongAdder count=new LongAdder();
+		final Semaphore inFlight=new Semaphore(threadNum*2);
+		ExecutorService executor=Executors.newFixedThreadPool(threadNum);
+		List<Future<?>> futures=new ArrayList<>();
+		try
+		{
+			char[] carry=new char[0];
+			boolean eof=false;
+			while(!eof)
+			{
+				char[] block=Arrays.copyOf(carry, Math.max(blockSize, carry.length<<1));
+				int len=carry.length;
+				while(len<block.length)
+				{
+					int n=reader.read(block, len, block.length-len);
+					if(n<0)
+					{
+						eof=true;
+						break;
+					}
+					len+=n;
+				}
+				int cut=len;
+				if(!eof)
+				{
+					while(cut>0 && block[cut-1]!='\n')
+					{
+						--cut;
+					}
+					if(cut==0)
+					{
+						carry=Arrays.copyOf(block, len);
+						continue;
+					}
+				}
+				carry=Arrays.copyOfRange(block, cut, len);
+				final char[] text=block;
+				final int textEnd=cut;
+				inFlight.acquireUninterruptibly();
+				futures.add(executor.submit(() -> {
+					try
+					{
+						SparseBatch batch=batches.get();
+						batch.clear();
+						count.add(parsers.get().parseLines(CharBuffer.wrap(text), 0, textEnd, batch));
+						consumer.accept(batch);
+					}
+					finally
+					{
+						inFlight.release();
+					}
+				}));
+				if(futures.size()>threadNum*4)
+					futures.remove(0).get();
+			}
+			for(Future<?> future : futures)
+			{
+				future.get();
+			}
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("FeatureStringParser::parseParallel: interrupted!", e);
+		}
+		catch(ExecutionException e)
+		{
+			if(e.getCause() instanceof RuntimeException)
+				throw (RuntimeException)e.getCause();
+			throw new IllegalStateException("FeatureStringParser::parseParallel: parsing failed!", e.getCause());
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+		return count.sum();
+	}
+
+	private void skipSpaces()
+	{
+		while(pos<end && isSpace(s.charAt(pos)))
+		{
+			++pos;
+		}
+	}
+
+	private static boolean isSpace(char c)
+	{
+		return c==' ' || c=='\t' || c=='\r' || c=='\n' || c=='\f';
+	}
+
+	private int scanInt()
+	{
+		int start=pos;
+		boolean negative=false;
+		if(pos<end && (s.charAt(pos)=='-' || s.charAt(pos)=='+'))
+			negative=s.charAt(pos++)=='-';
+		long res=0;
+		int digitStart=pos;
+		while(pos<end)
+		{
+			int d=s.charAt(pos)-'0';
+			if(d<0 || d>9)
+				break;
+			res=res*10+d;
+			if(res>(long)Integer.MAX_VALUE+1)
+				throw new NumberFormatException("FeatureStringParser::scanInt: integer overflow at "+start+"!");
+			++pos;
+		}
+		if(pos==digitStart || (!negative && res>Integer.MAX_VALUE))
+			throw new NumberFormatException("FeatureStringParser::scanInt: illegal integer at "+start+"!");
+		return (int)(negative ? -res : res);
+	}
+
+	private double scanDouble()
+	{
+		int start=pos;
+		boolean negative=false;
+		if(pos<end && (s.charAt(pos)=='-' || s.charAt(pos)=='+'))
+			negative=s.charAt(pos++)=='-';
+		long mantissa=0;
+		int significant=0;
+		int exp10=0;
+		boolean anyDigit=false;
+		char c;
+		while(pos<end && (c=s.charAt(pos))>='0' && c<='9')
+		{
+			anyDigit=true;
+			if(significant<18)
+			{
+				mantissa=mantissa*10+(c-'0');
+				if(mantissa!=0)
+					++significant;
+			}
+			else
+			{
+				++significant;
+				++exp10;
+			}
+			++pos;
+		}
+		if(pos<end && s.charAt(pos)=='.')
+		{
+			++pos;
+			while(pos<end && (c=s.charAt(pos))>='0' && c<='9')
+			{
+				anyDigit=true;
+				if(significant<18)
+				{
+					mantissa=mantissa*10+(c-'0');
+					if(mantissa!=0)
+						++significant;
+					--exp10;
+				}
+				else
+					++significant;
+				++pos;
+			}
+		}
+		if(anyDigit && pos<end && ((c=s.charAt(pos))=='e' || c=='E'))
+		{
+			++pos;
+			boolean negativeExp=false;
+			if(pos<end && (s.charAt(pos)=='-' || s.charAt(pos)=='+'))
+				negativeExp=s.charAt(pos++)=='-';
+			int exp=0;
+			int expStart=pos;
+			while(pos<end && (c=s.charAt(pos))>='0' && c<='9')
+			{
+				if(exp<100000)
+					exp=exp*10+(c-'0');
+				++pos;
+			}
+			if(pos==expStart)
+				anyDigit=false;
+			exp10+=negativeExp ? -exp : exp;
+		}
+		if(!anyDigit || (pos<end && !isSpace(s.charAt(pos))))
+		{
+			while(pos<end && !isSpace(s.charAt(pos)))
+			{
+				++pos;
+			}
+			return Double.parseDouble(s.subSequence(start, pos).toString());
+		}
+		if(significant<=15 && exp10>=-22 && exp10<=22)
+		{
+			double value=exp10>=0 ? mantissa*POW10[exp10] : mantissa/POW10[-exp10];
+			return negative ? -value : value;
+		}
+		return Double.parseDouble(s.subSequence(start, pos).toString());
+	}
+}
@@ -0,0 +1,290 @@
+package com.eroelf.javaxsx.util.ml.feature;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * An immutable feature dictionary, usually frozen from a {@link FeatureDictionary}, which keeps all names in one {@code char[]} and looks them up by a minimal perfect hash.
+ * The perfect hash is built by the hash-and-displace method: the names are hashed into buckets of about 4 names, and each bucket stores a displacement which places its names into distinct slots of a table about 3% larger than {@link #size()}, whose spare slots are marked empty, so that the last buckets still find free slots quickly.
+ * A lookup takes one hash of the name, one displaced slot, and one comparison with the stored name to reject unknown names, without creating any object, so any {@link CharSequence} can be looked up.
+ *
+ * @author weikun.zhong
+ */
+public class FrozenFeatureDictionary
+{
+	public static final int ABSENT=FeatureDictionary.ABSENT;
+
+	private static final int BUCKET_LOAD=4;
+	private static final int MAX_DISPLACEMENT=1<<24;
+
+	private final DictionarySnapshot snapshot;
+	private final int[] offsets;
+	private final char[] chars;
+	private final int[] displacements;
+	private final int[] slotToId;
+	private final int size;
+	private final int slotNum;
+
+	FrozenFeatureDictionary(DictionarySnapshot snapshot)
+	{
+		this.offsets=snapshot.offsets;
+		this.chars=snapshot.chars;
+		this.size=snapshot.size();
+		slotNum=size+(size>>5)+1;
+		slotToId=new int[slotNum];
+		long[] hashes=new long[size];
+		for(int i=0; i<size; i++)
+		{
+			hashes[i]=hash(chars, offsets[i], offsets[i+1]);
+		}
+		if(size>0 && !load(snapshot.displacements, hashes))
+		{
+			this.displacements=build(hashes);
+			this.snapshot=new DictionarySnapshot(offsets, displacements, chars);
+		}
+		else
+		{
+			this.displacements=snapshot.displacements;
+			this.snapshot=snapshot;
+		}
+	}
+
+	/**
+	 * Fills the slots by the displacements of a snapshot.
+	 *
+	 * @return {@code true} if the displacements form a perfect hash of the names, or {@code false} if the perfect hash should be built instead, e.g. if the snapshot does not include it.
+	 */
+	private boolean load(int[] displacements, long[] hashes)
+	{
+		if(displacements.length!=(size+BUCKET_LOAD-1)/BUCKET_LOAD)
+			return false;
+		Arrays.fill(slotToId, ABSENT);
+		for(int i=0; i<size; i++)
+		{
+			int slot=slot(hashes[i], displacements[bucketOf(hashes[i], displacements.length)]);
+			if(slotToId[slot]!=ABSENT)
+				return false;
+			slotToId[slot]=i;
+		}
+		return true;
+	}
+
+	private int[] build(long[] hashes)
+	{
+		int bucketNum=(size+BUCKET_LOAD-1)/BUCKET_LOAD;
+		int[] bucketStarts=new int[bucketNum+1];
+		for(long h : hashes)
+		{
+			++bucketStarts[bucketOf(h, bucketNum)+1];
+		}
+		int maxBucketSize=0;
+		for(int b=0; b<bucketNum; b++)
+		{
+			maxBucketSize=Math.max(maxBucketSize, bucketStarts[b+1]);
+			bucketStarts[b+1]+=bucketStarts[b];
+		}
+		int[] members=new int[size];
+		int[] fill=new int[bucketNum];
+		for(int i=0; i<size; i++)
+		{
+			int b=bucketOf(hashes[i], bucketNum);
+			members[bucketStarts[b]+fill[b]++]=i;
+		}
+		for(int b=0; b<bucketNum; b++)
+		{
+			checkDistinct(hashes, members, bucketStarts[b], bucketStarts[b+1]);
+		}
+
+		// Places larger buckets first, when there are still many free slots.
+		int[][] bySize=new int[maxBucketSize+1][];
+		int[] bySizeNum=new int[maxBucketSize+1];
+		for(int b=0; b<bucketNum; b++)
+		{
+			++bySizeNum[bucketStarts[b+1]-bucketStarts[b]];
+		}
+		for(int s=0; s<=maxBucketSize; s++)
+		{
+			bySize[s]=new int[bySizeNum[s]];
+			bySizeNum[s]=0;
+		}
+		for(int b=0; b<bucketNum; b++)
+		{
+			int s=bucketStarts[b+1]-bucketStarts[b];
+			bySize[s][bySizeNum[s]++]=b;
+		}
+
+		int[] displacements=new int[bucketNum];
+		Arrays.fill(slotToId, ABSENT);
+		int[] slots=new int[maxBucketSize];
+		for(int s=maxBucketSize; s>0; s--)
+		{
+			for(int b : bySize[s])
+			{
+				int from=bucketStarts[b];
+				int d=0;
+				while(!tryPlace(hashes, members, from, s, d, slots))
+				{
+					if(++d==MAX_DISPLACEMENT)
+						throw new IllegalStateException("FrozenFeatureDictionary::build: no displacement found for bucket "+b+"!");
+				}
+				displacements[b]=d;
+				for(int k=0; k<s; k++)
+				{
+					slotToId[slots[k]]=members[from+k];
+				}
+			}
+		}
+		return displacements;
+	}
+
+	/**
+	 * Names of the same hash would never be placed into distinct slots, so they are rejected before placing.
+	 */
+	private void checkDistinct(long[] hashes, int[] members, int from, int to)
+	{
+		for(int i=from; i<to; i++)
+		{
+			for(int j=from; j<i; j++)
+			{
+				if(hashes[members[i]]==hashes[members[j]])
+				{
+					String name=nameOf(members[i]);
+					if(name.equals(nameOf(members[j])))
+						throw new IllegalArgumentException("FrozenFeatureDictionary::build: duplicated name "+name+"!");
+					throw new IllegalArgumentException("FrozenFeatureDictionary::build: hash collision between names "+nameOf(members[j])+" and "+name+"!");
+				}
+			}
+		}
+	}
+
+	private boolean tryPlace(long[] hashes, int[] members, int from, int num, int d, int[] slots)
+	{
+		for(int k=0; k<num; k++)
+		{
+			int slot=slot(hashes[members[from+k]], d);
+			if(slotToId[slot]!=ABSENT)
+				return false;
+			for(int j=0; j<k; j++)
+			{
+				if(slots[j]==slot)
+					return false;
+			}
+			slots[k]=slot;
+		}
+		return true;
+	}
+
+	private int bucket(long h)
+	{
+		return bucketOf(h, displacements.length);
+	}
+
+	private static int bucketOf(long h, int bucketNum)
+	{
+		return (int)(((h>>>32)*bucketNum)>>>32);
+	}
+
+	private int slot(long h, int d)
+	{
+		return (int)(((fmix64(h+d*0x9E3779B97F4A7C15L)>>>32)*slotNum)>>>32);
+	}
+
+	/**
+	 * @return the id of the given name, or {@link #ABSENT} if the name is not in this dictionary.
+	 */
+	public int idOf(CharSequence name)
+	{
+		if(size==0)
+			return ABSENT;
+		long h=hash(name);
+		int id=slotToId[slot(h, displacements[bucket(h)])];
+		if(id==ABSENT)
+			return ABSENT;
+		int from=offsets[id];
+		int length=name.length();
+		if(offsets[id+1]-from!=length)
+			return ABSENT;
+		for(int i=0; i<length; i++)
+		{
+			if(chars[from+i]!=name.charAt(i))
+				return ABSENT;
+		}
+		return id;
+	}
+
+	/**
+	 * @return the name of the given id, or {@code null} if the id is out of {@code [0, size())}.
+	 */
+	public String nameOf(int id)
+	{
+		return id>=0 && id<size ? new String(chars, offsets[id], offsets[id+1]-offsets[id]) : null;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * @return a new {@link FeatureDictionary} of all names of this dictionary with the same ids, which can intern more names.
+	 */
+	public FeatureDictionary thaw()
+	{
+		return FeatureDictionary.of(snapshot);
+	}
+
+	/**
+	 * Writes a snapshot of this dictionary, including the perfect hash, so that loading needs no rebuilding.
+	 *
+	 * @param file the snapshot file to write.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public void save(String file) throws IOException
+	{
+		snapshot.write(file);
+	}
+
+	/**
+	 * Loads a snapshot written by either a {@link FrozenFeatureDictionary} or a {@link FeatureDictionary}, with the same ids.
+	 * The perfect hash is built if the snapshot does not include it.
+	 *
+	 * @param file the snapshot file.
+	 * @return the loaded dictionary.
+	 * @throws IOException if an I/O error occurs or the file is not a snapshot.
+	 */
+	public static FrozenFeatureDictionary load(String file) throws IOException
+	{
+		return new FrozenFeatureDictionary(DictionarySnapshot.read(file));
+	}
+
+	private static long hash(CharSequence s)
+	{
+		long h=0xcbf29ce484222325L;
+		int length=s.length();
+		for(int i=0; i<length; i++)
+		{
+			h=(h^s.charAt(i))*0x100000001b3L;
+		}
+		return fmix64(h^length);
+	}
+
+	private static long hash(char[] chars, int from, int to)
+	{
+		long h=0xcbf29ce484222325L;
+		for(int i=from; i<to; i++)
+		{
+			h=(h^chars[i])*0x100000001b3L;
+		}
+		return fmix64(h^(to-from));
+	}
+
+	private static long fmix64(long h)
+	{
+		h^=h>>>33;
+		h*=0xff51afd7ed558ccdL;
+		h^=h>>>33;
+		h*=0xc4ceb9fe1a85ec53L;
+		h^=h>>>33;
+		return h;
+	}
+}
@@ -0,0 +1,150 @@
+package com.eroelf.javaxsx.util.ml.feature;
+
+import java.util.Arrays;
+
+/**
+ * A batch of labeled sparse examples stored row by row in reusable primitive buffers, in the compressed sparse row layout.
+ * The buffers grow on demand and are kept by {@link #clear()}, so a batch can be refilled without allocation.
+ * Use a {@link FeatureStringParser} to fill a batch from LIBSVM lines or {@link Item#getFeatureString() feature strings}.
+ *
+ * @author weikun.zhong
+ */
+public class SparseBatch
+{
+	private double[] labels;
+	private int[] rowStarts;
+	private int[] indices;
+	private double[] values;
+	private int size=0;
+	private int nnz=0;
+
+	public SparseBatch()
+	{
+		this(256, 4096);
+	}
+
+	/**
+	 * @param expectedRows the expected number of rows.
+	 * @param expectedNnz the expected total number of features of all rows.
+	 */
+	public SparseBatch(int expectedRows, int expectedNnz)
+	{
+		labels=new double[Math.max(expectedRows, 1)];
+		rowStarts=new int[Math.max(expectedRows, 1)+1];
+		indices=new int[Math.max(expectedNnz, 1)];
+		values=new double[Math.max(expectedNnz, 1)];
+	}
+
+	public void clear()
+	{
+		size=0;
+		nnz=0;
+	}
+
+	/**
+	 * Starts a new row.
+	 *
+	 * @param label the label of the row.
+	 */
+	public void startRow(double label)
+	{
+		if(size==labels.length)
+		{
+			labels=Arrays.copyOf(labels, size<<1);
+			rowStarts=Arrays.copyOf(rowStarts, (size<<1)+1);
+		}
+		labels[size]=label;
+		rowStarts[size++]=nnz;
+		rowStarts[size]=nnz;
+	}
+
+	/**
+	 * Appends a feature to the current row.
+	 *
+	 * @param idx the feature index.
+	 * @param value the feature value.
+	 */
+	public void addFeature(int idx, double value)
+	{
+		if(nnz==indices.length)
+		{
+			indices=Arrays.copyOf(indices, nnz<<1);
+			values=Arrays.copyOf(values, nnz<<1);
+		}
+		indices[nnz]=idx;
+		values[nnz++]=value;
+		rowStarts[size]=nnz;
+	}
+
+	/**
+	 * Removes the current row, e.g. when parsing it failed.
+	 */
+	public void dropRow()
+	{
+		if(size>0)
+		{
+			nnz=rowStarts[--size];
+			rowStarts[size]=nnz;
+		}
+	}
+
+	/**
+	 * @return the number of rows.
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	public int nnz()
+	{
+		return nnz;
+	}
+
+	public double getLabel(int row)
+	{
+		return labels[row];
+	}
+
+	/**
+	 * @return the position of the first feature of the given row in the {@link #getIndex(int) index} and {@link #getValue(int) value} buffers.
+	 */
+	public int rowStart(int row)
+	{
+		return rowStarts[row];
+	}
+
+	/**
+	 * @return the position after the last feature of the given row.
+	 */
+	public int rowEnd(int row)
+	{
+		return rowStarts[row+1];
+	}
+
+	public int getIndex(int pos)
+	{
+		return indices[pos];
+	}
+
+	public double getValue(int pos)
+	{
+		return values[pos];
+	}
+
+	/**
+	 * Sets the features of the given row to the given {@link Item} object.
+	 *
+	 * @param row the row.
+	 * @param item the {@link Item} object to be filled.
+	 * @return the filled {@link Item} object.
+	 */
+	public <T extends Item> T fill(int row, T item)
+	{
+		for(int k=rowStarts[row], end=rowStarts[row+1]; k<end; k++)
+		{
+			item.setFeature(indices[k], values[k]);
+		}
+		return item;
+	}
+}
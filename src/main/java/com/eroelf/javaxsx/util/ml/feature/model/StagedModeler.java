@@ -0,0 +1,35 @@
+package com.eroelf.javaxsx.util.ml.feature.model;
+
+/**
+ * A {@link Modeler} which models a {@link Modelable} instance in two stages: fetching the data it needs, e.g. from a remote store, and applying the fetched data to the {@link Modelable} instance.
+ * Only the fetching stage of independent {@link StagedModeler}s runs in parallel in a {@link com.eroelf.javaxsx.util.ml.feature.model.impl.ModelerGraph ModelerGraph}, while the applying stages, like all other {@link Modeler}s there, run one at a time on the same {@link Modelable} instance. Thus the fetching stage must neither change the {@link Modelable} instance nor read its features, which belongs to the applying stage, but only what never changes during modeling, e.g. an id.
+ *
+ * @author weikun.zhong
+ *
+ * @param <F> the type of the fetched data.
+ */
+public interface StagedModeler<F> extends Modeler
+{
+	/**
+	 * Fetches the data to model the given {@link Modelable} instance, without changing it.
+	 *
+	 * @param modelable the {@link Modelable} instance.
+	 * @return the fetched data.
+	 */
+	public F fetch(Modelable modelable);
+
+	/**
+	 * Applies the fetched data to the given {@link Modelable} instance.
+	 *
+	 * @param modelable the {@link Modelable} instance.
+	 * @param fetched the data fetched by the {@link #fetch(Modelable) fetch} method for the same {@link Modelable} instance.
+	 */
+	public void apply(Modelable modelable, F fetched);
+
+	@Override
+	default Modelable model(Modelable modelable)
+	{
+		apply(modelable, fetch(modelable));
+		return modelable;
+	}
+}
@@ -0,0 +1,78 @@
+package com.eroelf.javaxsx.util.ml.feature.model.impl;
+
+import java.util.Arrays;
+
+import com.eroelf.javaxsx.util.math.RankTransform;
+import com.eroelf.javaxsx.util.math.mapping.Mapping;
+import com.eroelf.javaxsx.util.ml.feature.Item;
+import com.eroelf.javaxsx.util.ml.feature.model.Modelable;
+import com.eroelf.javaxsx.util.ml.feature.model.Modeler;
+
+/**
+ * A {@link Modeler} which transforms features of {@link Item} objects in place, each by its own {@link Mapping}, typically a {@link RankTransform} fitted offline, so that live features are normalized the same way as the training data.
+ * A transformed feature is deleted before it is set, so that {@link Item} implementations which only append features are also supported. Modeling an {@link Item} object allocates nothing beyond what its own methods do.
+ * Transforms should be added before the {@link #model(Modelable) model} method is called, after which this object is thread-safe if all {@link Mapping}s are.
+ *
+ * @author weikun.zhong
+ */
+public class FeatureTransformModeler implements Modeler
+{
+	private final boolean transformZeros;
+	private int[] indices=new int[0];
+	private Mapping[] mappings=new Mapping[0];
+
+	/**
+	 * @param transformZeros if {@code false}, features of value 0, i.e. absent features of sparse {@link Item} objects, are left unchanged.
+	 */
+	public FeatureTransformModeler(boolean transformZeros)
+	{
+		this.transformZeros=transformZeros;
+	}
+
+	/**
+	 * Sets the {@link Mapping} of a feature, replacing the former one if any.
+	 *
+	 * @param idx the feature index.
+	 * @param mapping the {@link Mapping}.
+	 * @return this object.
+	 */
+	public FeatureTransformModeler put(int idx, Mapping mapping)
+	{
+		if(mapping==null)
+			throw new IllegalArgumentException("FeatureTransformModeler::put: mapping must not be null!");
+		for(int i=0; i<indices.length; i++)
+		{
+			if(indices[i]==idx)
+			{
+				mappings[i]=mapping;
+				return this;
+			}
+		}
+		indices=Arrays.copyOf(indices, indices.length+1);
+		mappings=Arrays.copyOf(mappings, mappings.length+1);
+		indices[indices.length-1]=idx;
+		mappings[mappings.length-1]=mapping;
+		return this;
+	}
+
+	@Override
+	public Modelable model(Modelable modelable)
+	{
+		if(modelable instanceof Item)
+		{
+			Item item=(Item)modelable;
+			for(int i=0; i<indices.length; i++)
+			{
+				double value=item.getFeature(indices[i]);
+				if(value!=0 || transformZeros)
+				{
+					double transformed=mappings[i].map(value);
+					item.deleteFeature(indices[i]);
+					if(transformed!=0)
+						item.setFeature(indices[i], transformed);
+				}
+			}
+		}
+		return modelable;
+	}
+}
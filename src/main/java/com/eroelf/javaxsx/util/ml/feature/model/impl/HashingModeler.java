@@ -0,0 +1,338 @@
+package com.eroelf.javaxsx.util.ml.feature.model.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+import com.eroelf.javaxsx.util.ml.feature.ArrayFeatureItem;
+import com.eroelf.javaxsx.util.ml.feature.Item;
+import com.eroelf.javaxsx.util.ml.feature.model.Modelable;
+import com.eroelf.javaxsx.util.ml.feature.model.Modeler;
+
+/**
+ * A {@link Modeler} which fills string and categorical features into {@link Item} objects by the hashing trick, so that no feature dictionary is needed.
+ * Each namespace provides the raw values of an {@link Item} object, and each {@code (namespace, value)} pair is hashed by MurmurHash3 into an index in {@code [indexOffset, indexOffset+2^bits)} with the feature value 1.
+ * A {@link Number} value is regarded as a numeric feature, whose index is hashed from its namespace only and whose feature value is the number itself.
+ * Pairwise crosses of two namespaces are hashed from the hashes of both values, with the product of both feature values.
+ *
+ * Values which fall into the same index, including the value the {@link Item} object already has, are added together before the index is set, and an index whose sum is 0 is deleted. With signed hashing, another bit of the hash decides the sign of each feature value, so that collisions cancel out in expectation.
+ * An {@link ArrayFeatureItem} object must have at least {@code indexOffset+2^bits} features.
+ * Namespaces and crosses should be added before the {@link #model(Modelable) model} method is called, after which this object is thread-safe.
+ *
+ * @author weikun.zhong
+ */
+public class HashingModeler<T extends Item> implements Modeler
+{
+	private static final class Namespace<T>
+	{
+		private final String name;
+		private final int seed;
+		private final Function<? super T, ?> valueFunction;
+
+		private Namespace(String name, Function<? super T, ?> valueFunction)
+		{
+			this.name=name;
+			this.seed=hash(name, 0);
+			this.valueFunction=valueFunction;
+		}
+	}
+
+	private static final class Scratch
+	{
+		private static final int EMPTY=-1;
+
+		private final int[][] hashes;
+		private final double[][] values;
+		private final int[] sizes;
+
+		/**
+		 * An open-addressing map from feature indices to their sums, reset through its touched slots only.
+		 */
+		private int[] slotIndices=new int[0];
+		private double[] slotSums=new double[0];
+		private int[] touchedSlots=new int[0];
+		private int touchedNum;
+		private int shift;
+
+		private Scratch(int namespaceNum)
+		{
+			hashes=new int[namespaceNum][8];
+			values=new double[namespaceNum][8];
+			sizes=new int[namespaceNum];
+		}
+
+		private void add(int namespace, int hash, double value)
+		{
+			int size=sizes[namespace];
+			if(size==hashes[namespace].length)
+			{
+				hashes[namespace]=Arrays.copyOf(hashes[namespace], size<<1);
+				values[namespace]=Arrays.copyOf(values[namespace], size<<1);
+			}
+			hashes[namespace][size]=hash;
+			values[namespace][size]=value;
+			sizes[namespace]=size+1;
+		}
+
+		private void reserve(long featureNum)
+		{
+			if(featureNum>1<<29)
+				throw new IllegalArgumentException("HashingModeler::model: too many hashed features!");
+			int capacity=Integer.highestOneBit((int)Math.max(featureNum, 2)*2-1)<<1;
+			if(capacity<=slotIndices.length)
+				return;
+			slotIndices=new int[capacity];
+			Arrays.fill(slotIndices, EMPTY);
+			slotSums=new double[capacity];
+			touchedSlots=new int[capacity>>1];
+			shift=Integer.numberOfLeadingZeros(capacity)+1;
+		}
+
+		/**
+		 * Adds the given value to the sum of the given index, which starts from the value the {@link Item} object has.
+		 */
+		private void add(Item item, int idx, double value)
+		{
+			int mask=slotIndices.length-1;
+			int slot=(idx*0x9E3779B9)>>>shift;
+			while(slotIndices[slot]!=idx)
+			{
+				if(slotIndices[slot]==EMPTY)
+				{
+					slotIndices[slot]=idx;
+					slotSums[slot]=item.getFeature(idx);
+					touchedSlots[touchedNum++]=slot;
+					break;
+				}
+				slot=(slot+1)&mask;
+			}
+			slotSums[slot]+=value;
+		}
+
+		/**
+		 * Sets the sums into the given {@link Item} object, replacing its former values, and empties the map.
+		 */
+		private void flush(Item item)
+		{
+			for(int t=0; t<touchedNum; t++)
+			{
+				int slot=touchedSlots[t];
+				int idx=slotIndices[slot];
+				item.deleteFeature(idx);
+				if(slotSums[slot]!=0)
+					item.setFeature(idx, slotSums[slot]);
+				slotIndices[slot]=EMPTY;
+			}
+			touchedNum=0;
+		}
+	}
+
+	private final int indexOffset;
+	private final int mask;
+	private final boolean signed;
+	private final List<Namespace<T>> namespaces=new ArrayList<>();
+	private final List<int[]> crosses=new ArrayList<>();
+	private final ThreadLocal<Scratch> scratches=ThreadLocal.withInitial(() -> new Scratch(namespaces.size()));
+
+	/**
+	 * @param bits the width of the hashed index space, in {@code [1, 30]}.
+	 * @param indexOffset the smallest hashed index, so that hashed features can follow other features in the same {@link Item} object.
+	 * @param signed {@code true} for signed hashing.
+	 */
+	public HashingModeler(int bits, int indexOffset, boolean signed)
+	{
+		if(bits<1 || bits>30 || indexOffset<0 || indexOffset>Integer.MAX_VALUE-(1<<bits))
+			throw new IllegalArgumentException("HashingModeler::HashingModeler: illegal index space!");
+		this.indexOffset=indexOffset;
+		this.mask=(1<<bits)-1;
+		this.signed=signed;
+	}
+
+	/**
+	 * Adds a namespace.
+	 *
+	 * @param name the name of the namespace, which distinguishes equal values of different namespaces.
+	 * @param valueFunction gives the raw value of an {@link Item} object, which can be {@code null} for no value, a {@link Number} for a numeric feature, an {@link Iterable} or an {@code Object[]} for multiple values, or any other object whose {@link Object#toString() toString} result is the categorical value.
+	 * @return this object.
+	 */
+	public HashingModeler<T> addNamespace(String name, Function<? super T, ?> valueFunction)
+	{
+		for(Namespace<T> namespace : namespaces)
+		{
+			if(namespace.name.equals(name))
+				throw new IllegalArgumentException("HashingModeler::addNamespace: duplicated namespace \""+name+"\"!");
+		}
+		namespaces.add(new Namespace<>(name, valueFunction));
+		return this;
+	}
+
+	/**
+	 * Adds a pairwise cross of two added namespaces.
+	 *
+	 * @param first the name of the first namespace.
+	 * @param second the name of the second namespace.
+	 * @return this object.
+	 */
+	public HashingModeler<T> addCross(String first, String second)
+	{
+		crosses.add(new int[]{namespaceIndex(first), namespaceIndex(second)});
+		return this;
+	}
+
+	private int namespaceIndex(String name)
+	{
+		for(int i=0; i<namespaces.size(); i++)
+		{
+			if(namespaces.get(i).name.equals(name))
+				return i;
+		}
+		throw new IllegalArgumentException("HashingModeler::namespaceIndex: unknown namespace \""+name+"\"!");
+	}
+
+	/**
+	 * @return the hashed index of the given hash.
+	 */
+	public int indexOf(int hash)
+	{
+		return indexOffset+(hash&mask);
+	}
+
+	/**
+	 * @return the hash of the given categorical value in the given namespace, see {@link #indexOf(int)}.
+	 */
+	public int hashOf(String namespace, String value)
+	{
+		return hash(value, namespaces.get(namespaceIndex(namespace)).seed);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public Modelable model(Modelable modelable)
+	{
+		T item=(T)modelable;
+		if(item instanceof ArrayFeatureItem && ((ArrayFeatureItem)item).getFeatures().length<indexOffset+mask+1)
+			throw new IllegalArgumentException("HashingModeler::model: an ArrayFeatureItem must have at least "+(indexOffset+mask+1)+" features!");
+		Scratch scratch=scratches.get();
+		if(scratch.sizes.length!=namespaces.size())
+		{
+			scratch=new Scratch(namespaces.size());
+			scratches.set(scratch);
+		}
+		Arrays.fill(scratch.sizes, 0);
+		for(int i=0; i<namespaces.size(); i++)
+		{
+			Namespace<T> namespace=namespaces.get(i);
+			Object value=namespace.valueFunction.apply(item);
+			if(value instanceof Iterable)
+			{
+				for(Object v : (Iterable<?>)value)
+				{
+					collect(scratch, i, namespace.seed, v);
+				}
+			}
+			else if(value instanceof Object[])
+			{
+				for(Object v : (Object[])value)
+				{
+					collect(scratch, i, namespace.seed, v);
+				}
+			}
+			else
+				collect(scratch, i, namespace.seed, value);
+		}
+
+		long featureNum=0;
+		for(int size : scratch.sizes)
+		{
+			featureNum+=size;
+		}
+		for(int[] cross : crosses)
+		{
+			featureNum+=(long)scratch.sizes[cross[0]]*scratch.sizes[cross[1]];
+		}
+		scratch.reserve(featureNum);
+		for(int i=0; i<namespaces.size(); i++)
+		{
+			for(int k=0; k<scratch.sizes[i]; k++)
+			{
+				addFeature(item, scratch, scratch.hashes[i][k], scratch.values[i][k]);
+			}
+		}
+		for(int[] cross : crosses)
+		{
+			int a=cross[0];
+			int b=cross[1];
+			for(int j=0; j<scratch.sizes[a]; j++)
+			{
+				for(int k=0; k<scratch.sizes[b]; k++)
+				{
+					addFeature(item, scratch, combine(scratch.hashes[a][j], scratch.hashes[b][k]), scratch.values[a][j]*scratch.values[b][k]);
+				}
+			}
+		}
+		scratch.flush(item);
+		return item;
+	}
+
+	private static void collect(Scratch scratch, int namespace, int seed, Object value)
+	{
+		if(value==null)
+			return;
+		if(value instanceof Number)
+			scratch.add(namespace, fmix(seed), ((Number)value).doubleValue());
+		else
+			scratch.add(namespace, hash(value instanceof CharSequence ? (CharSequence)value : value.toString(), seed), 1);
+	}
+
+	private void addFeature(Item item, Scratch scratch, int hash, double value)
+	{
+		if(signed && hash<0)
+			value=-value;
+		scratch.add(item, indexOf(hash), value);
+	}
+
+	private static int combine(int first, int second)
+	{
+		return fmix(mixK(first)*5+second*0x9E3779B9);
+	}
+
+	/**
+	 * The 32-bit MurmurHash3 of the UTF-16 code units of the given {@link CharSequence}, two units per block, without creating any object.
+	 *
+	 * @param s the {@link CharSequence} to hash.
+	 * @param seed the seed.
+	 * @return the hash.
+	 */
+	public static int hash(CharSequence s, int seed)
+	{
+		int h=seed;
+		int length=s.length();
+		int i=0;
+		for(; i+1<length; i+=2)
+		{
+			h^=mixK(s.charAt(i)|(s.charAt(i+1)<<16));
+			h=Integer.rotateLeft(h, 13)*5+0xe6546b64;
+		}
+		if(i<length)
+			h^=mixK(s.charAt(i));
+		return fmix(h^(length<<1));
+	}
+
+	private static int mixK(int k)
+	{
+		k*=0xcc9e2d51;
+		k=Integer.rotateLeft(k, 15);
+		return k*0x1b873593;
+	}
+
+	private static int fmix(int h)
+	{
+		h^=h>>>16;
+		h*=0x85ebca6b;
+		h^=h>>>13;
+		h*=0xc2b2ae35;
+		h^=h>>>16;
+		return h;
+	}
+}
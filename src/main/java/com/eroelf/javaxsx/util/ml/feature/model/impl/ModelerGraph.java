@@ -0,0 +1,192 @@
+package com.eroelf.javaxsx.util.ml.feature.model.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import com.eroelf.javaxsx.util.Futures;
+import com.eroelf.javaxsx.util.ml.feature.model.Modelable;
+import com.eroelf.javaxsx.util.ml.feature.model.Modeler;
+import com.eroelf.javaxsx.util.ml.feature.model.StagedModeler;
+
+/**
+ * An instance of this class is able to combine multiple {@link Modeler}s which depend on each other into a directed acyclic graph, and to model a specified {@link Modelable} instance, or a batch of them, by running independent {@link Modeler}s in parallel.
+ * Each {@link Modeler} is added with the names of the {@link Modeler}s it depends on, which must have been added before, so that the graph can never have a cycle. A {@link Modeler} starts as soon as all its dependencies are done, on the given {@link Executor}, except that one {@link Modeler} without dependencies runs on the caller thread.
+ * Without an {@link Executor}, the {@link Modeler}s run on the caller thread in the order they were added, the same as a {@link CombinedModeler}.
+ *
+ * Since most {@link Modelable} classes, e.g. {@link com.eroelf.javaxsx.util.ml.feature.MapFeatureItem MapFeatureItem}, do not tolerate concurrent writes, every {@link Modeler} models a {@link Modelable} instance holding its lock, so that the {@link Modeler}s change it one at a time.
+ * Thus independent {@link Modeler}s overlap only in the fetching stage of {@link StagedModeler}s, which runs without the lock and is where the slow work, e.g. a remote lookup, belongs.
+ * The {@link Executor} should not be the one on which the flow models and scores its batches, otherwise those tasks may wait for {@link Modeler}s which can never get a thread.
+ * {@link Modeler}s should be added before the {@link #model(Modelable) model} method is called, after which this object is thread-safe if all {@link Modeler}s are.
+ *
+ * @author weikun.zhong
+ */
+public class ModelerGraph implements Modeler
+{
+	private static final class Node
+	{
+		private final Modeler modeler;
+		private final int[] dependencies;
+
+		private Node(Modeler modeler, int[] dependencies)
+		{
+			this.modeler=modeler;
+			this.dependencies=dependencies;
+		}
+	}
+
+	private final Executor executor;
+	private final List<Node> nodes=new ArrayList<>();
+	private final Map<String, Integer> nameToIdx=new HashMap<>();
+
+	/**
+	 * @param executor the {@link Executor} to run independent {@link Modeler}s in parallel, or {@code null} to run all {@link Modeler}s on the caller thread.
+	 */
+	public ModelerGraph(Executor executor)
+	{
+		this.executor=executor;
+	}
+
+	/**
+	 * Adds a {@link Modeler}.
+	 *
+	 * @param name the unique name of the {@link Modeler}.
+	 * @param modeler the {@link Modeler}.
+	 * @param dependencies the names of the {@link Modeler}s which must be done before this one starts, all of which must have been added.
+	 * @return this object.
+	 */
+	public ModelerGraph addModeler(String name, Modeler modeler, String... dependencies)
+	{
+		if(modeler==null)
+			throw new IllegalArgumentException("ModelerGraph::addModeler: modeler must not be null!");
+		if(nameToIdx.containsKey(name))
+			throw new IllegalArgumentException("ModelerGraph::addModeler: duplicate modeler name "+name+"!");
+		int[] idx=new int[dependencies.length];
+		for(int i=0; i<dependencies.length; i++)
+		{
+			Integer dependency=nameToIdx.get(dependencies[i]);
+			if(dependency==null)
+				throw new IllegalArgumentException("ModelerGraph::addModeler: unknown dependency "+dependencies[i]+" of "+name+"!");
+			idx[i]=dependency;
+		}
+		nameToIdx.put(name, nodes.size());
+		nodes.add(new Node(modeler, idx));
+		return this;
+	}
+
+	@Override
+	public Modelable model(Modelable modelable)
+	{
+		run(Collections.singletonList(modelable));
+		return modelable;
+	}
+
+	/**
+	 * Models a batch of {@link Modelable} instances, where every {@link Modeler} models the whole batch as one task, which amortizes the cost of scheduling when {@link Modeler}s are cheap per instance.
+	 *
+	 * @param batch the {@link Modelable} instances.
+	 */
+	public void modelAll(Iterable<? extends Modelable> batch)
+	{
+		run(batch);
+	}
+
+	private static void modelLocked(Modeler modeler, Iterable<? extends Modelable> batch)
+	{
+		for(Modelable modelable : batch)
+		{
+			if(modeler instanceof StagedModeler)
+				modelLocked((StagedModeler<?>)modeler, modelable);
+			else
+			{
+				synchronized(modelable)
+				{
+					modeler.model(modelable);
+				}
+			}
+		}
+	}
+
+	private static <F> void modelLocked(StagedModeler<F> modeler, Modelable modelable)
+	{
+		F fetched=modeler.fetch(modelable);
+		synchronized(modelable)
+		{
+			modeler.apply(modelable, fetched);
+		}
+	}
+
+	private void run(Iterable<? extends Modelable> batch)
+	{
+		int size=nodes.size();
+		if(executor==null || size<2)
+		{
+			for(Node node : nodes)
+			{
+				for(Modelable modelable : batch)
+				{
+					node.modeler.model(modelable);
+				}
+			}
+			return;
+		}
+
+		CompletableFuture<?>[] futures=new CompletableFuture<?>[size];
+		boolean[] hasDependent=new boolean[size];
+		CompletableFuture<Void> inline=null;
+		int inlineIdx=-1;
+		for(int i=0; i<size; i++)
+		{
+			Node node=nodes.get(i);
+			Runnable runnable=() -> modelLocked(node.modeler, batch);
+			if(node.dependencies.length==0)
+			{
+				if(inline==null)
+				{
+					inline=new CompletableFuture<>();
+					inlineIdx=i;
+					futures[i]=inline;
+				}
+				else
+					futures[i]=CompletableFuture.runAsync(runnable, executor);
+			}
+			else if(node.dependencies.length==1)
+				futures[i]=futures[node.dependencies[0]].thenRunAsync(runnable, executor);
+			else
+			{
+				CompletableFuture<?>[] dependencies=new CompletableFuture<?>[node.dependencies.length];
+				for(int j=0; j<dependencies.length; j++)
+				{
+					dependencies[j]=futures[node.dependencies[j]];
+				}
+				futures[i]=CompletableFuture.allOf(dependencies).thenRunAsync(runnable, executor);
+			}
+			for(int dependency : node.dependencies)
+			{
+				hasDependent[dependency]=true;
+			}
+		}
+
+		try
+		{
+			modelLocked(nodes.get(inlineIdx).modeler, batch);
+			inline.complete(null);
+		}
+		catch(RuntimeException | Error e)
+		{
+			inline.completeExceptionally(e);
+		}
+
+		List<CompletableFuture<?>> sinks=new ArrayList<>();
+		for(int i=0; i<size; i++)
+		{
+			if(!hasDependent[i])
+				sinks.add(futures[i]);
+		}
+		Futures.join(CompletableFuture.allOf(sinks.toArray(new CompletableFuture<?>[sinks.size()])));
+	}
+}
@@ -0,0 +1,260 @@
+package com.eroelf.javaxsx.util.ml.feature.score;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+import com.eroelf.javaxsx.util.ml.feature.BatchScoreableRestrictedBatchSample;
+import com.eroelf.javaxsx.util.ml.feature.Item;
+import com.eroelf.javaxsx.util.ml.feature.Item.IndexedFeature;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+/**
+ * A {@link Scorer} decorator which caches the scores of {@link Item} objects, so that an {@link Item} scored again with identical features by the same model needs no scoring.
+ * A cached score is keyed by a caller-supplied item key, a fingerprint of the valid features, and the model version, and the cache is bounded with least-recently-used eviction.
+ * The model version is either fixed or read from a {@link LongSupplier} on every scoring, e.g. {@code registry::getVersion} of a wrapped {@link ScorerRegistry}, so that a model swapped inside the wrapped {@link Scorer} never gets the scores of the previous one, whose entries are then evicted as they are no longer used.
+ * Swapping the wrapped {@link Scorer} by the {@link #setScorer(Scorer, LongSupplier) setScorer} method invalidates all cached scores.
+ *
+ * Batched samples are supported: only the uncached samples are collected into a new batch and passed to the wrapped {@link Scorer}, thus the wrapped {@link Scorer} should be able to score a {@link BatchScoreableRestrictedBatchSample} if this decorator is.
+ *
+ * @author weikun.zhong
+ */
+public class CachingScorer implements Scorer
+{
+	private static final class Model
+	{
+		private final Scorer scorer;
+		private final LongSupplier versionSupplier;
+
+		private Model(Scorer scorer, LongSupplier versionSupplier)
+		{
+			this.scorer=scorer;
+			this.versionSupplier=versionSupplier;
+		}
+	}
+
+	private static final class Key
+	{
+		private final Object itemKey;
+		private final long fingerprint;
+		private final long version;
+
+		private Key(Object itemKey, long fingerprint, long version)
+		{
+			this.itemKey=itemKey;
+			this.fingerprint=fingerprint;
+			this.version=version;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			long h=fingerprint*31+version;
+			return itemKey.hashCode()*31+(int)(h^(h>>>32));
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			if(this==obj)
+				return true;
+			if(!(obj instanceof Key))
+				return false;
+			Key other=(Key)obj;
+			return fingerprint==other.fingerprint && version==other.version && itemKey.equals(other.itemKey);
+		}
+	}
+
+	private final Function<? super Item, ?> keyFunction;
+	private final Cache<Key, Double> cache;
+	private volatile Model model;
+
+	/**
+	 * @param scorer the wrapped {@link Scorer}.
+	 * @param version the version of the model used by the wrapped {@link Scorer}.
+	 * @param keyFunction gives the key of an {@link Item} object, e.g. its id, which must implement {@link Object#equals(Object) equals} and {@link Object#hashCode() hashCode} properly. An {@link Item} object whose key is {@code null} is never cached.
+	 * @param maximumSize the maximum number of cached scores.
+	 */
+	public CachingScorer(Scorer scorer, long version, Function<? super Item, ?> keyFunction, long maximumSize)
+	{
+		this(scorer, () -> version, keyFunction, maximumSize);
+	}
+
+	/**
+	 * @param scorer the wrapped {@link Scorer}.
+	 * @param versionSupplier gives the version of the model currently used by the wrapped {@link Scorer}, which must change whenever the model changes, e.g. {@code registry::getVersion} if the wrapped {@link Scorer} is a {@link ScorerRegistry}.
+	 * @param keyFunction gives the key of an {@link Item} object, see {@link #CachingScorer(Scorer, long, Function, long)}.
+	 * @param maximumSize the maximum number of cached scores.
+	 */
+	public CachingScorer(Scorer scorer, LongSupplier versionSupplier, Function<? super Item, ?> keyFunction, long maximumSize)
+	{
+		if(scorer==null || versionSupplier==null)
+			throw new IllegalArgumentException("CachingScorer::CachingScorer: scorer and versionSupplier must not be null!");
+		this.keyFunction=keyFunction;
+		cache=CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+		model=new Model(scorer, versionSupplier);
+	}
+
+	/**
+	 * Swaps the wrapped {@link Scorer} and invalidates all cached scores.
+	 * Scores computed by the previous {@link Scorer} concurrently are never returned for the new version.
+	 *
+	 * @param scorer the new wrapped {@link Scorer}.
+	 * @param version the version of the model used by the new {@link Scorer}, which should differ from the previous one.
+	 */
+	public void setScorer(Scorer scorer, long version)
+	{
+		setScorer(scorer, () -> version);
+	}
+
+	/**
+	 * Swaps the wrapped {@link Scorer} and invalidates all cached scores.
+	 *
+	 * @param scorer the new wrapped {@link Scorer}.
+	 * @param versionSupplier gives the version of the model currently used by the new {@link Scorer}.
+	 * @see #setScorer(Scorer, long)
+	 */
+	public void setScorer(Scorer scorer, LongSupplier versionSupplier)
+	{
+		if(scorer==null || versionSupplier==null)
+			throw new IllegalArgumentException("CachingScorer::setScorer: scorer and versionSupplier must not be null!");
+		model=new Model(scorer, versionSupplier);
+		cache.invalidateAll();
+	}
+
+	public Scorer getScorer()
+	{
+		return model.scorer;
+	}
+
+	public long getVersion()
+	{
+		return model.versionSupplier.getAsLong();
+	}
+
+	/**
+	 * Computes an order-independent 64-bit fingerprint of the valid features of the given {@link Item} object.
+	 *
+	 * @param item the {@link Item} object.
+	 * @return the fingerprint.
+	 */
+	public static long fingerprint(Item item)
+	{
+		long h=0;
+		int count=0;
+		for(IndexedFeature indexedFeature : item.getValidFeatures())
+		{
+			h+=mix(((long)indexedFeature.getIdx()<<32)^Double.doubleToLongBits(indexedFeature.getFeature()));
+			++count;
+		}
+		return mix(h+count);
+	}
+
+	private static long mix(long h)
+	{
+		h^=h>>>33;
+		h*=0xff51afd7ed558ccdL;
+		h^=h>>>33;
+		h*=0xc4ceb9fe1a85ec53L;
+		h^=h>>>33;
+		return h;
+	}
+
+	private Key keyOf(Scoreable scoreable, long version)
+	{
+		if(scoreable instanceof Item)
+		{
+			Item item=(Item)scoreable;
+			Object itemKey=keyFunction.apply(item);
+			if(itemKey!=null)
+				return new Key(itemKey, fingerprint(item), version);
+		}
+		return null;
+	}
+
+	/**
+	 * Tells if scores computed since the given version was read can be cached, i.e. neither the wrapped {@link Scorer} nor its model has been swapped meanwhile.
+	 */
+	private boolean isCurrent(Model model, long version)
+	{
+		return this.model==model && model.versionSupplier.getAsLong()==version;
+	}
+
+	@Override
+	public double score(Scoreable scoreable)
+	{
+		Model model=this.model;
+		long version=model.versionSupplier.getAsLong();
+		if(scoreable instanceof BatchScoreableRestrictedBatchSample)
+			return scoreBatch((BatchScoreableRestrictedBatchSample<?>)scoreable, model, version);
+
+		Key key=keyOf(scoreable, version);
+		if(key==null)
+			return model.scorer.score(scoreable);
+		Double cached=cache.getIfPresent(key);
+		if(cached!=null)
+			return cached;
+		double score=model.scorer.score(scoreable);
+		if(isCurrent(model, version))
+			cache.put(key, score);
+		return score;
+	}
+
+	private double scoreBatch(BatchScoreableRestrictedBatchSample<?> batchSample, Model model, long version)
+	{
+		int size=batchSample.getValidSize();
+		List<Key> missKeys=new ArrayList<>();
+		BatchScoreableRestrictedBatchSample<Scoreable> missBatch=new BatchScoreableRestrictedBatchSample<>(Math.max(size, 1));
+		double total=0;
+		for(Scoreable sample : batchSample)
+		{
+			Key key=keyOf(sample, version);
+			Double cached=key!=null ? cache.getIfPresent(key) : null;
+			if(cached!=null)
+				total+=sample.score=cached;
+			else
+			{
+				missKeys.add(key);
+				missBatch.add(sample);
+			}
+		}
+		if(!missKeys.isEmpty())
+		{
+			model.scorer.score(missBatch);
+			boolean current=isCurrent(model, version);
+			int i=0;
+			for(Scoreable sample : missBatch)
+			{
+				Key key=missKeys.get(i++);
+				if(key!=null && current)
+					cache.put(key, sample.score);
+				total+=sample.score;
+			}
+		}
+		return batchSample.score=total/Math.max(size, 1);
+	}
+
+	/**
+	 * Gives the cache statistics, including hit and miss counts, hit rate, and eviction count.
+	 * {@link Item} objects without keys are not counted.
+	 *
+	 * @return a {@link CacheStats} object.
+	 */
+	public CacheStats stats()
+	{
+		return cache.stats();
+	}
+
+	public long size()
+	{
+		return cache.size();
+	}
+
+	public void invalidateAll()
+	{
+		cache.invalidateAll();
+	}
+}
@@ -0,0 +1,25 @@
+package com.eroelf.javaxsx.util.ml.feature.score;
+
+/**
+ * A {@link Scorer} which can give up scoring a {@link Scoreable} object early, once its score is known not to exceed a given threshold.
+ * Top-K generators pass the score of the K-th best retained object as the threshold, so that most of the scoring work of hopeless candidates is skipped.
+ *
+ * @author weikun.zhong
+ */
+public interface PruningScorer extends Scorer
+{
+	/**
+	 * The score of a given-up {@link Scoreable} object, by which top-K generators skip the inner filter, the statistics, and the rest of the flow for it.
+	 * It is reserved, thus a fully scored {@link Scoreable} object must never have it.
+	 */
+	public static final double PRUNED=Double.NEGATIVE_INFINITY;
+
+	/**
+	 * Scores the given {@link Scoreable} object, or gives up once its score cannot exceed the given threshold.
+	 *
+	 * @param scoreable the {@link Scoreable} object to be scored.
+	 * @param threshold the score to be exceeded.
+	 * @return the score, or {@link #PRUNED} if given up, which is also set to the {@link Scoreable#score score} field.
+	 */
+	public double score(Scoreable scoreable, double threshold);
+}
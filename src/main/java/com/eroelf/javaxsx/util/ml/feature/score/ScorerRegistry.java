@@ -0,0 +1,315 @@
+package com.eroelf.javaxsx.util.ml.feature.score;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import com.eroelf.javaxsx.util.ml.feature.BatchScoreableRestrictedBatchSample;
+import com.eroelf.javaxsx.util.ml.feature.Item;
+import com.eroelf.javaxsx.util.ml.feature.Item.IndexedFeature;
+import com.eroelf.javaxsx.util.ml.feature.MapFeatureItem;
+
+/**
+ * A {@link Scorer} which delegates to the currently published version of a model, so that a new model can be loaded, warmed up, and swapped in while requests are in flight.
+ * Return this object from a {@link com.eroelf.javaxsx.util.ml.flow.controller.ScorerHandler#getScorer() ScorerHandler.getScorer} method, and every {@link #score(Scoreable) score} invocation uses exactly one published model.
+ *
+ * Optionally, a shadow model scores a sampled fraction of the scored {@link Item} objects on another {@link Executor}, and the drift between the published scores and the shadow scores is reported by the {@link #getShadowReport() getShadowReport} method.
+ * The request thread only copies the features of the sampled {@link Item} objects, and the sampled work is dropped rather than waited for if the shadow {@link Executor} rejects it.
+ *
+ * @author weikun.zhong
+ */
+public class ScorerRegistry implements Scorer
+{
+	private static final class Model
+	{
+		private final Scorer scorer;
+		private final long version;
+
+		private Model(Scorer scorer, long version)
+		{
+			this.scorer=scorer;
+			this.version=version;
+		}
+	}
+
+	private static final class Shadow
+	{
+		private final Model model;
+		private final long primaryVersion;
+		private final double sampleRate;
+		private final Executor executor;
+
+		private long sampleNum=0;
+		private long droppedNum=0;
+		private double primarySum=0;
+		private double primarySquareSum=0;
+		private double shadowSum=0;
+		private double shadowSquareSum=0;
+		private double absDiffSum=0;
+		private double maxAbsDiff=0;
+
+		private Shadow(Model model, long primaryVersion, double sampleRate, Executor executor)
+		{
+			this.model=model;
+			this.primaryVersion=primaryVersion;
+			this.sampleRate=sampleRate;
+			this.executor=executor;
+		}
+
+		private synchronized void add(double primary, double shadow)
+		{
+			++sampleNum;
+			primarySum+=primary;
+			primarySquareSum+=primary*primary;
+			shadowSum+=shadow;
+			shadowSquareSum+=shadow*shadow;
+			double absDiff=Math.abs(shadow-primary);
+			absDiffSum+=absDiff;
+			if(absDiff>maxAbsDiff)
+				maxAbsDiff=absDiff;
+		}
+
+		private synchronized void drop()
+		{
+			++droppedNum;
+		}
+
+		private synchronized ShadowReport report()
+		{
+			long n=Math.max(sampleNum, 1);
+			double primaryMean=primarySum/n;
+			double shadowMean=shadowSum/n;
+			return new ShadowReport(primaryVersion, model.version, sampleNum, droppedNum, primaryMean, shadowMean, Math.sqrt(Math.max(primarySquareSum/n-primaryMean*primaryMean, 0)), Math.sqrt(Math.max(shadowSquareSum/n-shadowMean*shadowMean, 0)), absDiffSum/n, maxAbsDiff);
+		}
+	}
+
+	private final AtomicReference<Model> current;
+	private final AtomicReference<Shadow> shadow=new AtomicReference<>();
+
+	/**
+	 * @param scorer the initial published {@link Scorer}.
+	 * @param version the version of the initial model.
+	 */
+	public ScorerRegistry(Scorer scorer, long version)
+	{
+		if(scorer==null)
+			throw new IllegalArgumentException("ScorerRegistry::ScorerRegistry: scorer must not be null!");
+		current=new AtomicReference<>(new Model(scorer, version));
+	}
+
+	public Scorer get()
+	{
+		return current.get().scorer;
+	}
+
+	public long getVersion()
+	{
+		return current.get().version;
+	}
+
+	/**
+	 * Publishes the given {@link Scorer} atomically, unless a model of a newer or the same version has been published.
+	 * The shadow drift statistics restart since the published model changes.
+	 *
+	 * @param scorer the {@link Scorer} to be published.
+	 * @param version the version of the model.
+	 * @return {@code true} if published, otherwise {@code false}.
+	 */
+	public boolean publish(Scorer scorer, long version)
+	{
+		if(scorer==null)
+			throw new IllegalArgumentException("ScorerRegistry::publish: scorer must not be null!");
+		Model model=new Model(scorer, version);
+		while(true)
+		{
+			Model existed=current.get();
+			if(existed.version>=version)
+				return false;
+			if(current.compareAndSet(existed, model))
+				break;
+		}
+		shadow.updateAndGet(s -> s==null || s.primaryVersion>=version ? s : new Shadow(s.model, version, s.sampleRate, s.executor));
+		return true;
+	}
+
+	/**
+	 * Loads, warms up, and publishes a new model in the background.
+	 * Every warm-up {@link Item} object is scored by the new {@link Scorer} before publishing, which triggers lazy initialization and JIT compilation, and the new model is rejected if any warm-up score is not finite.
+	 *
+	 * @param loader loads the new {@link Scorer}, e.g. {@code () -> new LogisticRegressionScorer(weightFile, mappingFile)}.
+	 * @param version the version of the new model.
+	 * @param warmUpItems the {@link Item} objects to warm up the new {@link Scorer}, or {@code null} for no warm-up. They are scored and their scores are overwritten.
+	 * @param executor the {@link Executor} to load the new model on.
+	 * @return a {@link CompletableFuture} which completes with {@code true} if the new model is published, {@code false} if a newer model has been published, or exceptionally if loading or warming up failed.
+	 */
+	public CompletableFuture<Boolean> load(Supplier<? extends Scorer> loader, long version, Iterable<? extends Item> warmUpItems, Executor executor)
+	{
+		return CompletableFuture.supplyAsync(() -> publish(warmUp(loader.get(), warmUpItems), version), executor);
+	}
+
+	/**
+	 * Loads and warms up a new model in the background, and runs it as the shadow model.
+	 *
+	 * @param loader loads the shadow {@link Scorer}.
+	 * @param version the version of the shadow model.
+	 * @param warmUpItems the {@link Item} objects to warm up the shadow {@link Scorer}, or {@code null} for no warm-up.
+	 * @param sampleRate the probability that a {@link #score(Scoreable) score} invocation is also scored by the shadow model.
+	 * @param executor the {@link Executor} to load the shadow model and to run shadow scoring on. A bounded one is recommended, so that the shadow work is dropped under pressure.
+	 * @return a {@link CompletableFuture} which completes when the shadow model runs, or exceptionally if loading or warming up failed.
+	 * @see #load(Supplier, long, Iterable, Executor)
+	 */
+	public CompletableFuture<Void> loadShadow(Supplier<? extends Scorer> loader, long version, Iterable<? extends Item> warmUpItems, double sampleRate, Executor executor)
+	{
+		return CompletableFuture.runAsync(() -> setShadow(warmUp(loader.get(), warmUpItems), version, sampleRate, executor), executor);
+	}
+
+	private static Scorer warmUp(Scorer scorer, Iterable<? extends Item> warmUpItems)
+	{
+		if(scorer==null)
+			throw new IllegalStateException("ScorerRegistry::warmUp: loaded scorer is null!");
+		if(warmUpItems!=null)
+		{
+			for(Item item : warmUpItems)
+			{
+				double score=item.scoreBy(scorer);
+				if(Double.isNaN(score) || Double.isInfinite(score))
+					throw new IllegalStateException("ScorerRegistry::warmUp: non-finite warm-up score!");
+			}
+		}
+		return scorer;
+	}
+
+	/**
+	 * Runs the given {@link Scorer} as the shadow model and restarts the drift statistics.
+	 *
+	 * @param scorer the shadow {@link Scorer}.
+	 * @param version the version of the shadow model.
+	 * @param sampleRate the probability that a {@link #score(Scoreable) score} invocation is also scored by the shadow model.
+	 * @param executor the {@link Executor} to run shadow scoring on.
+	 */
+	public void setShadow(Scorer scorer, long version, double sampleRate, Executor executor)
+	{
+		if(scorer==null || executor==null)
+			throw new IllegalArgumentException("ScorerRegistry::setShadow: scorer and executor must not be null!");
+		if(!(sampleRate>=0 && sampleRate<=1))
+			throw new IllegalArgumentException("ScorerRegistry::setShadow: sampleRate must be in [0, 1]!");
+		Model model=new Model(scorer, version);
+		Shadow s=new Shadow(model, getVersion(), sampleRate, executor);
+		shadow.set(s);
+		// A model published meanwhile may have missed this shadow, whose statistics must then restart.
+		long primaryVersion;
+		while((primaryVersion=getVersion())>s.primaryVersion)
+		{
+			Shadow restarted=new Shadow(model, primaryVersion, sampleRate, executor);
+			if(!shadow.compareAndSet(s, restarted))
+				break;
+			s=restarted;
+		}
+	}
+
+	public void clearShadow()
+	{
+		shadow.set(null);
+	}
+
+	/**
+	 * Publishes the shadow model and stops shadow scoring.
+	 *
+	 * @return {@code true} if published, otherwise {@code false}.
+	 */
+	public boolean promoteShadow()
+	{
+		Shadow s=shadow.getAndSet(null);
+		if(s==null)
+			return false;
+		return publish(s.model.scorer, s.model.version);
+	}
+
+	/**
+	 * @return the drift statistics of the current shadow model, or {@code null} if there is no shadow model.
+	 */
+	public ShadowReport getShadowReport()
+	{
+		Shadow s=shadow.get();
+		return s!=null ? s.report() : null;
+	}
+
+	@Override
+	public double score(Scoreable scoreable)
+	{
+		double score=current.get().scorer.score(scoreable);
+		Shadow s=shadow.get();
+		if(s!=null && ThreadLocalRandom.current().nextDouble()<s.sampleRate)
+			submitShadow(s, scoreable, score);
+		return score;
+	}
+
+	private static MapFeatureItem copyOf(Item item)
+	{
+		MapFeatureItem copy=new MapFeatureItem();
+		for(IndexedFeature indexedFeature : item.getValidFeatures())
+		{
+			copy.setFeature(indexedFeature.getIdx(), indexedFeature.getFeature());
+		}
+		return copy;
+	}
+
+	private static void submitShadow(final Shadow s, Scoreable scoreable, double score)
+	{
+		final List<MapFeatureItem> copies=new ArrayList<>();
+		final double[] primaryScores;
+		final boolean batched=scoreable instanceof BatchScoreableRestrictedBatchSample;
+		if(batched)
+		{
+			BatchScoreableRestrictedBatchSample<?> batchSample=(BatchScoreableRestrictedBatchSample<?>)scoreable;
+			primaryScores=new double[batchSample.getValidSize()];
+			for(Scoreable sample : batchSample)
+			{
+				if(sample instanceof Item)
+				{
+					primaryScores[copies.size()]=sample.score;
+					copies.add(copyOf((Item)sample));
+				}
+			}
+			if(copies.isEmpty())
+				return;
+		}
+		else if(scoreable instanceof Item)
+		{
+			primaryScores=new double[]{score};
+			copies.add(copyOf((Item)scoreable));
+		}
+		else
+			return;
+
+		try
+		{
+			s.executor.execute(() -> {
+				if(batched)
+				{
+					BatchScoreableRestrictedBatchSample<MapFeatureItem> batchSample=new BatchScoreableRestrictedBatchSample<>(copies.size());
+					for(MapFeatureItem copy : copies)
+					{
+						batchSample.add(copy);
+					}
+					s.model.scorer.score(batchSample);
+				}
+				else
+					copies.get(0).scoreBy(s.model.scorer);
+				for(int i=0; i<copies.size(); i++)
+				{
+					s.add(primaryScores[i], copies.get(i).score);
+				}
+			});
+		}
+		catch(RejectedExecutionException e)
+		{
+			s.drop();
+		}
+	}
+}
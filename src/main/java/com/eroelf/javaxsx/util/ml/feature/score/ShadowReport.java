@@ -0,0 +1,99 @@
+package com.eroelf.javaxsx.util.ml.feature.score;
+
+/**
+ * A snapshot of the score drift between the published model and the shadow model of a {@link ScorerRegistry}.
+ * 
+ * @author weikun.zhong
+ */
+public class ShadowReport
+{
+	private final long primaryVersion;
+	private final long shadowVersion;
+	private final long sampleNum;
+	private final long droppedNum;
+	private final double primaryMean;
+	private final double shadowMean;
+	private final double primaryStd;
+	private final double shadowStd;
+	private final double meanAbsDiff;
+	private final double maxAbsDiff;
+
+	ShadowReport(long primaryVersion, long shadowVersion, long sampleNum, long droppedNum, double primaryMean, double shadowMean, double primaryStd, double shadowStd, double meanAbsDiff, double maxAbsDiff)
+	{
+		this.primaryVersion=primaryVersion;
+		this.shadowVersion=shadowVersion;
+		this.sampleNum=sampleNum;
+		this.droppedNum=droppedNum;
+		this.primaryMean=primaryMean;
+		this.shadowMean=shadowMean;
+		this.primaryStd=primaryStd;
+		this.shadowStd=shadowStd;
+		this.meanAbsDiff=meanAbsDiff;
+		this.maxAbsDiff=maxAbsDiff;
+	}
+
+	public long getPrimaryVersion()
+	{
+		return primaryVersion;
+	}
+
+	public long getShadowVersion()
+	{
+		return shadowVersion;
+	}
+
+	/**
+	 * @return the number of compared {@link Scoreable} objects.
+	 */
+	public long getSampleNum()
+	{
+		return sampleNum;
+	}
+
+	/**
+	 * @return the number of sampled batches dropped because the shadow executor rejected them.
+	 */
+	public long getDroppedNum()
+	{
+		return droppedNum;
+	}
+
+	public double getPrimaryMean()
+	{
+		return primaryMean;
+	}
+
+	public double getShadowMean()
+	{
+		return shadowMean;
+	}
+
+	public double getPrimaryStd()
+	{
+		return primaryStd;
+	}
+
+	public double getShadowStd()
+	{
+		return shadowStd;
+	}
+
+	/**
+	 * @return the mean absolute difference between the shadow scores and the published scores of the same {@link Scoreable} objects.
+	 */
+	public double getMeanAbsDiff()
+	{
+		return meanAbsDiff;
+	}
+
+	public double getMaxAbsDiff()
+	{
+		return maxAbsDiff;
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("primary v%d vs shadow v%d: n=%d, dropped=%d, mean %.6f/%.6f, std %.6f/%.6f, mean|diff|=%.6f, max|diff|=%.6f", primaryVersion, shadowVersion, sampleNum, droppedNum, primaryMean, shadowMean, primaryStd, shadowStd, meanAbsDiff, maxAbsDiff);
+	}
+}
@@ -0,0 +1,275 @@
+package com.eroelf.javaxsx.util.ml.feature.score.impl;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * A compact binary model container, holding a bias, a feature id table, per-feature weights, and per-feature linear mappings.
+ * A container file is opened through {@link FileChannel#map(MapMode, long, long) FileChannel.map}, so opening takes no parsing, and the weights live in the page cache shared by all processes which open the same file.
+ * All reads are absolute reads on the mapped buffer, thus a {@link BinaryModel} object is thread-safe.
+ *
+ * The little-endian layout is: a 32-byte header ({@code magic, formatVersion, featureNum, weightWidth, capacity, flags} as ints and the bias as a double), an open-addressing hash table of {@code capacity} ints from feature ids to dense indices, {@code featureNum} int feature ids, then, aligned to 8 bytes, {@code featureNum*weightWidth} double weights, {@code featureNum} double mapping slopes, and {@code featureNum} double mapping intercepts.
+ * The {@code weightWidth} is the number of weights of each feature, e.g. 1 for a logistic regression model.
+ *
+ * @author weikun.zhong
+ */
+public class BinaryModel
+{
+	public static final int ABSENT=-1;
+
+	private static final int MAGIC=0x4A58424D;
+	private static final int FORMAT_VERSION=1;
+	private static final int HEADER_SIZE=32;
+
+	private final ByteBuffer buffer;
+	private final int featureNum;
+	private final int weightWidth;
+	private final int mask;
+	private final double bias;
+	private final int slotsOffset;
+	private final int idsOffset;
+	private final int weightsOffset;
+	private final int mapKOffset;
+	private final int mapBOffset;
+
+	private BinaryModel(ByteBuffer buffer) throws IOException
+	{
+		this.buffer=buffer.order(ByteOrder.LITTLE_ENDIAN);
+		if(buffer.capacity()<HEADER_SIZE || buffer.getInt(0)!=MAGIC)
+			throw new IOException("BinaryModel::BinaryModel: not a binary model container!");
+		if(buffer.getInt(4)!=FORMAT_VERSION)
+			throw new IOException("BinaryModel::BinaryModel: unsupported format version "+buffer.getInt(4)+"!");
+		featureNum=buffer.getInt(8);
+		weightWidth=buffer.getInt(12);
+		int capacity=buffer.getInt(16);
+		if(featureNum<0 || weightWidth<=0 || Integer.bitCount(capacity)!=1 || capacity<=featureNum)
+			throw new IOException("BinaryModel::BinaryModel: corrupted binary model container!");
+		mask=capacity-1;
+		bias=buffer.getDouble(24);
+		long[] offsets=offsets(featureNum, weightWidth, capacity);
+		if(offsets[5]!=buffer.capacity())
+			throw new IOException("BinaryModel::BinaryModel: corrupted binary model container!");
+		slotsOffset=(int)offsets[0];
+		idsOffset=(int)offsets[1];
+		weightsOffset=(int)offsets[2];
+		mapKOffset=(int)offsets[3];
+		mapBOffset=(int)offsets[4];
+		checkSlots(capacity);
+	}
+
+	/**
+	 * Checks that every slot of the hash table is empty or holds a dense index, and that exactly {@code featureNum} slots are used, so that a lookup always ends at an empty slot or a valid index.
+	 */
+	private void checkSlots(int capacity) throws IOException
+	{
+		int usedNum=0;
+		for(int pos=0; pos<capacity; pos++)
+		{
+			int i=buffer.getInt(slotsOffset+(pos<<2));
+			if(i!=ABSENT)
+			{
+				if(i<0 || i>=featureNum)
+					throw new IOException("BinaryModel::BinaryModel: corrupted binary model container!");
+				++usedNum;
+			}
+		}
+		if(usedNum!=featureNum)
+			throw new IOException("BinaryModel::BinaryModel: corrupted binary model container!");
+	}
+
+	/**
+	 * @return the offsets of the hash table, the feature ids, the weights, the mapping slopes, the mapping intercepts, and the end of the container.
+	 */
+	private static long[] offsets(int featureNum, int weightWidth, int capacity)
+	{
+		long slots=HEADER_SIZE;
+		long ids=slots+4L*capacity;
+		long weights=(ids+4L*featureNum+7)&~7L;
+		long mapK=weights+8L*featureNum*weightWidth;
+		long mapB=mapK+8L*featureNum;
+		return new long[]{slots, ids, weights, mapK, mapB, mapB+8L*featureNum};
+	}
+
+	private static int mix(int key)
+	{
+		int h=key*0x9E3779B9;
+		return h^(h>>>16);
+	}
+
+	/**
+	 * Opens a binary model container file by memory mapping.
+	 *
+	 * @param binaryFile the container file.
+	 * @return the opened {@link BinaryModel} object.
+	 * @throws IOException if an I/O error occurs or the file is not a binary model container.
+	 */
+	public static BinaryModel open(String binaryFile) throws IOException
+	{
+		try(RandomAccessFile file=new RandomAccessFile(binaryFile, "r"); FileChannel channel=file.getChannel())
+		{
+			if(channel.size()>Integer.MAX_VALUE)
+				throw new IOException("BinaryModel::open: binary model container larger than 2GB is not supported!");
+			return new BinaryModel(channel.map(MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	/**
+	 * Wraps a buffer which holds a binary model container, e.g. one read from a class path resource.
+	 *
+	 * @param buffer the buffer holds the container from its index 0.
+	 * @return the wrapped {@link BinaryModel} object.
+	 * @throws IOException if the buffer does not hold a binary model container.
+	 */
+	public static BinaryModel wrap(ByteBuffer buffer) throws IOException
+	{
+		return new BinaryModel(buffer.slice());
+	}
+
+	public int getFeatureNum()
+	{
+		return featureNum;
+	}
+
+	public int getWeightWidth()
+	{
+		return weightWidth;
+	}
+
+	public double getBias()
+	{
+		return bias;
+	}
+
+	/**
+	 * Looks up the dense index of the given feature id.
+	 *
+	 * @param featureId the feature id, i.e. the original feature index.
+	 * @return the dense index in {@code [0, featureNum)}, or {@link #ABSENT} if the feature is not in the model.
+	 */
+	public int indexOf(int featureId)
+	{
+		int pos=mix(featureId)&mask;
+		while(true)
+		{
+			int i=buffer.getInt(slotsOffset+(pos<<2));
+			if(i==ABSENT || buffer.getInt(idsOffset+(i<<2))==featureId)
+				return i;
+			pos=(pos+1)&mask;
+		}
+	}
+
+	public int getFeatureId(int i)
+	{
+		return buffer.getInt(idsOffset+(i<<2));
+	}
+
+	public double getWeight(int i)
+	{
+		return buffer.getDouble(weightsOffset+(i*weightWidth<<3));
+	}
+
+	public double getWeight(int i, int j)
+	{
+		return buffer.getDouble(weightsOffset+((i*weightWidth+j)<<3));
+	}
+
+	public double getMapK(int i)
+	{
+		return buffer.getDouble(mapKOffset+(i<<3));
+	}
+
+	public double getMapB(int i)
+	{
+		return buffer.getDouble(mapBOffset+(i<<3));
+	}
+
+	/**
+	 * Writes a binary model container file.
+	 *
+	 * @param binaryFile the container file to write.
+	 * @param bias the bias of the model.
+	 * @param weightWidth the number of weights of each feature.
+	 * @param featureIds the distinct feature ids, i.e. the original feature indices, in the dense index order.
+	 * @param weights the weights, {@code weightWidth} for each feature in the dense index order.
+	 * @param mapK the mapping slopes in the dense index order.
+	 * @param mapB the mapping intercepts in the dense index order.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public static void write(String binaryFile, double bias, int weightWidth, int[] featureIds, double[] weights, double[] mapK, double[] mapB) throws IOException
+	{
+		int featureNum=featureIds.length;
+		if(weightWidth<=0 || weights.length!=featureNum*weightWidth || mapK.length!=featureNum || mapB.length!=featureNum)
+			throw new IllegalArgumentException("BinaryModel::write: inconsistent array lengths!");
+		int capacity=Integer.highestOneBit(Math.max(featureNum, 2)*2-1)<<1;
+		long[] offsets=offsets(featureNum, weightWidth, capacity);
+		if(offsets[5]>Integer.MAX_VALUE)
+			throw new IllegalArgumentException("BinaryModel::write: binary model container larger than 2GB is not supported!");
+
+		try(RandomAccessFile file=new RandomAccessFile(binaryFile, "rw"); FileChannel channel=file.getChannel())
+		{
+			file.setLength(0);
+			MappedByteBuffer out=channel.map(MapMode.READ_WRITE, 0, offsets[5]);
+			out.order(ByteOrder.LITTLE_ENDIAN);
+			out.putInt(0, MAGIC);
+			out.putInt(4, FORMAT_VERSION);
+			out.putInt(8, featureNum);
+			out.putInt(12, weightWidth);
+			out.putInt(16, capacity);
+			out.putInt(20, 0);
+			out.putDouble(24, bias);
+
+			int slots=(int)offsets[0];
+			int ids=(int)offsets[1];
+			for(int pos=0; pos<capacity; pos++)
+			{
+				out.putInt(slots+(pos<<2), ABSENT);
+			}
+			int mask=capacity-1;
+			for(int i=0; i<featureNum; i++)
+			{
+				int pos=mix(featureIds[i])&mask;
+				int existed;
+				while((existed=out.getInt(slots+(pos<<2)))!=ABSENT)
+				{
+					if(featureIds[existed]==featureIds[i])
+						throw new IllegalArgumentException("BinaryModel::write: duplicated feature id "+featureIds[i]+"!");
+					pos=(pos+1)&mask;
+				}
+				out.putInt(slots+(pos<<2), i);
+				out.putInt(ids+(i<<2), featureIds[i]);
+			}
+			int weightsOffset=(int)offsets[2];
+			for(int i=0; i<weights.length; i++)
+			{
+				out.putDouble(weightsOffset+(i<<3), weights[i]);
+			}
+			int mapKOffset=(int)offsets[3];
+			int mapBOffset=(int)offsets[4];
+			for(int i=0; i<featureNum; i++)
+			{
+				out.putDouble(mapKOffset+(i<<3), mapK[i]);
+				out.putDouble(mapBOffset+(i<<3), mapB[i]);
+			}
+			out.force();
+		}
+	}
+
+	/**
+	 * Converts the text weight and mapping files of a {@link LogisticRegressionScorer} into a binary model container file.
+	 *
+	 * @param weightFile the text weight file, the bias in its first line followed by one weight per line in the order of the mapping file.
+	 * @param mappingFile the text mapping file, one {@code originalIdx\tk\tb} per line.
+	 * @param binaryFile the container file to write.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public static void convertLogisticRegression(String weightFile, String mappingFile, String binaryFile) throws IOException
+	{
+		LogisticRegressionText text=LogisticRegressionText.read(weightFile, mappingFile);
+		write(binaryFile, text.bias, 1, text.featureIds, text.weights, text.mapK, text.mapB);
+	}
+}
@@ -0,0 +1,312 @@
+package com.eroelf.javaxsx.util.ml.feature.score.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import com.eroelf.javaxsx.util.io.FileIterator;
+import com.eroelf.javaxsx.util.ml.feature.BatchScoreableRestrictedBatchSample;
+import com.eroelf.javaxsx.util.ml.feature.Item;
+import com.eroelf.javaxsx.util.ml.feature.Item.IndexedFeature;
+import com.eroelf.javaxsx.util.ml.feature.score.BatchScorer;
+import com.eroelf.javaxsx.util.ml.feature.score.Scoreable;
+
+/**
+ * A second-order factorization machine model to score {@link Item} objects one by one or in batches.
+ * Pairwise interactions are computed by the O(k*nnz) reformulation {@code 0.5*sum_f((sum_i v_if*x_i)^2-sum_i (v_if*x_i)^2)}.
+ * Feature mapping are included in this implementation, in the same format as the {@link LogisticRegressionScorer} mapping file.
+ *
+ * The text weight file contains the bias in its first line, followed by one line {@code w\tv_1\t...\tv_k} for each mapped feature in the order of the mapping file.
+ *
+ * @author weikun.zhong
+ */
+public class FactorizationMachineScorer extends BatchScorer
+{
+	private static final int BINARY_MAGIC=0x464D3031;
+
+	private FeatureIndexMap index;
+	private int[] originalIdx;
+	private double[] mapK;
+	private double[] mapB;
+	private double[] w;
+	private double[] v;
+	private double b;
+	private int factorNum;
+	private boolean logistic;
+
+	private final ThreadLocal<double[]> scratch=new ThreadLocal<double[]>() {
+		@Override
+		protected double[] initialValue()
+		{
+			return new double[factorNum];
+		}
+	};
+
+	private FactorizationMachineScorer()
+	{}
+
+	private void init(Iterator<String> weightIter, Iterator<String> mappingIter, boolean logistic)
+	{
+		List<String[]> mappingList=new ArrayList<>();
+		while(mappingIter.hasNext())
+		{
+			mappingList.add(mappingIter.next().split("\t"));
+		}
+		int featureNum=mappingList.size();
+		index=new FeatureIndexMap(featureNum);
+		originalIdx=new int[featureNum];
+		mapK=new double[featureNum];
+		mapB=new double[featureNum];
+		for(int i=0; i<featureNum; i++)
+		{
+			String[] items=mappingList.get(i);
+			originalIdx[i]=Integer.parseInt(items[0]);
+			index.put(originalIdx[i], i);
+			mapK[i]=Double.parseDouble(items[1]);
+			mapB[i]=Double.parseDouble(items[2]);
+		}
+
+		w=new double[featureNum];
+		factorNum=-1;
+		int count=0;
+		while(weightIter.hasNext())
+		{
+			String line=weightIter.next();
+			if(count==0)
+				b=Double.parseDouble(line.trim());
+			else
+			{
+				if(count>featureNum)
+					throw new IllegalArgumentException("FactorizationMachineScorer::init: more weights than mapped features!");
+				String[] items=line.split("\t");
+				if(factorNum<0)
+				{
+					factorNum=items.length-1;
+					v=new double[featureNum*factorNum];
+				}
+				else if(items.length-1!=factorNum)
+					throw new IllegalArgumentException("FactorizationMachineScorer::init: inconsistent factor number at weight line "+count+"!");
+				int j=count-1;
+				w[j]=Double.parseDouble(items[0]);
+				for(int f=0; f<factorNum; f++)
+				{
+					v[j*factorNum+f]=Double.parseDouble(items[f+1]);
+				}
+			}
+			++count;
+		}
+		if(factorNum<0)
+		{
+			factorNum=0;
+			v=new double[0];
+		}
+		this.logistic=logistic;
+	}
+
+	public FactorizationMachineScorer(Iterator<String> weightIter, Iterator<String> mappingIter, boolean logistic)
+	{
+		init(weightIter, mappingIter, logistic);
+	}
+
+	public FactorizationMachineScorer(Iterable<String> weights, Iterable<String> mapping, boolean logistic)
+	{
+		init(weights.iterator(), mapping.iterator(), logistic);
+	}
+
+	public FactorizationMachineScorer(final String weightFile, final String mappingFile, boolean logistic)
+	{
+		init(new FileIterator<String>(weightFile), new FileIterator<String>(mappingFile), logistic);
+	}
+
+	public <T> FactorizationMachineScorer(Class<T> desClass, final String weightFile, final String mappingFile, boolean logistic)
+	{
+		init(new FileIterator<String>(desClass, weightFile), new FileIterator<String>(desClass, mappingFile), logistic);
+	}
+
+	/**
+	 * Loads a model saved by {@link #saveBinary(OutputStream)}.
+	 *
+	 * @param in the stream to read from.
+	 * @return the loaded model.
+	 * @throws IOException if an I/O error occurs or the stream is not a binary factorization machine model.
+	 */
+	public static FactorizationMachineScorer loadBinary(InputStream in) throws IOException
+	{
+		return loadBinary(in, -1);
+	}
+
+	/**
+	 * @param length the number of bytes of the stream, which is checked against the header before anything is allocated, or a negative value if unknown, in which case the arrays grow as the features are read, so that a corrupted header fails at the end of the stream rather than allocating what it claims.
+	 */
+	private static FactorizationMachineScorer loadBinary(InputStream in, long length) throws IOException
+	{
+		DataInputStream dis=new DataInputStream(in);
+		if(dis.readInt()!=BINARY_MAGIC)
+			throw new IOException("FactorizationMachineScorer::loadBinary: not a binary factorization machine model!");
+		FactorizationMachineScorer scorer=new FactorizationMachineScorer();
+		int featureNum=dis.readInt();
+		scorer.factorNum=dis.readInt();
+		if(featureNum<0 || featureNum>1<<29 || scorer.factorNum<0 || (long)featureNum*scorer.factorNum>Integer.MAX_VALUE-8)
+			throw new IOException("FactorizationMachineScorer::loadBinary: corrupted binary factorization machine model!");
+		if(length>=0 && length!=21+featureNum*(28L+8L*scorer.factorNum))
+			throw new IOException("FactorizationMachineScorer::loadBinary: corrupted binary factorization machine model!");
+		scorer.logistic=dis.readBoolean();
+		scorer.b=dis.readDouble();
+		int capacity=length>=0 ? featureNum : Math.min(featureNum, 1<<12);
+		scorer.index=new FeatureIndexMap(capacity);
+		scorer.originalIdx=new int[capacity];
+		scorer.mapK=new double[capacity];
+		scorer.mapB=new double[capacity];
+		scorer.w=new double[capacity];
+		scorer.v=new double[capacity*scorer.factorNum];
+		for(int i=0; i<featureNum; i++)
+		{
+			if(i==capacity)
+			{
+				capacity=(int)Math.min(2L*capacity, featureNum);
+				scorer.originalIdx=Arrays.copyOf(scorer.originalIdx, capacity);
+				scorer.mapK=Arrays.copyOf(scorer.mapK, capacity);
+				scorer.mapB=Arrays.copyOf(scorer.mapB, capacity);
+				scorer.w=Arrays.copyOf(scorer.w, capacity);
+				scorer.v=Arrays.copyOf(scorer.v, capacity*scorer.factorNum);
+			}
+			scorer.originalIdx[i]=dis.readInt();
+			scorer.index.put(scorer.originalIdx[i], i);
+			scorer.mapK[i]=dis.readDouble();
+			scorer.mapB[i]=dis.readDouble();
+			scorer.w[i]=dis.readDouble();
+			for(int f=0, base=i*scorer.factorNum; f<scorer.factorNum; f++)
+			{
+				scorer.v[base+f]=dis.readDouble();
+			}
+		}
+		return scorer;
+	}
+
+	public static FactorizationMachineScorer loadBinary(String binaryFile) throws IOException
+	{
+		try(InputStream in=new BufferedInputStream(new FileInputStream(binaryFile)))
+		{
+			return loadBinary(in, new File(binaryFile).length());
+		}
+	}
+
+	/**
+	 * Saves this model in a compact binary format which can be loaded by {@link #loadBinary(InputStream)} without any text parsing.
+	 *
+	 * @param out the stream to write to.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public void saveBinary(OutputStream out) throws IOException
+	{
+		int featureNum=w.length;
+		DataOutputStream dos=new DataOutputStream(out);
+		dos.writeInt(BINARY_MAGIC);
+		dos.writeInt(featureNum);
+		dos.writeInt(factorNum);
+		dos.writeBoolean(logistic);
+		dos.writeDouble(b);
+		for(int i=0; i<featureNum; i++)
+		{
+			dos.writeInt(originalIdx[i]);
+			dos.writeDouble(mapK[i]);
+			dos.writeDouble(mapB[i]);
+			dos.writeDouble(w[i]);
+			for(int f=0, base=i*factorNum; f<factorNum; f++)
+			{
+				dos.writeDouble(v[base+f]);
+			}
+		}
+		dos.flush();
+	}
+
+	public void saveBinary(String binaryFile) throws IOException
+	{
+		try(OutputStream out=new BufferedOutputStream(new FileOutputStream(binaryFile)))
+		{
+			saveBinary(out);
+		}
+	}
+
+	private double score(Item item, double[] sum)
+	{
+		Arrays.fill(sum, 0);
+		double s=b;
+		double squareSum=0;
+		for(IndexedFeature indexedFeature : item.getValidFeatures())
+		{
+			int j=index.get(indexedFeature.getIdx());
+			if(j!=FeatureIndexMap.ABSENT)
+			{
+				double x=mapK[j]*indexedFeature.getFeature()+mapB[j];
+				s+=w[j]*x;
+				for(int f=0, base=j*factorNum; f<factorNum; f++)
+				{
+					double t=v[base+f]*x;
+					sum[f]+=t;
+					squareSum+=t*t;
+				}
+			}
+		}
+		double interaction=0;
+		for(int f=0; f<factorNum; f++)
+		{
+			interaction+=sum[f]*sum[f];
+		}
+		s+=0.5*(interaction-squareSum);
+		return logistic ? 1/(1+Math.exp(-s)) : s;
+	}
+
+	/**
+	 * Scores a single {@link Item}, or every {@link Item} in a {@link BatchScoreableRestrictedBatchSample} with the same scratch buffer, allocating nothing.
+	 * The score of a batch is the average score of its samples.
+	 */
+	@Override
+	public double score(Scoreable scoreable)
+	{
+		if(scoreable instanceof BatchScoreableRestrictedBatchSample)
+		{
+			BatchScoreableRestrictedBatchSample<?> batchSample=(BatchScoreableRestrictedBatchSample<?>)scoreable;
+			double[] sum=scratch.get();
+			double total=0;
+			int count=0;
+			for(Scoreable sample : batchSample)
+			{
+				total+=sample.score=sample instanceof Item ? score((Item)sample, sum) : 0;
+				++count;
+			}
+			return batchSample.score=total/Math.max(count, 1);
+		}
+		else if(scoreable instanceof Item)
+			return scoreable.score=score((Item)scoreable, scratch.get());
+		return scoreable.score=0;
+	}
+
+	@Override
+	public List<Double> getAllScores(BatchScoreableRestrictedBatchSample<?> batchSample)
+	{
+		double[] sum=scratch.get();
+		List<Double> scores=new ArrayList<>(batchSample.getValidSize());
+		for(Scoreable sample : batchSample)
+		{
+			scores.add(sample instanceof Item ? score((Item)sample, sum) : 0);
+		}
+		return scores;
+	}
+
+	public int getFactorNum()
+	{
+		return factorNum;
+	}
+}
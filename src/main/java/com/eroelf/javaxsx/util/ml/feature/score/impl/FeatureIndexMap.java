@@ -0,0 +1,102 @@
+package com.eroelf.javaxsx.util.ml.feature.score.impl;
+
+import java.util.Arrays;
+
+/**
+ * An open-addressing hash map from original feature indices to dense model indices, stored in primitive arrays to avoid boxing during scoring.
+ *
+ * @author weikun.zhong
+ */
+public class FeatureIndexMap
+{
+	public static final int ABSENT=-1;
+
+	private int[] keys;
+	private int[] values;
+	private int mask;
+	private int size=0;
+
+	public FeatureIndexMap(int expectedSize)
+	{
+		int capacity=Integer.highestOneBit(Math.max(expectedSize, 2)*2-1)<<1;
+		keys=new int[capacity];
+		values=new int[capacity];
+		Arrays.fill(values, ABSENT);
+		mask=capacity-1;
+	}
+
+	private static int mix(int key)
+	{
+		int h=key*0x9E3779B9;
+		return h^(h>>>16);
+	}
+
+	public void put(int key, int value)
+	{
+		if(value<0)
+			throw new IllegalArgumentException("FeatureIndexMap::put: value must not be negative!");
+		if((size+1)*2>keys.length)
+			rehash(keys.length<<1);
+		int pos=mix(key)&mask;
+		while(values[pos]!=ABSENT)
+		{
+			if(keys[pos]==key)
+			{
+				values[pos]=value;
+				return;
+			}
+			pos=(pos+1)&mask;
+		}
+		keys[pos]=key;
+		values[pos]=value;
+		++size;
+	}
+
+	/**
+	 * Gets the dense model index of the given original feature index.
+	 *
+	 * @param key the original feature index.
+	 * @return the dense model index, or {@link #ABSENT} if not found.
+	 */
+	public int get(int key)
+	{
+		int pos=mix(key)&mask;
+		int value;
+		while((value=values[pos])!=ABSENT)
+		{
+			if(keys[pos]==key)
+				return value;
+			pos=(pos+1)&mask;
+		}
+		return ABSENT;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * @return the number of bytes of the hash table.
+	 */
+	public long memoryBytes()
+	{
+		return 4L*(keys.length+values.length);
+	}
+
+	private void rehash(int capacity)
+	{
+		int[] oldKeys=keys;
+		int[] oldValues=values;
+		keys=new int[capacity];
+		values=new int[capacity];
+		Arrays.fill(values, ABSENT);
+		mask=capacity-1;
+		size=0;
+		for(int i=0; i<oldKeys.length; i++)
+		{
+			if(oldValues[i]!=ABSENT)
+				put(oldKeys[i], oldValues[i]);
+		}
+	}
+}
@@ -1,13 +1,16 @@
 package com.eroelf.javaxsx.util.ml.feature.score.impl;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.function.IntToDoubleFunction;
 
 import com.eroelf.javaxsx.util.io.FileIterator;
 import com.eroelf.javaxsx.util.math.mapping.LinearMapping;
 import com.eroelf.javaxsx.util.ml.feature.Item;
 import com.eroelf.javaxsx.util.ml.feature.Item.IndexedFeature;
+import com.eroelf.javaxsx.util.ml.feature.score.PruningScorer;
 import com.eroelf.javaxsx.util.ml.feature.score.Scoreable;
 import com.eroelf.javaxsx.util.ml.feature.score.Scorer;
 
@@ -15,12 +18,30 @@ import com.eroelf.javaxsx.util.ml.feature.score.Scorer;
  * A logistic regression model to score {@link Item} objects.
  * Feature mapping are included in this implementation.
  * 
+ * After the {@link #enablePruning(double, double) enablePruning} method is called with the value ranges of the features, this scorer prunes in top-K generation: the maximum positive contribution of every feature is precomputed, and an {@link Item} object stops being scored once its partial sum plus the largest possible contributions of its remaining features, i.e. the sum of all maximum positive contributions minus those of the features already scored, cannot beat the threshold.
+ * 
  * @author weikun.zhong
  */
-public class LogisticRegressionScorer implements Scorer
+public class LogisticRegressionScorer implements PruningScorer
 {
 	private Map<Integer, LinearMapping> w;
 	private double b=0;
+	private BinaryModel binaryModel;
+	private volatile Pruning pruning=null;
+
+	private static class Pruning
+	{
+		private final double maxContributionSum;
+		private final double[] binaryMaxContributions;
+		private final Map<Integer, Double> maxContributions;
+
+		private Pruning(double maxContributionSum, double[] binaryMaxContributions, Map<Integer, Double> maxContributions)
+		{
+			this.maxContributionSum=maxContributionSum;
+			this.binaryMaxContributions=binaryMaxContributions;
+			this.maxContributions=maxContributions;
+		}
+	}
 
 	private static class MappingMap
 	{
@@ -121,9 +142,157 @@ public class LogisticRegressionScorer implements Scorer
 		init(weights, mapping);
 	}
 
+	/**
+	 * Uses a memory-mapped {@link BinaryModel} directly, without copying its weights into the heap.
+	 * 
+	 * @param binaryModel the {@link BinaryModel} object whose first weight of each feature is used.
+	 * @see BinaryModel#convertLogisticRegression(String, String, String)
+	 */
+	public LogisticRegressionScorer(BinaryModel binaryModel)
+	{
+		this.binaryModel=binaryModel;
+		b=binaryModel.getBias();
+	}
+
+	/**
+	 * Opens a binary model container file written by {@link BinaryModel#convertLogisticRegression(String, String, String)}.
+	 * 
+	 * @param binaryFile the container file.
+	 * @return the loaded model.
+	 * @throws IOException if an I/O error occurs or the file is not a binary model container.
+	 */
+	public static LogisticRegressionScorer loadBinary(String binaryFile) throws IOException
+	{
+		return new LogisticRegressionScorer(BinaryModel.open(binaryFile));
+	}
+
+	private double scoreBinary(Item item)
+	{
+		double s=b;
+		for(IndexedFeature indexedFeature : item.getValidFeatures())
+		{
+			int i=binaryModel.indexOf(indexedFeature.getIdx());
+			if(i!=BinaryModel.ABSENT)
+			{
+				double weight=binaryModel.getWeight(i);
+				s+=(binaryModel.getMapK(i)*indexedFeature.getFeature()+binaryModel.getMapB(i))*weight;
+			}
+		}
+		return sigmoid(s);
+	}
+
+	/**
+	 * Enables pruning for features whose values are all in the same range, e.g. {@code [0, 1]} for normalized features.
+	 * 
+	 * @param minValue the minimum feature value.
+	 * @param maxValue the maximum feature value.
+	 * @see #enablePruning(IntToDoubleFunction, IntToDoubleFunction)
+	 */
+	public void enablePruning(double minValue, double maxValue)
+	{
+		enablePruning(idx -> minValue, idx -> maxValue);
+	}
+
+	/**
+	 * Enables pruning by precomputing the maximum positive contribution of every feature over its value range.
+	 * Pruning gives wrong results if any feature value is out of its range.
+	 * 
+	 * @param minValue gives the minimum value of a feature by its original index.
+	 * @param maxValue gives the maximum value of a feature by its original index.
+	 */
+	public void enablePruning(IntToDoubleFunction minValue, IntToDoubleFunction maxValue)
+	{
+		double sum=0;
+		double[] binaryMaxContributions=null;
+		Map<Integer, Double> maxContributions=null;
+		if(binaryModel!=null)
+		{
+			binaryMaxContributions=new double[binaryModel.getFeatureNum()];
+			for(int i=0; i<binaryMaxContributions.length; i++)
+			{
+				int idx=binaryModel.getFeatureId(i);
+				double k=binaryModel.getMapK(i)*binaryModel.getWeight(i);
+				double c=binaryModel.getMapB(i)*binaryModel.getWeight(i);
+				binaryMaxContributions[i]=checkContribution(Math.max(k*minValue.applyAsDouble(idx)+c, k*maxValue.applyAsDouble(idx)+c));
+				sum+=binaryMaxContributions[i];
+			}
+		}
+		else
+		{
+			maxContributions=new HashMap<>();
+			for(Map.Entry<Integer, LinearMapping> entry : w.entrySet())
+			{
+				int idx=entry.getKey();
+				LinearMapping mapping=entry.getValue();
+				double contribution=checkContribution(Math.max(mapping.map(minValue.applyAsDouble(idx)), mapping.map(maxValue.applyAsDouble(idx))));
+				if(contribution>0)
+				{
+					maxContributions.put(idx, contribution);
+					sum+=contribution;
+				}
+			}
+		}
+		pruning=new Pruning(sum, binaryMaxContributions, maxContributions);
+	}
+
+	private static double checkContribution(double contribution)
+	{
+		if(Double.isNaN(contribution))
+			throw new IllegalArgumentException("LogisticRegressionScorer::enablePruning: illegal feature ranges!");
+		return Math.max(contribution, 0);
+	}
+
+	public void disablePruning()
+	{
+		pruning=null;
+	}
+
+	private static double sigmoid(double s)
+	{
+		return 1/(1+Math.exp(-s));
+	}
+
+	@Override
+	public double score(Scoreable scoreable, double threshold)
+	{
+		Pruning current=pruning;
+		if(!(scoreable instanceof Item) || current==null || !(threshold>0))
+			return score(scoreable);
+		Item item=(Item)scoreable;
+		double logit=threshold>=1 ? Double.POSITIVE_INFINITY : Math.log(threshold/(1-threshold));
+		double s=b;
+		double rest=current.maxContributionSum;
+		if(s+rest<=logit)
+			return item.score=PRUNED;
+		for(IndexedFeature indexedFeature : item.getValidFeatures())
+		{
+			if(binaryModel!=null)
+			{
+				int i=binaryModel.indexOf(indexedFeature.getIdx());
+				if(i==BinaryModel.ABSENT)
+					continue;
+				s+=(binaryModel.getMapK(i)*indexedFeature.getFeature()+binaryModel.getMapB(i))*binaryModel.getWeight(i);
+				rest-=current.binaryMaxContributions[i];
+			}
+			else
+			{
+				LinearMapping mapping=w.get(indexedFeature.getIdx());
+				if(mapping==null)
+					continue;
+				s+=mapping.map(indexedFeature.getFeature());
+				rest-=current.maxContributions.getOrDefault(indexedFeature.getIdx(), 0.0);
+			}
+			if(s+rest<=logit)
+				return item.score=PRUNED;
+		}
+		return item.score=sigmoid(s);
+	}
+
 	@Override
 	public double score(Scoreable scoreable)
 	{
+		if(scoreable instanceof Item && binaryModel!=null)
+			return scoreable.score=scoreBinary((Item)scoreable);
 		if(scoreable instanceof Item)
 		{
 			Item item=(Item)scoreable;
@@ -133,7 +302,7 @@ public class LogisticRegressionScorer implements Scorer
 				if(w.containsKey(indexedFeature.getIdx()))
 					item.score+=w.get(indexedFeature.getIdx()).map(indexedFeature.getFeature());
 			}
-			return item.score=1/(1+Math.exp(-item.score));
+			return item.score=sigmoid(item.score);
 		}
 		return scoreable.score=0;
 	}
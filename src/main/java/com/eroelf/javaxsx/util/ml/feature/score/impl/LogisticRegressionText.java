@@ -0,0 +1,72 @@
+package com.eroelf.javaxsx.util.ml.feature.score.impl;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import com.eroelf.javaxsx.util.io.FileIterator;
+
+/**
+ * The content of the text weight and mapping files of a {@link LogisticRegressionScorer}, in primitive arrays indexed by the line order of the mapping file.
+ *
+ * @author weikun.zhong
+ */
+final class LogisticRegressionText
+{
+	final double bias;
+	final int[] featureIds;
+	final double[] weights;
+	final double[] mapK;
+	final double[] mapB;
+
+	private LogisticRegressionText(double bias, int[] featureIds, double[] weights, double[] mapK, double[] mapB)
+	{
+		this.bias=bias;
+		this.featureIds=featureIds;
+		this.weights=weights;
+		this.mapK=mapK;
+		this.mapB=mapB;
+	}
+
+	/**
+	 * @param weightFile the text weight file, the bias in its first line followed by one weight per line in the order of the mapping file.
+	 * @param mappingFile the text mapping file, one {@code originalIdx\tk\tb} per line.
+	 */
+	static LogisticRegressionText read(String weightFile, String mappingFile)
+	{
+		List<String[]> mappingList=new ArrayList<>();
+		Iterator<String> mappingIter=new FileIterator<String>(mappingFile);
+		while(mappingIter.hasNext())
+		{
+			mappingList.add(mappingIter.next().split("\t"));
+		}
+		int featureNum=mappingList.size();
+		int[] featureIds=new int[featureNum];
+		double[] mapK=new double[featureNum];
+		double[] mapB=new double[featureNum];
+		for(int i=0; i<featureNum; i++)
+		{
+			String[] items=mappingList.get(i);
+			featureIds[i]=Integer.parseInt(items[0]);
+			mapK[i]=Double.parseDouble(items[1]);
+			mapB[i]=Double.parseDouble(items[2]);
+		}
+
+		double bias=0;
+		double[] weights=new double[featureNum];
+		Iterator<String> weightIter=new FileIterator<String>(weightFile);
+		int count=0;
+		while(weightIter.hasNext())
+		{
+			double weight=Double.parseDouble(weightIter.next().trim());
+			if(count==0)
+				bias=weight;
+			else if(count<=featureNum)
+				weights[count-1]=weight;
+			else
+				throw new IllegalArgumentException("LogisticRegressionText::read: more weights than mapped features!");
+			++count;
+		}
+		return new LogisticRegressionText(bias, featureIds, weights, mapK, mapB);
+	}
+}
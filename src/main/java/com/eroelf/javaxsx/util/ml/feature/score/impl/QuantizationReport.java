@@ -0,0 +1,130 @@
+package com.eroelf.javaxsx.util.ml.feature.score.impl;
+
+import com.eroelf.javaxsx.util.ml.feature.score.impl.QuantizedWeights.Encoding;
+
+/**
+ * The memory saving and the accuracy delta of quantizing a logistic regression model by an {@link Encoding}, given by a {@link WeightQuantizer}.
+ *
+ * @author weikun.zhong
+ */
+public class QuantizationReport
+{
+	private final Encoding encoding;
+	private final int featureNum;
+	private final long indexBytes;
+	private final long doubleBytes;
+	private final long quantizedBytes;
+	private final double maxAbsWeightError;
+	private final double rmsWeightError;
+	private final long sampleNum;
+	private final double meanAbsScoreDiff;
+	private final double maxAbsScoreDiff;
+	private final double referenceLogLoss;
+	private final double quantizedLogLoss;
+
+	QuantizationReport(Encoding encoding, int featureNum, long indexBytes, long doubleBytes, long quantizedBytes, double maxAbsWeightError, double rmsWeightError, long sampleNum, double meanAbsScoreDiff, double maxAbsScoreDiff, double referenceLogLoss, double quantizedLogLoss)
+	{
+		this.encoding=encoding;
+		this.featureNum=featureNum;
+		this.indexBytes=indexBytes;
+		this.doubleBytes=doubleBytes;
+		this.quantizedBytes=quantizedBytes;
+		this.maxAbsWeightError=maxAbsWeightError;
+		this.rmsWeightError=rmsWeightError;
+		this.sampleNum=sampleNum;
+		this.meanAbsScoreDiff=meanAbsScoreDiff;
+		this.maxAbsScoreDiff=maxAbsScoreDiff;
+		this.referenceLogLoss=referenceLogLoss;
+		this.quantizedLogLoss=quantizedLogLoss;
+	}
+
+	public Encoding getEncoding()
+	{
+		return encoding;
+	}
+
+	public int getFeatureNum()
+	{
+		return featureNum;
+	}
+
+	/**
+	 * @return the number of bytes of the feature index, which is included in both {@link #getDoubleBytes()} and {@link #getQuantizedBytes()}.
+	 */
+	public long getIndexBytes()
+	{
+		return indexBytes;
+	}
+
+	/**
+	 * @return the number of bytes of the weights stored as {@code double}s and the feature index.
+	 */
+	public long getDoubleBytes()
+	{
+		return doubleBytes;
+	}
+
+	/**
+	 * @return the number of bytes of the quantized weights and the feature index.
+	 */
+	public long getQuantizedBytes()
+	{
+		return quantizedBytes;
+	}
+
+	/**
+	 * @return the maximum absolute error of the effective feature weights, i.e. the mapping slopes multiplied by the weights.
+	 */
+	public double getMaxAbsWeightError()
+	{
+		return maxAbsWeightError;
+	}
+
+	/**
+	 * @return the root mean square error of the effective feature weights.
+	 */
+	public double getRmsWeightError()
+	{
+		return rmsWeightError;
+	}
+
+	/**
+	 * @return the number of compared samples, {@code 0} if no sample file is given.
+	 */
+	public long getSampleNum()
+	{
+		return sampleNum;
+	}
+
+	public double getMeanAbsScoreDiff()
+	{
+		return meanAbsScoreDiff;
+	}
+
+	public double getMaxAbsScoreDiff()
+	{
+		return maxAbsScoreDiff;
+	}
+
+	/**
+	 * @return the average log loss of the original model on the samples.
+	 */
+	public double getReferenceLogLoss()
+	{
+		return referenceLogLoss;
+	}
+
+	/**
+	 * @return the average log loss of the quantized model on the samples.
+	 */
+	public double getQuantizedLogLoss()
+	{
+		return quantizedLogLoss;
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("%s: %d features, %d -> %d bytes (%.2fx, index %d bytes), max|dw|=%.3g, rms dw=%.3g, n=%d, mean|dscore|=%.3g, max|dscore|=%.3g, logloss %.6f -> %.6f", encoding, featureNum, doubleBytes, quantizedBytes, (double)doubleBytes/Math.max(quantizedBytes, 1), indexBytes, maxAbsWeightError, rmsWeightError, sampleNum, meanAbsScoreDiff, maxAbsScoreDiff, referenceLogLoss, quantizedLogLoss);
+	}
+}
@@ -0,0 +1,128 @@
+package com.eroelf.javaxsx.util.ml.feature.score.impl;
+
+import com.eroelf.javaxsx.util.ml.feature.Item;
+import com.eroelf.javaxsx.util.ml.feature.Item.IndexedFeature;
+import com.eroelf.javaxsx.util.ml.feature.SparseBatch;
+import com.eroelf.javaxsx.util.ml.feature.score.Scoreable;
+import com.eroelf.javaxsx.util.ml.feature.score.Scorer;
+import com.eroelf.javaxsx.util.ml.feature.score.impl.QuantizedWeights.Encoding;
+
+/**
+ * A logistic regression model whose weights are stored as {@link QuantizedWeights}, scoring {@link Item} objects the same way as a {@link LogisticRegressionScorer}.
+ * The feature mapping is folded into the weights, i.e. each feature contributes {@code slope*x+intercept} where {@code slope=k*w} and {@code intercept=b*w}, and the intercepts take no memory if all of them are 0.
+ *
+ * @author weikun.zhong
+ * @see WeightQuantizer
+ */
+public class QuantizedLogisticRegressionScorer implements Scorer
+{
+	private final double bias;
+	private final FeatureIndexMap index;
+	private final QuantizedWeights slopes;
+	private final QuantizedWeights intercepts;
+
+	/**
+	 * @param bias the bias.
+	 * @param featureIds the original feature indices in the dense index order.
+	 * @param weights the weights in the dense index order.
+	 * @param mapK the mapping slopes in the dense index order.
+	 * @param mapB the mapping intercepts in the dense index order.
+	 * @param encoding the {@link Encoding} of the weights.
+	 * @param blockSize the number of weights sharing a scale and an offset, only used by {@link Encoding#INT8}.
+	 */
+	public QuantizedLogisticRegressionScorer(double bias, int[] featureIds, double[] weights, double[] mapK, double[] mapB, Encoding encoding, int blockSize)
+	{
+		int featureNum=featureIds.length;
+		if(weights.length!=featureNum || mapK.length!=featureNum || mapB.length!=featureNum)
+			throw new IllegalArgumentException("QuantizedLogisticRegressionScorer::QuantizedLogisticRegressionScorer: inconsistent array lengths!");
+		this.bias=bias;
+		index=new FeatureIndexMap(featureNum);
+		double[] slopeValues=new double[featureNum];
+		double[] interceptValues=new double[featureNum];
+		boolean hasIntercept=false;
+		for(int i=0; i<featureNum; i++)
+		{
+			index.put(featureIds[i], i);
+			slopeValues[i]=mapK[i]*weights[i];
+			interceptValues[i]=mapB[i]*weights[i];
+			if(interceptValues[i]!=0)
+				hasIntercept=true;
+		}
+		slopes=QuantizedWeights.quantize(slopeValues, encoding, blockSize);
+		intercepts=hasIntercept ? QuantizedWeights.quantize(interceptValues, encoding, blockSize) : null;
+	}
+
+	/**
+	 * Loads and quantizes the text weight and mapping files of a {@link LogisticRegressionScorer}.
+	 *
+	 * @param weightFile the text weight file.
+	 * @param mappingFile the text mapping file.
+	 * @param encoding the {@link Encoding} of the weights.
+	 * @param blockSize the number of weights sharing a scale and an offset, only used by {@link Encoding#INT8}.
+	 * @return the loaded model.
+	 */
+	public static QuantizedLogisticRegressionScorer load(String weightFile, String mappingFile, Encoding encoding, int blockSize)
+	{
+		return of(LogisticRegressionText.read(weightFile, mappingFile), encoding, blockSize);
+	}
+
+	static QuantizedLogisticRegressionScorer of(LogisticRegressionText text, Encoding encoding, int blockSize)
+	{
+		return new QuantizedLogisticRegressionScorer(text.bias, text.featureIds, text.weights, text.mapK, text.mapB, encoding, blockSize);
+	}
+
+	public Encoding getEncoding()
+	{
+		return slopes.getEncoding();
+	}
+
+	/**
+	 * @return the approximate number of bytes of the quantized weights and the feature index.
+	 */
+	public long memoryBytes()
+	{
+		return index.memoryBytes()+slopes.memoryBytes()+(intercepts!=null ? intercepts.memoryBytes() : 0);
+	}
+
+	private double contribution(int idx, double value)
+	{
+		int i=index.get(idx);
+		if(i==FeatureIndexMap.ABSENT)
+			return 0;
+		double c=slopes.get(i)*value;
+		return intercepts!=null ? c+intercepts.get(i) : c;
+	}
+
+	/**
+	 * Scores a row of a {@link SparseBatch} without an {@link Item} object.
+	 *
+	 * @param batch the {@link SparseBatch}.
+	 * @param row the row index.
+	 * @return the score.
+	 */
+	public double score(SparseBatch batch, int row)
+	{
+		double s=bias;
+		int end=batch.rowEnd(row);
+		for(int k=batch.rowStart(row); k<end; k++)
+		{
+			s+=contribution(batch.getIndex(k), batch.getValue(k));
+		}
+		return 1/(1+Math.exp(-s));
+	}
+
+	@Override
+	public double score(Scoreable scoreable)
+	{
+		if(scoreable instanceof Item)
+		{
+			double s=bias;
+			for(IndexedFeature indexedFeature : ((Item)scoreable).getValidFeatures())
+			{
+				s+=contribution(indexedFeature.getIdx(), indexedFeature.getFeature());
+			}
+			return scoreable.score=1/(1+Math.exp(-s));
+		}
+		return scoreable.score=0;
+	}
+}
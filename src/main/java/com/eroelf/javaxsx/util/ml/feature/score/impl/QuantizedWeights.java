@@ -0,0 +1,246 @@
+package com.eroelf.javaxsx.util.ml.feature.score.impl;
+
+/**
+ * A read-only array of model weights stored in fewer bits than {@code double}s, which trades a little precision for less memory and memory bandwidth.
+ * Supported encodings are {@code float32} (4 bytes per weight), {@code float16} (2 bytes per weight, rounded to the nearest even), and per-block {@code int8} (1 byte per weight plus a {@code float} scale and a {@code float} offset per block).
+ * A {@link QuantizedWeights} object is immutable thus thread-safe.
+ *
+ * @author weikun.zhong
+ */
+public abstract class QuantizedWeights
+{
+	public static enum Encoding
+	{
+		FLOAT32, FLOAT16, INT8
+	}
+
+	/**
+	 * Quantizes the given weights.
+	 *
+	 * @param weights the weights to be quantized.
+	 * @param encoding the {@link Encoding}.
+	 * @param blockSize the number of weights sharing a scale and an offset, only used by {@link Encoding#INT8}.
+	 * @return the quantized weights.
+	 */
+	public static QuantizedWeights quantize(double[] weights, Encoding encoding, int blockSize)
+	{
+		switch(encoding)
+		{
+		case FLOAT32:
+			return new Float32(weights);
+		case FLOAT16:
+			return new Float16(weights);
+		case INT8:
+			if(blockSize<=0)
+				throw new IllegalArgumentException("QuantizedWeights::quantize: blockSize must be positive!");
+			return new Int8(weights, blockSize);
+		default:
+			throw new IllegalArgumentException("QuantizedWeights::quantize: unsupported encoding "+encoding+"!");
+		}
+	}
+
+	public abstract Encoding getEncoding();
+
+	public abstract int size();
+
+	public abstract double get(int i);
+
+	/**
+	 * @return the approximate number of bytes of the stored weights.
+	 */
+	public abstract long memoryBytes();
+
+	private static final class Float32 extends QuantizedWeights
+	{
+		private final float[] values;
+
+		private Float32(double[] weights)
+		{
+			values=new float[weights.length];
+			for(int i=0; i<weights.length; i++)
+			{
+				values[i]=(float)weights[i];
+			}
+		}
+
+		@Override
+		public Encoding getEncoding()
+		{
+			return Encoding.FLOAT32;
+		}
+
+		@Override
+		public int size()
+		{
+			return values.length;
+		}
+
+		@Override
+		public double get(int i)
+		{
+			return values[i];
+		}
+
+		@Override
+		public long memoryBytes()
+		{
+			return 4L*values.length;
+		}
+	}
+
+	private static final class Float16 extends QuantizedWeights
+	{
+		private final short[] values;
+
+		private Float16(double[] weights)
+		{
+			values=new short[weights.length];
+			for(int i=0; i<weights.length; i++)
+			{
+				values[i]=toHalf((float)weights[i]);
+			}
+		}
+
+		@Override
+		public Encoding getEncoding()
+		{
+			return Encoding.FLOAT16;
+		}
+
+		@Override
+		public int size()
+		{
+			return values.length;
+		}
+
+		@Override
+		public double get(int i)
+		{
+			return fromHalf(values[i]);
+		}
+
+		@Override
+		public long memoryBytes()
+		{
+			return 2L*values.length;
+		}
+	}
+
+	private static final class Int8 extends QuantizedWeights
+	{
+		private final byte[] codes;
+		private final float[] scales;
+		private final float[] offsets;
+		private final int blockShift;
+		private final int blockSize;
+
+		private Int8(double[] weights, int blockSize)
+		{
+			int shift=31-Integer.numberOfLeadingZeros(blockSize);
+			this.blockSize=blockSize;
+			this.blockShift=Integer.bitCount(blockSize)==1 ? shift : -1;
+			int blockNum=(weights.length+blockSize-1)/blockSize;
+			codes=new byte[weights.length];
+			scales=new float[blockNum];
+			offsets=new float[blockNum];
+			for(int block=0; block<blockNum; block++)
+			{
+				int from=block*blockSize;
+				int to=Math.min(from+blockSize, weights.length);
+				double min=Double.POSITIVE_INFINITY;
+				double max=Double.NEGATIVE_INFINITY;
+				for(int i=from; i<to; i++)
+				{
+					min=Math.min(min, weights[i]);
+					max=Math.max(max, weights[i]);
+				}
+				float offset=(float)min;
+				float scale=(float)((max-offset)/255);
+				offsets[block]=offset;
+				scales[block]=scale;
+				for(int i=from; i<to; i++)
+				{
+					long code=scale>0 ? Math.round((weights[i]-offset)/scale) : 0;
+					codes[i]=(byte)Math.max(Math.min(code, 255), 0);
+				}
+			}
+		}
+
+		@Override
+		public Encoding getEncoding()
+		{
+			return Encoding.INT8;
+		}
+
+		@Override
+		public int size()
+		{
+			return codes.length;
+		}
+
+		@Override
+		public double get(int i)
+		{
+			int block=blockShift>=0 ? i>>>blockShift : i/blockSize;
+			return offsets[block]+scales[block]*(codes[i]&0xff);
+		}
+
+		@Override
+		public long memoryBytes()
+		{
+			return codes.length+8L*scales.length;
+		}
+	}
+
+	/**
+	 * Converts a {@code float} to the bits of the nearest IEEE 754 half-precision number, rounding ties to even.
+	 */
+	static short toHalf(float f)
+	{
+		int bits=Float.floatToRawIntBits(f);
+		int sign=(bits>>>16)&0x8000;
+		int abs=bits&0x7fffffff;
+		if(abs>=0x7f800000)
+			return (short)(sign|(abs>0x7f800000 ? 0x7e00 : 0x7c00));
+		if(abs>=0x477ff000)
+			return (short)(sign|0x7c00);
+		if(abs<0x38800000)
+		{
+			if(abs<0x33000000)
+				return (short)sign;
+			int exp=abs>>>23;
+			int mantissa=(abs&0x7fffff)|0x800000;
+			int shift=126-exp;
+			int half=mantissa>>>shift;
+			int rest=mantissa&((1<<shift)-1);
+			int halfway=1<<(shift-1);
+			if(rest>halfway || (rest==halfway && (half&1)!=0))
+				++half;
+			return (short)(sign|half);
+		}
+		int half=(abs>>>13)-(112<<10);
+		int rest=abs&0x1fff;
+		if(rest>0x1000 || (rest==0x1000 && (half&1)!=0))
+			++half;
+		return (short)(sign|half);
+	}
+
+	/**
+	 * Converts the bits of an IEEE 754 half-precision number to a {@code float}.
+	 */
+	static float fromHalf(short h)
+	{
+		int bits=h&0xffff;
+		int sign=(bits&0x8000)<<16;
+		int exp=(bits>>>10)&0x1f;
+		int mantissa=bits&0x3ff;
+		if(exp==0)
+		{
+			float value=mantissa*0x1p-24f;
+			return sign!=0 ? -value : value;
+		}
+		if(exp==31)
+			return Float.intBitsToFloat(sign|0x7f800000|(mantissa<<13));
+		return Float.intBitsToFloat(sign|((exp+112)<<23)|(mantissa<<13));
+	}
+}
@@ -0,0 +1,305 @@
+package com.eroelf.javaxsx.util.ml.feature.score.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.ToDoubleFunction;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import com.eroelf.javaxsx.util.StdLoggers;
+
+/**
+ * Compiles a {@link TreeEnsembleScorer} model into a generated class, in which every tree becomes a static method of nested {@code if}s on a primitive feature array, so that the JIT is able to inline and branch-predict it.
+ * Large or deep trees are split into several methods, each small enough to be JIT-compiled.
+ * Thresholds and leaf values are not emitted as literals but loaded from a static array per method, which is filled after the class is loaded, so that the constant pool of the generated class does not grow with the number of nodes.
+ * The class is generated as Java source and compiled in memory by the system Java compiler at load time.
+ * Compiling is disabled if the system property {@value #DISABLE_PROPERTY} is {@code true} or if no system Java compiler is available (e.g. running on a JRE), in which cases the interpreter should be used instead.
+ *
+ * @author weikun.zhong
+ */
+public class TreeEnsembleCompiler
+{
+	public static final String DISABLE_PROPERTY="javaxsx.tree.compile.disabled";
+
+	/**
+	 * The number of nodes a generated method emits before the remaining subtrees are moved into their own methods, so that the bytecode of every method stays below the 8000 bytes beyond which HotSpot does not JIT-compile it.
+	 */
+	private static final int METHOD_NODE_LIMIT=640;
+
+	/**
+	 * The nesting depth of a generated method beyond which the remaining subtrees are moved into their own methods, so that neither this generator nor the Java compiler recurses deeply on a deep tree.
+	 */
+	private static final int METHOD_DEPTH_LIMIT=32;
+
+	/**
+	 * The number of tree calls summed by a generated method.
+	 */
+	private static final int METHOD_TREE_LIMIT=256;
+
+	private static final String CLASS_NAME_PREFIX="CompiledTreeEnsemble";
+	private static final AtomicInteger COUNTER=new AtomicInteger();
+
+	/**
+	 * The name of the static field of the generated class holding the thresholds and leaf values of every method.
+	 */
+	private static final String CONSTANTS_FIELD="C";
+
+	/**
+	 * Compiles the given model, logging why if it cannot be compiled into the standard error.
+	 *
+	 * @param model the model to be compiled.
+	 * @return a {@link ToDoubleFunction} which computes the raw ensemble output from a dense feature array, or {@code null} if compiling is disabled or failed.
+	 */
+	public static ToDoubleFunction<double[]> compile(TreeEnsembleScorer model)
+	{
+		return compile(model, StdLoggers.STD_ERR_EXCEPTION_MSG_LOGGER);
+	}
+
+	/**
+	 * Compiles the given model.
+	 *
+	 * @param model the model to be compiled.
+	 * @param loggerFunc receives the exception and the compiler diagnostics if compiling failed.
+	 * @return a {@link ToDoubleFunction} which computes the raw ensemble output from a dense feature array, or {@code null} if compiling is disabled or failed.
+	 */
+	public static ToDoubleFunction<double[]> compile(TreeEnsembleScorer model, BiConsumer<Throwable, String> loggerFunc)
+	{
+		if(Boolean.getBoolean(DISABLE_PROPERTY))
+			return null;
+		JavaCompiler compiler=ToolProvider.getSystemJavaCompiler();
+		if(compiler==null)
+			return null;
+
+		String className=CLASS_NAME_PREFIX+COUNTER.incrementAndGet();
+		final Map<String, ByteArrayOutputStream> classBytes=new HashMap<>();
+		DiagnosticCollector<JavaFileObject> diagnostics=new DiagnosticCollector<>();
+		try(StandardJavaFileManager standardFileManager=compiler.getStandardFileManager(null, null, null);
+			ForwardingJavaFileManager<StandardJavaFileManager> fileManager=new ForwardingJavaFileManager<StandardJavaFileManager>(standardFileManager) {
+				@Override
+				public JavaFileObject getJavaFileForOutput(Location location, final String name, Kind kind, FileObject sibling)
+				{
+					return new SimpleJavaFileObject(URI.create("bytes:///"+name.replace('.', '/')+kind.extension), kind) {
+						@Override
+						public OutputStream openOutputStream()
+						{
+							ByteArrayOutputStream out=new ByteArrayOutputStream();
+							classBytes.put(name, out);
+							return out;
+						}
+					};
+				}
+			})
+		{
+			List<double[]> constants=new ArrayList<>();
+			final String source=generateSource(model, className, constants);
+			JavaFileObject sourceFile=new SimpleJavaFileObject(URI.create("string:///"+className+Kind.SOURCE.extension), Kind.SOURCE) {
+				@Override
+				public CharSequence getCharContent(boolean ignoreEncodingErrors)
+				{
+					return source;
+				}
+			};
+			Boolean success=compiler.getTask(null, fileManager, diagnostics, Arrays.asList("-g:none", "-nowarn"), null, Arrays.asList(sourceFile)).call();
+			if(success==null || !success || !classBytes.containsKey(className))
+			{
+				loggerFunc.accept(null, "TreeEnsembleCompiler::compile: compiling failed, and the model is interpreted instead!"+format(diagnostics));
+				return null;
+			}
+
+			final byte[] bytes=classBytes.get(className).toByteArray();
+			ClassLoader classLoader=new ClassLoader(TreeEnsembleCompiler.class.getClassLoader()) {
+				@Override
+				protected Class<?> findClass(String name) throws ClassNotFoundException
+				{
+					if(name.equals(className))
+						return defineClass(name, bytes, 0, bytes.length);
+					return super.findClass(name);
+				}
+			};
+			Class<?> compiledClass=classLoader.loadClass(className);
+			double[][] methodConstants=(double[][])compiledClass.getField(CONSTANTS_FIELD).get(null);
+			for(int k=0; k<methodConstants.length; k++)
+			{
+				methodConstants[k]=constants.get(k);
+			}
+			@SuppressWarnings("unchecked")
+			ToDoubleFunction<double[]> evaluator=(ToDoubleFunction<double[]>)compiledClass.newInstance();
+			return evaluator;
+		}
+		catch(Exception | LinkageError e)
+		{
+			loggerFunc.accept(e, "TreeEnsembleCompiler::compile: compiling failed, and the model is interpreted instead!"+format(diagnostics));
+			return null;
+		}
+	}
+
+	private static String format(DiagnosticCollector<JavaFileObject> diagnostics)
+	{
+		StringBuilder sb=new StringBuilder();
+		for(Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics())
+		{
+			sb.append('\n').append(diagnostic.getKind()).append(": line ").append(diagnostic.getLineNumber()).append(": ").append(diagnostic.getMessage(null));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Generates the Java source of the compiled model.
+	 * The generated class depends on nothing but the JDK, so it can be compiled without any class path.
+	 * Every tree becomes a method, and a subtree which would make the method too large or too deeply nested becomes a method of its own, as does every group of {@value #METHOD_TREE_LIMIT} tree calls.
+	 * The thresholds and leaf values of the {@code k}th tree or subtree method are read from the {@code k}th array of the static field {@value #CONSTANTS_FIELD}, which must be set to the {@code k}th array of the {@code constants} before the class is used.
+	 *
+	 * @param model the model to be compiled.
+	 * @param className the simple name of the generated class in the default package.
+	 * @param constants receives the thresholds and leaf values of every tree or subtree method.
+	 * @return the Java source.
+	 */
+	public static String generateSource(TreeEnsembleScorer model, String className, List<double[]> constants)
+	{
+		StringBuilder methods=new StringBuilder();
+		int[] roots=model.roots();
+		ArrayDeque<Integer> subtrees=new ArrayDeque<>();
+		for(int t=0; t<roots.length; t++)
+		{
+			appendMethod(methods, model, "t"+t, roots[t], subtrees, constants);
+			while(!subtrees.isEmpty())
+			{
+				int n=subtrees.poll();
+				appendMethod(methods, model, "n"+n, n, subtrees, constants);
+			}
+		}
+
+		StringBuilder sb=new StringBuilder();
+		sb.append("public final class ").append(className).append(" implements java.util.function.ToDoubleFunction<double[]>\n{\n");
+		sb.append("\tpublic static final double[][] ").append(CONSTANTS_FIELD).append("=new double[").append(constants.size()).append("][];\n\n");
+		sb.append("\tpublic double applyAsDouble(double[] x)\n\t{\n");
+		sb.append("\t\tdouble s=").append(literal(model.getBase())).append(";\n");
+		if(roots.length<=METHOD_TREE_LIMIT)
+			appendSum(sb, 0, roots.length);
+		else
+		{
+			int groupNum=(roots.length+METHOD_TREE_LIMIT-1)/METHOD_TREE_LIMIT;
+			for(int g=0; g<groupNum; g++)
+			{
+				sb.append("\t\ts=g").append(g).append("(x, s);\n");
+			}
+			sb.append("\t\treturn s;\n\t}\n");
+			for(int g=0; g<groupNum; g++)
+			{
+				sb.append("\n\tprivate static double g").append(g).append("(double[] x, double s)\n\t{\n");
+				appendSum(sb, g*METHOD_TREE_LIMIT, Math.min((g+1)*METHOD_TREE_LIMIT, roots.length));
+			}
+		}
+		sb.append(methods).append("}\n");
+		return sb.toString();
+	}
+
+	/**
+	 * Appends the method of the subtree rooted at the node {@code n}, and adds its constants.
+	 */
+	private static void appendMethod(StringBuilder sb, TreeEnsembleScorer model, String name, int n, ArrayDeque<Integer> subtrees, List<double[]> constants)
+	{
+		sb.append("\n\tprivate static double ").append(name).append("(double[] x)\n\t{\n");
+		sb.append("\t\tfinal double[] c=").append(CONSTANTS_FIELD).append('[').append(constants.size()).append("];\n");
+		double[] values=new double[METHOD_NODE_LIMIT+1];
+		int[] budget={METHOD_NODE_LIMIT, 0};
+		values=appendNode(sb, model, n, 2, budget, values, subtrees);
+		constants.add(Arrays.copyOf(values, budget[1]));
+		sb.append("\t}\n");
+	}
+
+	/**
+	 * Appends the rest of a method which adds the outputs of the trees in {@code [from, to)} to {@code s} in order, so that the output is exactly the one of the interpreter.
+	 */
+	private static void appendSum(StringBuilder sb, int from, int to)
+	{
+		for(int t=from; t<to; t++)
+		{
+			sb.append("\t\ts+=t").append(t).append("(x);\n");
+		}
+		sb.append("\t\treturn s;\n\t}\n");
+	}
+
+	/**
+	 * Appends the node {@code n} of a method, or a call of the method of its subtree if the method already has {@value #METHOD_NODE_LIMIT} nodes or is nested too deeply, in which case the subtree is queued.
+	 *
+	 * @param budget the number of nodes the method may still emit, and the number of constants it has used.
+	 * @param values receives the constants of the method.
+	 * @param subtrees receives the root nodes of the subtrees moved into their own methods.
+	 * @return the {@code values}, or a larger copy of it.
+	 */
+	private static double[] appendNode(StringBuilder sb, TreeEnsembleScorer model, int n, int depth, int[] budget, double[] values, ArrayDeque<Integer> subtrees)
+	{
+		if(budget[1]==values.length)
+			values=Arrays.copyOf(values, values.length<<1);
+		if(model.featureIdx(n)<0)
+		{
+			--budget[0];
+			values[budget[1]]=model.leafValue(n);
+			indent(sb, depth).append("return c[").append(budget[1]++).append("];\n");
+		}
+		else if(budget[0]<=0 || depth-2>=METHOD_DEPTH_LIMIT)
+		{
+			subtrees.add(n);
+			indent(sb, depth).append("return n").append(n).append("(x);\n");
+		}
+		else
+		{
+			--budget[0];
+			values[budget[1]]=model.threshold(n);
+			indent(sb, depth).append("if(x[").append(model.featureIdx(n)).append("]<c[").append(budget[1]++).append("])\n");
+			indent(sb, depth).append("{\n");
+			values=appendNode(sb, model, model.yes(n), depth+1, budget, values, subtrees);
+			indent(sb, depth).append("}\n");
+			indent(sb, depth).append("else\n");
+			indent(sb, depth).append("{\n");
+			values=appendNode(sb, model, model.no(n), depth+1, budget, values, subtrees);
+			indent(sb, depth).append("}\n");
+		}
+		return values;
+	}
+
+	private static StringBuilder indent(StringBuilder sb, int depth)
+	{
+		for(int i=0; i<depth; i++)
+		{
+			sb.append('\t');
+		}
+		return sb;
+	}
+
+	private static String literal(double value)
+	{
+		if(Double.isNaN(value))
+			return "Double.NaN";
+		else if(value==Double.POSITIVE_INFINITY)
+			return "Double.POSITIVE_INFINITY";
+		else if(value==Double.NEGATIVE_INFINITY)
+			return "Double.NEGATIVE_INFINITY";
+		else
+			return Double.toString(value)+"d";
+	}
+
+	private TreeEnsembleCompiler()
+	{
+		throw new UnsupportedOperationException("TreeEnsembleCompiler::TreeEnsembleCompiler: this method is not allowed!");
+	}
+}
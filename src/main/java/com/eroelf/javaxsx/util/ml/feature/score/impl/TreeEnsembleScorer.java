@@ -0,0 +1,286 @@
+package com.eroelf.javaxsx.util.ml.feature.score.impl;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.ToDoubleFunction;
+
+import com.eroelf.javaxsx.util.io.FileIterator;
+import com.eroelf.javaxsx.util.ml.feature.ArrayFeatureItem;
+import com.eroelf.javaxsx.util.ml.feature.Item;
+import com.eroelf.javaxsx.util.ml.feature.Item.IndexedFeature;
+import com.eroelf.javaxsx.util.ml.feature.score.Scoreable;
+import com.eroelf.javaxsx.util.ml.feature.score.Scorer;
+
+/**
+ * A tree ensemble model (e.g. GBDT) to score {@link Item} objects.
+ * Trees are stored in flattened primitive arrays and evaluated by an interpreter, or optionally compiled into a generated class by the {@link TreeEnsembleCompiler} at load time.
+ *
+ * Each line of the model file describes one node as {@code treeIdx\tnodeIdx\tfeatureIdx\tthreshold\tyesNodeIdx\tnoNodeIdx\tleafValue}, where node indices are local to their tree and start from the root {@code 0}.
+ * A node with a negative {@code featureIdx} is a leaf, otherwise an item goes to the {@code yesNodeIdx} child if its feature value is less than the {@code threshold}.
+ * Every node except the root must be the child of exactly one node of its tree.
+ * Absent features are regarded as {@code 0}.
+ *
+ * @author weikun.zhong
+ */
+public class TreeEnsembleScorer implements Scorer
+{
+	private int[] roots;
+	private int[] featureIdx;
+	private double[] threshold;
+	private int[] yes;
+	private int[] no;
+	private double[] leafValue;
+	private double base;
+	private boolean logistic;
+	private int featureSize;
+
+	private ToDoubleFunction<double[]> evaluator;
+	private boolean compiled;
+
+	private final ThreadLocal<double[]> denseBuffer=new ThreadLocal<double[]>() {
+		@Override
+		protected double[] initialValue()
+		{
+			return new double[featureSize];
+		}
+	};
+
+	private static class Node
+	{
+		private int featureIdx;
+		private double threshold;
+		private int yes;
+		private int no;
+		private double leafValue;
+	}
+
+	private void init(Iterator<String> nodeIter, double base, boolean logistic, boolean compile)
+	{
+		Map<Integer, Map<Integer, Node>> trees=new TreeMap<>();
+		int nodeNum=0;
+		while(nodeIter.hasNext())
+		{
+			String[] items=nodeIter.next().split("\t");
+			Node node=new Node();
+			node.featureIdx=Integer.parseInt(items[2]);
+			node.threshold=Double.parseDouble(items[3]);
+			node.yes=Integer.parseInt(items[4]);
+			node.no=Integer.parseInt(items[5]);
+			node.leafValue=Double.parseDouble(items[6]);
+			Map<Integer, Node> tree=trees.get(Integer.parseInt(items[0]));
+			if(tree==null)
+			{
+				tree=new TreeMap<>();
+				trees.put(Integer.parseInt(items[0]), tree);
+			}
+			if(tree.put(Integer.parseInt(items[1]), node)==null)
+				++nodeNum;
+		}
+
+		roots=new int[trees.size()];
+		featureIdx=new int[nodeNum];
+		threshold=new double[nodeNum];
+		yes=new int[nodeNum];
+		no=new int[nodeNum];
+		leafValue=new double[nodeNum];
+		int t=0;
+		int offset=0;
+		int maxFeatureIdx=-1;
+		boolean[] visited=new boolean[nodeNum];
+		int[] stack=new int[nodeNum+1];
+		for(Map.Entry<Integer, Map<Integer, Node>> treeEntry : trees.entrySet())
+		{
+			Map<Integer, Node> tree=treeEntry.getValue();
+			roots[t++]=offset;
+			for(Map.Entry<Integer, Node> entry : tree.entrySet())
+			{
+				int local=entry.getKey();
+				if(local<0 || local>=tree.size())
+					throw new IllegalArgumentException("TreeEnsembleScorer::init: node indices of a tree must be continuous and start from 0!");
+				Node node=entry.getValue();
+				int n=offset+local;
+				featureIdx[n]=node.featureIdx;
+				threshold[n]=node.threshold;
+				leafValue[n]=node.leafValue;
+				if(node.featureIdx>=0)
+				{
+					if(node.yes<0 || node.yes>=tree.size() || node.no<0 || node.no>=tree.size())
+						throw new IllegalArgumentException("TreeEnsembleScorer::init: child node index out of range!");
+					yes[n]=offset+node.yes;
+					no[n]=offset+node.no;
+					maxFeatureIdx=Math.max(maxFeatureIdx, node.featureIdx);
+				}
+				else
+				{
+					yes[n]=-1;
+					no[n]=-1;
+				}
+			}
+			checkTree(treeEntry.getKey(), offset, tree.size(), visited, stack);
+			offset+=tree.size();
+		}
+		this.base=base;
+		this.logistic=logistic;
+		featureSize=maxFeatureIdx+1;
+
+		if(compile)
+			evaluator=TreeEnsembleCompiler.compile(this);
+		compiled=evaluator!=null;
+		if(!compiled)
+			evaluator=this::interpret;
+	}
+
+	/**
+	 * Checks that every node of a tree is reached from its root exactly once, so that the tree has neither a cycle nor a shared node, which would hang the interpreter or blow up the compiled class.
+	 */
+	private void checkTree(int treeIdx, int root, int size, boolean[] visited, int[] stack)
+	{
+		int top=0;
+		int visitedNum=0;
+		stack[top++]=root;
+		while(top>0)
+		{
+			int n=stack[--top];
+			if(visited[n])
+				throw new IllegalArgumentException("TreeEnsembleScorer::init: tree "+treeIdx+" has a cycle or a node with multiple parents!");
+			visited[n]=true;
+			++visitedNum;
+			if(featureIdx[n]>=0)
+			{
+				stack[top++]=yes[n];
+				stack[top++]=no[n];
+			}
+		}
+		if(visitedNum<size)
+			throw new IllegalArgumentException("TreeEnsembleScorer::init: tree "+treeIdx+" has nodes unreachable from its root!");
+	}
+
+	public TreeEnsembleScorer(Iterator<String> nodeIter, double base, boolean logistic, boolean compile)
+	{
+		init(nodeIter, base, logistic, compile);
+	}
+
+	public TreeEnsembleScorer(Iterable<String> nodes, double base, boolean logistic, boolean compile)
+	{
+		init(nodes.iterator(), base, logistic, compile);
+	}
+
+	public TreeEnsembleScorer(final String modelFile, double base, boolean logistic, boolean compile)
+	{
+		init(new FileIterator<String>(modelFile), base, logistic, compile);
+	}
+
+	public <T> TreeEnsembleScorer(Class<T> desClass, final String modelFile, double base, boolean logistic, boolean compile)
+	{
+		init(new FileIterator<String>(desClass, modelFile), base, logistic, compile);
+	}
+
+	/**
+	 * Evaluates the raw ensemble output by walking the flattened trees.
+	 *
+	 * @param x the dense feature array whose length is at least {@link #getFeatureSize()}.
+	 * @return the sum of the base score and all leaf values reached.
+	 */
+	public double interpret(double[] x)
+	{
+		double s=base;
+		for(int root : roots)
+		{
+			int n=root;
+			while(featureIdx[n]>=0)
+			{
+				n=x[featureIdx[n]]<threshold[n] ? yes[n] : no[n];
+			}
+			s+=leafValue[n];
+		}
+		return s;
+	}
+
+	/**
+	 * Evaluates the ensemble output on a dense feature array, by the compiled class if available or by the interpreter otherwise.
+	 *
+	 * @param x the dense feature array whose length is at least {@link #getFeatureSize()}.
+	 * @return the ensemble output, transformed by the logistic function if required.
+	 */
+	public double evaluate(double[] x)
+	{
+		double s=evaluator.applyAsDouble(x);
+		return logistic ? 1/(1+Math.exp(-s)) : s;
+	}
+
+	@Override
+	public double score(Scoreable scoreable)
+	{
+		if(scoreable instanceof ArrayFeatureItem && ((ArrayFeatureItem)scoreable).getFeatures().length>=featureSize)
+			return scoreable.score=evaluate(((ArrayFeatureItem)scoreable).getFeatures());
+		else if(scoreable instanceof Item)
+		{
+			Item item=(Item)scoreable;
+			double[] x=denseBuffer.get();
+			for(IndexedFeature indexedFeature : item.getValidFeatures())
+			{
+				if(indexedFeature.getIdx()<featureSize)
+					x[indexedFeature.getIdx()]=indexedFeature.getFeature();
+			}
+			item.score=evaluate(x);
+			for(IndexedFeature indexedFeature : item.getValidFeatures())
+			{
+				if(indexedFeature.getIdx()<featureSize)
+					x[indexedFeature.getIdx()]=0;
+			}
+			return item.score;
+		}
+		return scoreable.score=0;
+	}
+
+	public boolean isCompiled()
+	{
+		return compiled;
+	}
+
+	public int getFeatureSize()
+	{
+		return featureSize;
+	}
+
+	public int getTreeNum()
+	{
+		return roots.length;
+	}
+
+	double getBase()
+	{
+		return base;
+	}
+
+	int[] roots()
+	{
+		return roots;
+	}
+
+	int featureIdx(int n)
+	{
+		return featureIdx[n];
+	}
+
+	double threshold(int n)
+	{
+		return threshold[n];
+	}
+
+	int yes(int n)
+	{
+		return yes[n];
+	}
+
+	int no(int n)
+	{
+		return no[n];
+	}
+
+	double leafValue(int n)
+	{
+		return leafValue[n];
+	}
+}
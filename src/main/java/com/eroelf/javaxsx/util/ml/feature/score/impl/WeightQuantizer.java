@@ -0,0 +1,120 @@
+package com.eroelf.javaxsx.util.ml.feature.score.impl;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import com.eroelf.javaxsx.util.io.FileIterator;
+import com.eroelf.javaxsx.util.ml.feature.FeatureStringParser;
+import com.eroelf.javaxsx.util.ml.feature.SparseBatch;
+import com.eroelf.javaxsx.util.ml.feature.score.impl.QuantizedWeights.Encoding;
+
+/**
+ * Quantizes the text weight and mapping files of a {@link LogisticRegressionScorer} and reports the accuracy delta, so that an {@link Encoding} can be chosen before serving a {@link QuantizedLogisticRegressionScorer}.
+ * Both sides of the reported memory include the feature index, which is not quantized and often outweighs the quantized weights.
+ *
+ * @author weikun.zhong
+ */
+public final class WeightQuantizer
+{
+	/**
+	 * Evaluates one {@link Encoding}.
+	 *
+	 * @param weightFile the text weight file.
+	 * @param mappingFile the text mapping file.
+	 * @param encoding the {@link Encoding} to evaluate.
+	 * @param blockSize the number of weights sharing a scale and an offset, only used by {@link Encoding#INT8}.
+	 * @param sampleFile a file of LIBSVM lines to compare the scores on, or {@code null} to compare the weights only.
+	 * @return the {@link QuantizationReport}.
+	 */
+	public static QuantizationReport evaluate(String weightFile, String mappingFile, Encoding encoding, int blockSize, String sampleFile)
+	{
+		return evaluate(LogisticRegressionText.read(weightFile, mappingFile), encoding, blockSize, sampleFile);
+	}
+
+	/**
+	 * Evaluates all {@link Encoding}s.
+	 *
+	 * @return the {@link QuantizationReport}s in the {@link Encoding} order.
+	 * @see #evaluate(String, String, Encoding, int, String)
+	 */
+	public static List<QuantizationReport> evaluateAll(String weightFile, String mappingFile, int blockSize, String sampleFile)
+	{
+		LogisticRegressionText text=LogisticRegressionText.read(weightFile, mappingFile);
+		List<QuantizationReport> reports=new ArrayList<>();
+		for(Encoding encoding : Encoding.values())
+		{
+			reports.add(evaluate(text, encoding, blockSize, sampleFile));
+		}
+		return reports;
+	}
+
+	private static QuantizationReport evaluate(LogisticRegressionText text, Encoding encoding, int blockSize, String sampleFile)
+	{
+		QuantizedLogisticRegressionScorer quantized=QuantizedLogisticRegressionScorer.of(text, encoding, blockSize);
+		int featureNum=text.featureIds.length;
+		FeatureIndexMap index=new FeatureIndexMap(featureNum);
+		double[] slopes=new double[featureNum];
+		double[] intercepts=new double[featureNum];
+		boolean hasIntercept=false;
+		for(int i=0; i<featureNum; i++)
+		{
+			index.put(text.featureIds[i], i);
+			slopes[i]=text.mapK[i]*text.weights[i];
+			intercepts[i]=text.mapB[i]*text.weights[i];
+			hasIntercept|=intercepts[i]!=0;
+		}
+
+		double maxWeightError=0;
+		double squareWeightError=0;
+		QuantizedWeights quantizedSlopes=QuantizedWeights.quantize(slopes, encoding, blockSize);
+		for(int i=0; i<featureNum; i++)
+		{
+			double error=Math.abs(quantizedSlopes.get(i)-slopes[i]);
+			maxWeightError=Math.max(maxWeightError, error);
+			squareWeightError+=error*error;
+		}
+
+		long sampleNum=0;
+		double absScoreDiffSum=0;
+		double maxAbsScoreDiff=0;
+		double referenceLoss=0;
+		double quantizedLoss=0;
+		if(sampleFile!=null)
+		{
+			FeatureStringParser parser=new FeatureStringParser(true);
+			SparseBatch batch=new SparseBatch();
+			Iterator<String> lines=new FileIterator<String>(sampleFile);
+			while(lines.hasNext())
+			{
+				batch.clear();
+				if(!parser.parseLine(lines.next(), batch))
+					continue;
+				double s=text.bias;
+				for(int k=batch.rowStart(0); k<batch.rowEnd(0); k++)
+				{
+					int i=index.get(batch.getIndex(k));
+					if(i!=FeatureIndexMap.ABSENT)
+						s+=slopes[i]*batch.getValue(k)+intercepts[i];
+				}
+				double reference=1/(1+Math.exp(-s));
+				double score=quantized.score(batch, 0);
+				double diff=Math.abs(score-reference);
+				absScoreDiffSum+=diff;
+				maxAbsScoreDiff=Math.max(maxAbsScoreDiff, diff);
+				boolean positive=batch.getLabel(0)>0;
+				referenceLoss-=Math.log(Math.max(positive ? reference : 1-reference, 1e-15));
+				quantizedLoss-=Math.log(Math.max(positive ? score : 1-score, 1e-15));
+				++sampleNum;
+			}
+		}
+		long n=Math.max(sampleNum, 1);
+		long doubleBytes=index.memoryBytes()+8L*featureNum*(hasIntercept ? 2 : 1);
+		return new QuantizationReport(encoding, featureNum, index.memoryBytes(), doubleBytes, quantized.memoryBytes(), maxWeightError, Math.sqrt(squareWeightError/Math.max(featureNum, 1)), sampleNum, absScoreDiffSum/n, maxAbsScoreDiff, referenceLoss/n, quantizedLoss/n);
+	}
+
+	private WeightQuantizer()
+	{
+		throw new UnsupportedOperationException("WeightQuantizer::WeightQuantizer: this method is not allowed!");
+	}
+}
@@ -9,5 +9,5 @@ import com.eroelf.javaxsx.util.ml.feature.Item;
  *
  * @param <T> the type of those {@link Item} instances to be processed.
  */
-public interface EnumerableFlowHandler<T extends Item> extends StatisticsCalculator, CandidatesHandler<T>, ModelerHandler, ScorerHandler, BatchHandler
+public interface EnumerableFlowHandler<T extends Item> extends StatisticsCalculator, CandidatesHandler<T>, ModelerHandler, ScorerHandler, BatchHandler, ExecutorHandler, StageHandler
 {}
@@ -0,0 +1,49 @@
+package com.eroelf.javaxsx.util.ml.flow.controller;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Handles the {@link Executor} on which a modeling and scoring flow runs its parallel tasks.
+ *
+ * @author weikun.zhong
+ */
+public interface ExecutorHandler
+{
+	/**
+	 * Provides the {@link Executor} to run parallel tasks, e.g. {@link ForkJoinPool#commonPool()}.
+	 * Any object shared by those tasks, such as modelers, scorers, and filters, must be thread-safe if an {@link Executor} is provided.
+	 * Returns {@code null} by default, which means the flow runs sequentially on the caller thread.
+	 *
+	 * @return an {@link Executor} object, or {@code null} for sequential execution.
+	 */
+	default public Executor getExecutor()
+	{
+		return null;
+	}
+
+	/**
+	 * Provides the {@link Executor} to run the strategies of an innumerable flow concurrently, separately from the {@link Executor} returned by the {@link #getExecutor() getExecutor} method, so that strategies blocking on retrieval, including those which time out and keep running, never hold the threads for scoring.
+	 * A thread-per-task {@link Executor} suits such blocking strategies, e.g. the virtual thread one of Java 21.
+	 * Returns {@code null} by default, which means the strategies run sequentially on the caller thread.
+	 *
+	 * @return an {@link Executor} object, or {@code null} for sequential execution.
+	 */
+	default public Executor getStrategyExecutor()
+	{
+		return null;
+	}
+
+	/**
+	 * Provides the number of batches a pipelined flow keeps in hand, including the one being filled, so that the caller thread models the next batch while earlier batches are scored on the {@link Executor} returned by the {@link #getExecutor() getExecutor} method.
+	 * The throughput of such a flow approaches the slower one of modeling and scoring instead of their sum, while the caller thread keeps the order of the candidates and is the only thread which models.
+	 * Only takes effect if the {@link #getExecutor() getExecutor} method provides an {@link Executor}.
+	 * Returns {@code 0} by default, which means no pipelining, and every batch is modeled and scored as one task on the {@link Executor}.
+	 *
+	 * @return the number of batches in hand, at least 2 for pipelining.
+	 */
+	default public int getPipelineDepth()
+	{
+		return 0;
+	}
+}
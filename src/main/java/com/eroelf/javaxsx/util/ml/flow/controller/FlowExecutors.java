@@ -0,0 +1,60 @@
+package com.eroelf.javaxsx.util.ml.flow.controller;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Factory methods for {@link ExecutorService}s suitable for modeling and scoring flows.
+ * 
+ * @author weikun.zhong
+ */
+public final class FlowExecutors
+{
+	/**
+	 * Creates an {@link ExecutorService} for tasks which mostly block on I/O, such as {@link com.eroelf.javaxsx.util.ml.feature.strategy.Strategy Strategy} retrievals.
+	 * Returns a virtual-thread-per-task executor if the running JVM supports virtual threads, otherwise a cached pool of daemon threads.
+	 * 
+	 * @return an {@link ExecutorService} object.
+	 */
+	public static ExecutorService newBlockingTaskExecutor()
+	{
+		try
+		{
+			Method method=Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService)method.invoke(null);
+		}
+		catch(ReflectiveOperationException | RuntimeException e)
+		{
+			return Executors.newCachedThreadPool(daemonThreadFactory("flow-blocking-"));
+		}
+	}
+
+	/**
+	 * Creates a fixed-size {@link ExecutorService} of daemon threads for CPU-bound tasks, such as modeling and scoring batches.
+	 * 
+	 * @param threadNum the number of threads.
+	 * @return an {@link ExecutorService} object.
+	 */
+	public static ExecutorService newComputingExecutor(int threadNum)
+	{
+		return Executors.newFixedThreadPool(threadNum, daemonThreadFactory("flow-computing-"));
+	}
+
+	private static ThreadFactory daemonThreadFactory(final String prefix)
+	{
+		final AtomicInteger counter=new AtomicInteger();
+		return runnable -> {
+			Thread thread=new Thread(runnable, prefix+counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	private FlowExecutors()
+	{
+		throw new UnsupportedOperationException("FlowExecutors::FlowExecutors: this method is not allowed!");
+	}
+}
@@ -10,5 +10,5 @@ import com.eroelf.javaxsx.util.ml.feature.strategy.Strategy;
  *
  * @param <T> the type of those {@link Item} instances to be processed.
  */
-public interface InnumerableFlowHandler<T extends Item> extends StatisticsCalculator, StrategyHandler<T>, ScorerHandler, BatchHandler
+public interface InnumerableFlowHandler<T extends Item> extends StatisticsCalculator, StrategyHandler<T>, ScorerHandler, BatchHandler, ExecutorHandler, StageHandler
 {}
@@ -0,0 +1,87 @@
+package com.eroelf.javaxsx.util.ml.flow.controller;
+
+import com.eroelf.javaxsx.util.ml.feature.Item;
+import com.eroelf.javaxsx.util.ml.feature.model.Modeler;
+import com.eroelf.javaxsx.util.ml.feature.model.impl.IdleModeler;
+import com.eroelf.javaxsx.util.ml.feature.score.Scorer;
+
+/**
+ * A preliminary stage of a cascade modeling and scoring flow.
+ * Candidates are modeled and scored by a (typically cheap) {@link Modeler} and {@link Scorer} of the stage, and only those pass the cutoff of the stage survive to the next stage.
+ * 
+ * @author weikun.zhong
+ */
+public class ScoringStage
+{
+	private final Modeler modeler;
+	private final Scorer scorer;
+	private final int batchSize;
+	private final int keepTopN;
+	private final double scoreThreshold;
+
+	/**
+	 * @param modeler the {@link Modeler} of this stage, {@code null} for the {@link IdleModeler}.
+	 * @param scorer the {@link Scorer} of this stage.
+	 * @param batchSize the sample batch size of this stage.
+	 * @param keepTopN the maximum number of {@link Item} objects with the highest scores to survive, or a non-positive value for no limit.
+	 * @param scoreThreshold the minimum score for an {@link Item} object to survive, or {@link Double#NaN} for no threshold.
+	 */
+	public ScoringStage(Modeler modeler, Scorer scorer, int batchSize, int keepTopN, double scoreThreshold)
+	{
+		if(scorer==null)
+			throw new IllegalArgumentException("ScoringStage::ScoringStage: scorer must not be null!");
+		if(batchSize<=0)
+			throw new IllegalArgumentException("ScoringStage::ScoringStage: batchSize must be greater than 0!");
+		this.modeler=modeler!=null ? modeler : IdleModeler.get();
+		this.scorer=scorer;
+		this.batchSize=batchSize;
+		this.keepTopN=keepTopN;
+		this.scoreThreshold=scoreThreshold;
+	}
+
+	public static ScoringStage keepTop(Modeler modeler, Scorer scorer, int batchSize, int keepTopN)
+	{
+		return new ScoringStage(modeler, scorer, batchSize, keepTopN, Double.NaN);
+	}
+
+	public static ScoringStage aboveThreshold(Modeler modeler, Scorer scorer, int batchSize, double scoreThreshold)
+	{
+		return new ScoringStage(modeler, scorer, batchSize, 0, scoreThreshold);
+	}
+
+	public Modeler getModeler()
+	{
+		return modeler;
+	}
+
+	public Scorer getScorer()
+	{
+		return scorer;
+	}
+
+	public int getBatchSize()
+	{
+		return batchSize;
+	}
+
+	public int getKeepTopN()
+	{
+		return keepTopN;
+	}
+
+	public double getScoreThreshold()
+	{
+		return scoreThreshold;
+	}
+
+	/**
+	 * Tells if a scored {@link Item} object passes the score threshold of this stage.
+	 * 
+	 * @param score the score of the {@link Item} object.
+	 * @return {@code true} if there is no threshold or the {@code score} is not less than it, otherwise {@code false}.
+	 */
+	public boolean passThreshold(double score)
+	{
+		return Double.isNaN(scoreThreshold) || score>=scoreThreshold;
+	}
+}
@@ -0,0 +1,23 @@
+package com.eroelf.javaxsx.util.ml.flow.controller;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Handles the preliminary {@link ScoringStage}s of a cascade modeling and scoring flow.
+ * 
+ * @author weikun.zhong
+ */
+public interface StageHandler
+{
+	/**
+	 * Provides the ordered preliminary stages which run before the final modeling and scoring of the flow, so that the final {@link com.eroelf.javaxsx.util.ml.feature.model.Modeler Modeler} and {@link com.eroelf.javaxsx.util.ml.feature.score.Scorer Scorer} only work on the survivors.
+	 * Returns an empty list by default, which means no cascade.
+	 * 
+	 * @return a {@link List} of {@link ScoringStage} objects.
+	 */
+	default public List<ScoringStage> getStages()
+	{
+		return Collections.emptyList();
+	}
+}
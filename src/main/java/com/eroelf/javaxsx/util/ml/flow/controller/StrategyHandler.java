@@ -1,6 +1,7 @@
 package com.eroelf.javaxsx.util.ml.flow.controller;
 
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import com.eroelf.javaxsx.util.ml.feature.Item;
 import com.eroelf.javaxsx.util.ml.feature.strategy.Strategy;
@@ -15,4 +16,18 @@ import com.eroelf.javaxsx.util.ml.feature.strategy.Strategy;
 public interface StrategyHandler<T extends Item>
 {
 	public List<Strategy<T>> getStrategies();
+
+	/**
+	 * Provides the maximum time to wait for the given {@link Strategy} when strategies run concurrently on the {@link ExecutorHandler#getStrategyExecutor() strategy executor}.
+	 * Items generated by a {@link Strategy} which does not finish in time are discarded, unless they have been merged into a thread-safe candidate set before all other strategies finished.
+	 * Returns {@code 0} by default, which means no timeout.
+	 * 
+	 * @param strategy the {@link Strategy} instance.
+	 * @param unit the {@link TimeUnit} of the returned value.
+	 * @return the timeout, or a non-positive value for no timeout.
+	 */
+	default public long getTimeout(Strategy<T> strategy, TimeUnit unit)
+	{
+		return 0;
+	}
 }
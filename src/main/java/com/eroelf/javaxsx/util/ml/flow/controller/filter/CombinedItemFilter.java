@@ -1,18 +1,71 @@
 package com.eroelf.javaxsx.util.ml.flow.controller.filter;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 
 import com.eroelf.javaxsx.util.ml.feature.Item;
 
 /**
  * An instance of this class is able to combine multiple {@link ItemFilter}s to filter a specified {@link Item} instance.
- * 
+ *
+ * By default, the {@link ItemFilter}s run in the order they were added. After the {@link #enableAdaptiveOrdering(int, int) enableAdaptiveOrdering} method is called, a sampled fraction of the {@link #test(Item) test} calls measures the cost and the rejection rate of every {@link ItemFilter} it runs, and the {@link ItemFilter}s are periodically reordered by their cost per rejection, ascending, which minimizes the expected cost of independent filters.
+ * The measurements are kept by lock-free counters, at most one thread reorders at a time, and a new order is published atomically, so a shared instance can be tested by multiple threads concurrently.
+ *
  * @author weikun.zhong
  */
 public class CombinedItemFilter<T extends Item> implements ItemFilter<T>
 {
+	private static final class Entry<T extends Item>
+	{
+		private final ItemFilter<T> filter;
+		private final int position;
+		private final LongAdder evaluatedNum=new LongAdder();
+		private final LongAdder rejectedNum=new LongAdder();
+		private final LongAdder costNano=new LongAdder();
+		private double cost=Double.NaN;
+		private double rejectRate=Double.NaN;
+		private double rank=Double.NaN;
+
+		private Entry(ItemFilter<T> filter, int position)
+		{
+			this.filter=filter;
+			this.position=position;
+		}
+
+		/**
+		 * Folds the measurements since the last call into the smoothed cost and rejection rate, and computes the rank.
+		 */
+		private void update()
+		{
+			long evaluated=evaluatedNum.sumThenReset();
+			long rejected=rejectedNum.sumThenReset();
+			long nano=costNano.sumThenReset();
+			if(evaluated>0)
+			{
+				double windowCost=(double)nano/evaluated;
+				double windowRejectRate=(double)rejected/evaluated;
+				cost=Double.isNaN(cost) ? windowCost : (cost+windowCost)/2;
+				rejectRate=Double.isNaN(rejectRate) ? windowRejectRate : (rejectRate+windowRejectRate)/2;
+			}
+			if(!Double.isNaN(cost))
+				rank=rejectRate>0 ? cost/rejectRate : Double.POSITIVE_INFINITY;
+		}
+	}
+
 	private List<ItemFilter<T>> filterList=new ArrayList<>();
+	private boolean adaptive=false;
+	private int samplingPeriod;
+	private int reorderPeriod;
+	private final AtomicLong sampledNum=new AtomicLong();
+	private final AtomicBoolean reordering=new AtomicBoolean();
+	private final AtomicReference<Entry<T>[]> order=new AtomicReference<>();
 
 	public CombinedItemFilter(@SuppressWarnings("unchecked") ItemFilter<T>... itemFilters)
 	{
@@ -22,21 +75,143 @@ public class CombinedItemFilter<T extends Item> implements ItemFilter<T>
 		}
 	}
 
+	/**
+	 * Enables the adaptive ordering of the {@link ItemFilter}s.
+	 *
+	 * @param samplingPeriod one in about {@code samplingPeriod} {@link #test(Item) test} calls is measured.
+	 * @param reorderPeriod the {@link ItemFilter}s are reordered once every {@code reorderPeriod} measured calls.
+	 * @return this object.
+	 */
+	public CombinedItemFilter<T> enableAdaptiveOrdering(int samplingPeriod, int reorderPeriod)
+	{
+		if(samplingPeriod<=0 || reorderPeriod<=0)
+			throw new IllegalArgumentException("CombinedItemFilter::enableAdaptiveOrdering: periods must be positive!");
+		this.samplingPeriod=samplingPeriod;
+		this.reorderPeriod=reorderPeriod;
+		adaptive=true;
+		buildOrder();
+		return this;
+	}
+
+	/**
+	 * Enables the adaptive ordering of the {@link ItemFilter}s, measuring one in about 16 {@link #test(Item) test} calls and reordering once every 1024 measured calls.
+	 *
+	 * @return this object.
+	 * @see #enableAdaptiveOrdering(int, int)
+	 */
+	public CombinedItemFilter<T> enableAdaptiveOrdering()
+	{
+		return enableAdaptiveOrdering(16, 1024);
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private void buildOrder()
+	{
+		Entry<T>[] entries=new Entry[filterList.size()];
+		for(int i=0; i<entries.length; i++)
+		{
+			entries[i]=new Entry<>(filterList.get(i), i);
+		}
+		order.set(entries);
+	}
+
 	@Override
 	public boolean test(T item)
 	{
-		for(ItemFilter<T> itemFilter : filterList)
+		if(!adaptive)
 		{
-			if(!itemFilter.test(item))
-				return false;
+			for(ItemFilter<T> itemFilter : filterList)
+			{
+				if(!itemFilter.test(item))
+					return false;
+			}
+			return true;
 		}
-		return true;
+
+		Entry<T>[] entries=order.get();
+		if(samplingPeriod>1 && ThreadLocalRandom.current().nextInt(samplingPeriod)!=0)
+		{
+			for(Entry<T> entry : entries)
+			{
+				if(!entry.filter.test(item))
+					return false;
+			}
+			return true;
+		}
+
+		boolean accepted=true;
+		long lastNano=System.nanoTime();
+		for(Entry<T> entry : entries)
+		{
+			boolean passed=entry.filter.test(item);
+			long nano=System.nanoTime();
+			entry.evaluatedNum.increment();
+			entry.costNano.add(nano-lastNano);
+			lastNano=nano;
+			if(!passed)
+			{
+				entry.rejectedNum.increment();
+				accepted=false;
+				break;
+			}
+		}
+		if(sampledNum.incrementAndGet()%reorderPeriod==0 && reordering.compareAndSet(false, true))
+		{
+			try
+			{
+				reorder(entries);
+			}
+			finally
+			{
+				reordering.set(false);
+			}
+		}
+		return accepted;
+	}
+
+	/**
+	 * Sorts the {@link ItemFilter}s by their ranks ascending, where {@link ItemFilter}s never measured keep their relative positions after the measured ones, since {@link Double#compare(double, double)} orders the {@code NaN} rank of those after all others, including {@link Double#POSITIVE_INFINITY}.
+	 * Only the thread which completes a reorder period and wins the {@code reordering} flag gets here, so the smoothed measurements are never updated concurrently, and a period completed during a reorder is skipped.
+	 * The new order is published only if the order was not replaced meanwhile, e.g. by the {@link #addFilter(ItemFilter) addFilter} method.
+	 */
+	private void reorder(Entry<T>[] entries)
+	{
+		for(Entry<T> entry : entries)
+		{
+			entry.update();
+		}
+		Entry<T>[] sorted=Arrays.copyOf(entries, entries.length);
+		Arrays.sort(sorted, Comparator.<Entry<T>>comparingDouble(entry -> entry.rank).thenComparingInt(entry -> entry.position));
+		order.compareAndSet(entries, sorted);
+	}
+
+	/**
+	 * @return the {@link ItemFilter}s in the order they currently run.
+	 */
+	public List<ItemFilter<T>> getCurrentOrder()
+	{
+		if(!adaptive)
+			return new ArrayList<>(filterList);
+		List<ItemFilter<T>> res=new ArrayList<>();
+		for(Entry<T> entry : order.get())
+		{
+			res.add(entry.filter);
+		}
+		return res;
 	}
 
+	/**
+	 * Adds an {@link ItemFilter}, which should not be called concurrently with the {@link #test(Item) test} method.
+	 * The measurements restart if the adaptive ordering is enabled.
+	 */
 	public CombinedItemFilter<T> addFilter(ItemFilter<T> itemFilter)
 	{
 		if(itemFilter!=null)
+		{
 			filterList.add(itemFilter);
+			if(adaptive)
+				buildOrder();
+		}
 		return this;
 	}
 }
@@ -0,0 +1,321 @@
+package com.eroelf.javaxsx.util.ml.flow.controller.filter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A Bloom filter of the items exposed to one user, split into rotating generations so that old exposures decay.
+ * Every generation is a Bloom filter sized for a bounded number of insertions, and a key is regarded as exposed if any generation might contain it.
+ * A new generation replaces the oldest one when the newest one has lived for the generation period, or has been filled to its capacity, so that the overall false positive rate never exceeds the target.
+ *
+ * A generation expires after {@code generationNum} generation periods even if no key is added meanwhile: checking ignores expired generations, and the next addition replaces them.
+ *
+ * Adding and rotating are synchronized, while checking is lock-free and may miss the bits of a concurrent addition.
+ *
+ * @author weikun.zhong
+ * @see ExposureItemFilter
+ */
+public class ExposureBloomFilter
+{
+	private static final int MAGIC=0x4A584246;
+	private static final int FORMAT_VERSION=1;
+
+	private final int generationNum;
+	private final int capacity;
+	private final long generationMillis;
+	private final int hashNum;
+	private final long bitNum;
+	private final long[][] bits;
+	private final long[] createdMillis;
+	private final int[] counts;
+	private volatile int newest;
+
+	/**
+	 * @param capacity the maximum number of keys added to one generation.
+	 * @param fpp the target overall false positive probability, in {@code (0, 1)}.
+	 * @param generationNum the number of generations.
+	 * @param generationMillis the period of a generation in milliseconds, or {@code 0} to rotate only when a generation is full.
+	 */
+	public ExposureBloomFilter(int capacity, double fpp, int generationNum, long generationMillis)
+	{
+		if(capacity<=0 || !(fpp>0 && fpp<1) || generationNum<=0 || generationMillis<0)
+			throw new IllegalArgumentException("ExposureBloomFilter::ExposureBloomFilter: illegal parameters!");
+		double generationFpp=-Math.expm1(Math.log1p(-fpp)/generationNum);
+		long m=(long)Math.ceil(-capacity*Math.log(generationFpp)/(Math.log(2)*Math.log(2)));
+		m=Math.max((m+63)&~63L, 64);
+		if(m>(1L<<32))
+			throw new IllegalArgumentException("ExposureBloomFilter::ExposureBloomFilter: too many bits for one generation!");
+		this.capacity=capacity;
+		this.generationNum=generationNum;
+		this.generationMillis=generationMillis;
+		this.bitNum=m;
+		this.hashNum=Math.max(1, (int)Math.round((double)m/capacity*Math.log(2)));
+		bits=new long[generationNum][(int)(m>>>6)];
+		createdMillis=new long[generationNum];
+		counts=new int[generationNum];
+		createdMillis[0]=System.currentTimeMillis();
+		newest=0;
+	}
+
+	private ExposureBloomFilter(int capacity, int generationNum, long generationMillis, int hashNum, long bitNum, int newest)
+	{
+		this.capacity=capacity;
+		this.generationNum=generationNum;
+		this.generationMillis=generationMillis;
+		this.hashNum=hashNum;
+		this.bitNum=bitNum;
+		bits=new long[generationNum][(int)(bitNum>>>6)];
+		createdMillis=new long[generationNum];
+		counts=new int[generationNum];
+		this.newest=newest;
+	}
+
+	private static long fmix64(long h)
+	{
+		h^=h>>>33;
+		h*=0xff51afd7ed558ccdL;
+		h^=h>>>33;
+		h*=0xc4ceb9fe1a85ec53L;
+		h^=h>>>33;
+		return h;
+	}
+
+	/**
+	 * Adds a key to the newest generation, rotating first if the newest generation is due.
+	 *
+	 * @param key the 64-bit key of the exposed item.
+	 */
+	public synchronized void add(long key)
+	{
+		rotateIfDue(System.currentTimeMillis());
+		long[] words=bits[newest];
+		long h1=fmix64(key);
+		long h2=fmix64(h1^0x9E3779B97F4A7C15L)|1;
+		for(int i=0; i<hashNum; i++)
+		{
+			long bit=bitIndex(h1+i*h2);
+			words[(int)(bit>>>6)]|=1L<<bit;
+		}
+		++counts[newest];
+	}
+
+	private long bitIndex(long h)
+	{
+		return ((h>>>32)*bitNum)>>>32;
+	}
+
+	/**
+	 * Tells if the given key might have been added to any live generation.
+	 *
+	 * @param key the 64-bit key of an item.
+	 * @return {@code false} if the key has definitely not been added, otherwise {@code true}.
+	 */
+	public boolean mightContain(long key)
+	{
+		long nowMillis=System.currentTimeMillis();
+		long h1=fmix64(key);
+		long h2=fmix64(h1^0x9E3779B97F4A7C15L)|1;
+		for(int g=0; g<generationNum; g++)
+		{
+			if(!isExpired(g, nowMillis) && contains(bits[g], h1, h2))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Tells if the given generation has lived for {@code generationNum} generation periods, so that it would have been replaced if keys had been added.
+	 */
+	private boolean isExpired(int g, long nowMillis)
+	{
+		return generationMillis>0 && (nowMillis-createdMillis[g])/generationMillis>=generationNum;
+	}
+
+	private boolean contains(long[] words, long h1, long h2)
+	{
+		for(int i=0; i<hashNum; i++)
+		{
+			long bit=bitIndex(h1+i*h2);
+			if((words[(int)(bit>>>6)]&(1L<<bit))==0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Checks a batch of keys, hashing each key once and probing the generations newest first.
+	 *
+	 * @param keys the 64-bit keys.
+	 * @param size the number of valid keys.
+	 * @param res receives {@code true} for the keys which might have been added.
+	 * @return the number of keys which might have been added.
+	 */
+	public int mightContainAll(long[] keys, int size, boolean[] res)
+	{
+		int count=0;
+		int first=newest;
+		long nowMillis=System.currentTimeMillis();
+		int liveNum=0;
+		while(liveNum<generationNum && !isExpired((first-liveNum+generationNum)%generationNum, nowMillis))
+		{
+			++liveNum;
+		}
+		for(int j=0; j<size; j++)
+		{
+			long h1=fmix64(keys[j]);
+			long h2=fmix64(h1^0x9E3779B97F4A7C15L)|1;
+			boolean found=false;
+			for(int g=0; g<liveNum && !found; g++)
+			{
+				found=contains(bits[(first-g+generationNum)%generationNum], h1, h2);
+			}
+			res[j]=found;
+			if(found)
+				++count;
+		}
+		return count;
+	}
+
+	/**
+	 * Starts new generations in place of the oldest ones, one for every generation period the newest generation has lived, at most {@code generationNum}, or one if the newest generation is full.
+	 *
+	 * @param nowMillis the current time in milliseconds.
+	 * @return {@code true} if rotated.
+	 */
+	public synchronized boolean rotateIfDue(long nowMillis)
+	{
+		long rotationNum=generationMillis>0 ? Math.min((nowMillis-createdMillis[newest])/generationMillis, generationNum) : 0;
+		if(rotationNum<=0 && counts[newest]>=capacity)
+			rotationNum=1;
+		for(long r=0; r<rotationNum; r++)
+		{
+			rotate(nowMillis);
+		}
+		return rotationNum>0;
+	}
+
+	/**
+	 * Drops the oldest generation and starts a new one.
+	 *
+	 * @param nowMillis the current time in milliseconds.
+	 */
+	public synchronized void rotate(long nowMillis)
+	{
+		int next=(newest+1)%generationNum;
+		Arrays.fill(bits[next], 0);
+		counts[next]=0;
+		createdMillis[next]=nowMillis;
+		newest=next;
+	}
+
+	/**
+	 * @return the estimated false positive probability with the current fill of all generations.
+	 */
+	public synchronized double expectedFpp()
+	{
+		double pass=1;
+		for(int count : counts)
+		{
+			pass*=1-Math.pow(-Math.expm1(-(double)hashNum*count/bitNum), hashNum);
+		}
+		return 1-pass;
+	}
+
+	public int getGenerationNum()
+	{
+		return generationNum;
+	}
+
+	public int getCapacity()
+	{
+		return capacity;
+	}
+
+	/**
+	 * Serializes this filter for a local cache. Empty generations take no bit words.
+	 *
+	 * @return the serialized bytes.
+	 */
+	public synchronized byte[] toBytes()
+	{
+		int words=(int)(bitNum>>>6);
+		int size=40;
+		for(int count : counts)
+		{
+			size+=12+(count>0 ? 8*words : 0);
+		}
+		ByteBuffer buffer=ByteBuffer.allocate(size);
+		buffer.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(capacity).putInt(generationNum).putLong(generationMillis).putInt(hashNum).putLong(bitNum).putInt(newest);
+		for(int g=0; g<generationNum; g++)
+		{
+			buffer.putLong(createdMillis[g]).putInt(counts[g]);
+			if(counts[g]>0)
+				buffer.asLongBuffer().put(bits[g]);
+			buffer.position(buffer.position()+(counts[g]>0 ? 8*words : 0));
+		}
+		return buffer.array();
+	}
+
+	/**
+	 * Deserializes a filter written by the {@link #toBytes() toBytes} method.
+	 * The header and the sizes of all generations are validated against the length of the bytes before anything is allocated, so that corrupted bytes can never make it allocate more than the filter they claim to be.
+	 *
+	 * @param bytes the serialized bytes.
+	 * @return the deserialized filter.
+	 * @throws IOException if the bytes are not a serialized filter.
+	 */
+	public static ExposureBloomFilter fromBytes(byte[] bytes) throws IOException
+	{
+		try
+		{
+			ByteBuffer buffer=ByteBuffer.wrap(bytes);
+			if(buffer.getInt()!=MAGIC || buffer.getInt()!=FORMAT_VERSION)
+				throw new IOException("ExposureBloomFilter::fromBytes: not a serialized exposure filter!");
+			int capacity=buffer.getInt();
+			int generationNum=buffer.getInt();
+			long generationMillis=buffer.getLong();
+			int hashNum=buffer.getInt();
+			long bitNum=buffer.getLong();
+			int newest=buffer.getInt();
+			if(capacity<=0 || generationNum<=0 || generationNum>buffer.remaining()/12 || hashNum!=Math.max(1, (int)Math.round((double)bitNum/capacity*Math.log(2))) || bitNum<=0 || (bitNum&63)!=0 || bitNum>(1L<<32) || newest<0 || newest>=generationNum)
+				throw new IOException("ExposureBloomFilter::fromBytes: corrupted exposure filter!");
+			checkGenerations(buffer.duplicate(), generationNum, bitNum>>>6);
+			ExposureBloomFilter filter=new ExposureBloomFilter(capacity, generationNum, generationMillis, hashNum, bitNum, newest);
+			for(int g=0; g<generationNum; g++)
+			{
+				filter.createdMillis[g]=buffer.getLong();
+				filter.counts[g]=buffer.getInt();
+				if(filter.counts[g]>0)
+				{
+					buffer.asLongBuffer().get(filter.bits[g]);
+					buffer.position(buffer.position()+8*filter.bits[g].length);
+				}
+			}
+			if(buffer.hasRemaining())
+				throw new IOException("ExposureBloomFilter::fromBytes: corrupted exposure filter!");
+			return filter;
+		}
+		catch(RuntimeException e)
+		{
+			throw new IOException("ExposureBloomFilter::fromBytes: corrupted exposure filter!", e);
+		}
+	}
+
+	private static void checkGenerations(ByteBuffer buffer, int generationNum, long words) throws IOException
+	{
+		for(int g=0; g<generationNum; g++)
+		{
+			if(buffer.remaining()<12)
+				throw new IOException("ExposureBloomFilter::fromBytes: corrupted exposure filter!");
+			buffer.getLong();
+			int count=buffer.getInt();
+			if(count<0 || (count>0 && buffer.remaining()<8*words))
+				throw new IOException("ExposureBloomFilter::fromBytes: corrupted exposure filter!");
+			if(count>0)
+				buffer.position(buffer.position()+(int)(8*words));
+		}
+		if(buffer.hasRemaining())
+			throw new IOException("ExposureBloomFilter::fromBytes: corrupted exposure filter!");
+	}
+}
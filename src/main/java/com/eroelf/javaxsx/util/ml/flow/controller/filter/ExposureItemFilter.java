@@ -0,0 +1,74 @@
+package com.eroelf.javaxsx.util.ml.flow.controller.filter;
+
+import java.util.List;
+import java.util.function.ToLongFunction;
+
+import com.eroelf.javaxsx.util.ml.feature.Item;
+
+/**
+ * An {@link ItemFilter} which rejects the {@link Item}s that a user has probably been exposed to, backed by the user's {@link ExposureBloomFilter}.
+ * An {@link Item} never exposed is always accepted, while an {@link Item} not exposed within the live generations is wrongly rejected with at most the target false positive probability of the {@link ExposureBloomFilter}.
+ *
+ * @author weikun.zhong
+ *
+ * @param <T> the type of those {@link Item} instances which are about to be checked.
+ */
+public class ExposureItemFilter<T extends Item> implements ItemFilter<T>
+{
+	private final ExposureBloomFilter exposures;
+	private final ToLongFunction<? super T> keyFunction;
+
+	/**
+	 * @param exposures the {@link ExposureBloomFilter} of the user.
+	 * @param keyFunction gives the 64-bit key of an {@link Item}, e.g. its item id.
+	 */
+	public ExposureItemFilter(ExposureBloomFilter exposures, ToLongFunction<? super T> keyFunction)
+	{
+		this.exposures=exposures;
+		this.keyFunction=keyFunction;
+	}
+
+	@Override
+	public boolean test(T item)
+	{
+		return !exposures.mightContain(keyFunction.applyAsLong(item));
+	}
+
+	/**
+	 * Checks a batch of candidates at once.
+	 *
+	 * @param items the candidates.
+	 * @param accepted receives {@code true} for the candidates not exposed, whose length is at least {@code items.size()}.
+	 * @return the number of accepted candidates.
+	 */
+	public int testAll(List<? extends T> items, boolean[] accepted)
+	{
+		int size=items.size();
+		long[] keys=new long[size];
+		for(int i=0; i<size; i++)
+		{
+			keys[i]=keyFunction.applyAsLong(items.get(i));
+		}
+		int exposedNum=exposures.mightContainAll(keys, size, accepted);
+		for(int i=0; i<size; i++)
+		{
+			accepted[i]=!accepted[i];
+		}
+		return size-exposedNum;
+	}
+
+	/**
+	 * Records the exposure of an {@link Item}.
+	 *
+	 * @param item the exposed {@link Item}.
+	 */
+	public void expose(T item)
+	{
+		exposures.add(keyFunction.applyAsLong(item));
+	}
+
+	public ExposureBloomFilter getExposures()
+	{
+		return exposures;
+	}
+}
@@ -33,4 +33,16 @@ public interface ItemFilterHandler<T extends Item>
 	 * @return an {@link ItemFilter} object.
 	 */
 	public ItemFilter<T> getAfterFilter(ItemGroupStatistics<T> itemGroupStatistics);
+
+	/**
+	 * Tells if the {@link #getAfterFilter(ItemGroupStatistics) getAfterFilter} method may return a non-null {@link ItemFilter}.
+	 * If {@code false}, a flow need not retain all candidates until they are all modeled and scored, e.g. when generating only the top K ones.
+	 * Returns {@code true} by default.
+	 * 
+	 * @return {@code true} if there may be an afterFilter, otherwise {@code false}.
+	 */
+	default public boolean hasAfterFilter()
+	{
+		return true;
+	}
 }
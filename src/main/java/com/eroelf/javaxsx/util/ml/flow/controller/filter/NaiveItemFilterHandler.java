@@ -38,6 +38,12 @@ public class NaiveItemFilterHandler<T extends Item> implements ItemFilterHandler
 		return null;
 	}
 
+	@Override
+	public boolean hasAfterFilter()
+	{
+		return false;
+	}
+
 	private NaiveItemFilterHandler()
 	{}
 
@@ -2,7 +2,10 @@ package com.eroelf.javaxsx.util.ml.flow.convert;
 
 import java.util.List;
 import java.util.ListIterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
+import com.eroelf.javaxsx.util.Futures;
 import com.eroelf.javaxsx.util.ml.feature.Item;
 import com.eroelf.javaxsx.util.ml.flow.info.Info;
 import com.eroelf.javaxsx.util.ml.flow.info.InfoFactory;
@@ -21,6 +24,10 @@ import com.eroelf.javaxsx.util.ml.flow.log.InfoLogFactory;
  */
 public abstract class Converter<T extends Item, I extends Info, L extends InfoLog>
 {
+	private static final int SKIPPED=0;
+	private static final int ACCEPTED=1;
+	private static final int FAILED=2;
+
 	/**
 	 * Get an {@link InfoFactory} to create instances for the specified customer.
 	 * 
@@ -105,4 +112,96 @@ public abstract class Converter<T extends Item, I extends Info, L extends InfoLo
 
 		return new int[]{start+validCount+invalidCount, validCount, invalidCount};
 	}
+
+	/**
+	 * Do the converting in parallel.
+	 * Objects filled into the {@code infoList} are one-to-one corresponded to objects filled into the {@code infoLogList} via their array indices, and both lists and the returned value are the same as the sequential {@link #convert(List, List, List, int, int, boolean, boolean) convert} method gives.
+	 * 
+	 * @param executor the {@link Executor} to run the conversion tasks.
+	 * @param chunkSize the number of {@link Item} objects converted by one task.
+	 * @return the same as the sequential {@link #convert(List, List, List, int, int, boolean, boolean) convert} method.
+	 * @see #convertInParallel(List, List, List, InfoFactory, InfoLogFactory, int, int, boolean, boolean, Executor, int)
+	 */
+	public int[] convertInParallel(List<? extends T> itemList, List<? super I> infoList, List<? super L> infoLogList, int start, int length, boolean verboseInfo, boolean verboseLog, Executor executor, int chunkSize)
+	{
+		return convertInParallel(itemList, infoList, infoLogList, getInfoFactory(), getInfoLogFactory(), start, length, verboseInfo, verboseLog, executor, chunkSize);
+	}
+
+	/**
+	 * Do the converting in parallel, the static version.
+	 * The {@link Item} objects are converted in rounds. Each round converts as many {@link Item} objects as still needed, chunk by chunk on the given {@link Executor}, and the results are merged on the caller thread in the {@code itemList} order, so that the {@link InfoFactory} and the {@link InfoLogFactory} must be thread-safe while the lists need not be.
+	 * Objects filled into the {@code infoList} are one-to-one corresponded to objects filled into the {@code infoLogList} via their array indices, and both lists and the returned value are the same as the sequential {@link #convert(List, List, List, InfoFactory, InfoLogFactory, int, int, boolean, boolean) convert} method gives.
+	 * 
+	 * @param executor the {@link Executor} to run the conversion tasks.
+	 * @param chunkSize the number of {@link Item} objects converted by one task.
+	 * @return the same as the sequential {@link #convert(List, List, List, InfoFactory, InfoLogFactory, int, int, boolean, boolean) convert} method.
+	 * @see #convert(List, List, List, InfoFactory, InfoLogFactory, int, int, boolean, boolean)
+	 */
+	public static <T extends Item, I extends Info, L extends InfoLog> int[] convertInParallel(List<? extends T> itemList, List<? super I> infoList, List<? super L> infoLogList, InfoFactory<T, I> infoFactory, InfoLogFactory<T, L> infoLogFactory, int start, int length, boolean verboseInfo, boolean verboseLog, Executor executor, int chunkSize)
+	{
+		if(chunkSize<=0)
+			throw new IllegalArgumentException("Converter::convertInParallel: chunkSize must be positive!");
+		// The sequential convert method always accepts at least one Item object.
+		length=Math.max(length, 1);
+		int validCount=0;
+		int invalidCount=0;
+		int next=start;
+		int size=itemList.size();
+		while(next<size && validCount<length)
+		{
+			int roundSize=Math.min(Math.max(length-validCount, chunkSize), size-next);
+			Object[] infos=new Object[roundSize];
+			Object[] infoLogs=new Object[roundSize];
+			byte[] states=new byte[roundSize];
+			CompletableFuture<?>[] futures=new CompletableFuture<?>[(roundSize+chunkSize-1)/chunkSize];
+			for(int c=0; c<futures.length; c++)
+			{
+				int from=c*chunkSize;
+				int to=Math.min(from+chunkSize, roundSize);
+				int offset=next;
+				futures[c]=CompletableFuture.runAsync(() -> {
+					for(int i=from; i<to; i++)
+					{
+						states[i]=(byte)convertOne(itemList.get(offset+i), infoFactory, infoLogFactory, verboseInfo, verboseLog, infos, infoLogs, i);
+					}
+				}, executor);
+			}
+			Futures.join(CompletableFuture.allOf(futures));
+			for(int i=0; i<roundSize && validCount<length; i++)
+			{
+				if(states[i]==ACCEPTED)
+				{
+					@SuppressWarnings("unchecked")
+					I info=(I)infos[i];
+					@SuppressWarnings("unchecked")
+					L infoLog=(L)infoLogs[i];
+					infoList.add(info);
+					infoLogList.add(infoLog);
+					++validCount;
+				}
+				else if(states[i]==FAILED)
+					++invalidCount;
+			}
+			next+=roundSize;
+		}
+
+		return new int[]{start+validCount+invalidCount, validCount, invalidCount};
+	}
+
+	private static <T extends Item, I extends Info, L extends InfoLog> int convertOne(T item, InfoFactory<T, I> infoFactory, InfoLogFactory<T, L> infoLogFactory, boolean verboseInfo, boolean verboseLog, Object[] infos, Object[] infoLogs, int i)
+	{
+		I info=infoFactory.create(item, verboseInfo);
+		if(info==null)
+			return FAILED;
+		info.convertFrom(item, verboseInfo);
+		if(info.isValid() || verboseInfo)
+		{
+			L infoLog=infoLogFactory.create(item, verboseLog);
+			infoLog.logFrom(item, verboseLog);
+			infos[i]=info;
+			infoLogs[i]=infoLog;
+			return ACCEPTED;
+		}
+		return SKIPPED;
+	}
 }
@@ -0,0 +1,135 @@
+package com.eroelf.javaxsx.util.ml.flow.estimate;
+
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+import com.eroelf.javaxsx.util.ml.feature.Item;
+import com.eroelf.javaxsx.util.ml.feature.UpdatableByItem;
+import com.eroelf.javaxsx.util.ml.feature.strategy.Strategy;
+
+/**
+ * A thread-safe candidate set which deduplicates {@link Item} objects by an identity function.
+ * Merging is atomic per identity: the first {@link Item} object of an identity is stored, and any later one is merged into it by the {@link UpdatableByItem#update(Item) update} method.
+ * Iterating follows the order in which identities were first stored.
+ *
+ * @author weikun.zhong
+ *
+ * @param <T> the type of the stored {@link Item} objects.
+ */
+public class CandidateStore<T extends Item & UpdatableByItem<T>> implements Iterable<T>
+{
+	private final Function<? super T, ?> identity;
+	private final ConcurrentHashMap<Object, T> map;
+	private final Queue<T> order=new ConcurrentLinkedQueue<>();
+	private final ReadWriteLock sealLock=new ReentrantReadWriteLock();
+	private volatile boolean sealed=false;
+
+	/**
+	 * @param identity the function which gives the identity of an {@link Item} object. The identity must implement {@link Object#equals(Object) equals} and {@link Object#hashCode() hashCode} properly.
+	 * @param expectedSize the expected number of candidates, used to presize the store to avoid rehashing.
+	 * @param concurrencyLevel the estimated number of concurrently merging threads.
+	 */
+	public CandidateStore(Function<? super T, ?> identity, int expectedSize, int concurrencyLevel)
+	{
+		this.identity=identity;
+		map=new ConcurrentHashMap<>(expectedSize, 0.75f, Math.max(concurrencyLevel, 1));
+	}
+
+	public CandidateStore(Function<? super T, ?> identity, int expectedSize)
+	{
+		this(identity, expectedSize, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Stores the given {@link Item} object, or merges it into the stored one with the same identity, atomically.
+	 *
+	 * @param item the {@link Item} object to be merged.
+	 * @return the stored {@link Item} object of the identity.
+	 */
+	public T merge(T item)
+	{
+		return map.compute(identity.apply(item), (key, existed) -> {
+			if(existed==null)
+			{
+				order.add(item);
+				return item;
+			}
+			existed.update(item);
+			return existed;
+		});
+	}
+
+	/**
+	 * Merges all the given {@link Item} objects unless this store has been {@link #seal() sealed}.
+	 * A group of {@link Item} objects, e.g. those generated by one {@link Strategy}, is either merged entirely or rejected entirely.
+	 *
+	 * @param items the {@link Item} objects to be merged.
+	 * @return {@code true} if merged, or {@code false} if rejected because this store has been sealed.
+	 */
+	public boolean mergeAll(Iterable<? extends T> items)
+	{
+		sealLock.readLock().lock();
+		try
+		{
+			if(sealed)
+				return false;
+			for(T item : items)
+			{
+				merge(item);
+			}
+			return true;
+		}
+		finally
+		{
+			sealLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Rejects any later {@link #mergeAll(Iterable) mergeAll} invocation, and waits for those in progress to finish.
+	 */
+	public void seal()
+	{
+		sealLock.writeLock().lock();
+		try
+		{
+			sealed=true;
+		}
+		finally
+		{
+			sealLock.writeLock().unlock();
+		}
+	}
+
+	public boolean isSealed()
+	{
+		return sealed;
+	}
+
+	/**
+	 * Finds the stored {@link Item} object which has the same identity with the given one.
+	 *
+	 * @param item the given {@link Item} object.
+	 * @return the stored {@link Item} object if found, otherwise {@code null}.
+	 */
+	public T get(T item)
+	{
+		return map.get(identity.apply(item));
+	}
+
+	public int size()
+	{
+		return map.size();
+	}
+
+	@Override
+	public Iterator<T> iterator()
+	{
+		return order.iterator();
+	}
+}
@@ -0,0 +1,130 @@
+package com.eroelf.javaxsx.util.ml.flow.estimate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+import com.eroelf.javaxsx.util.Futures;
+import com.eroelf.javaxsx.util.ml.feature.BatchScoreableRestrictedBatchSample;
+import com.eroelf.javaxsx.util.ml.feature.Item;
+import com.eroelf.javaxsx.util.ml.flow.controller.ScoringStage;
+
+/**
+ * Runs the preliminary {@link ScoringStage}s of a cascade modeling and scoring flow.
+ * 
+ * @author weikun.zhong
+ */
+final class Cascade
+{
+	private Cascade()
+	{}
+
+	/**
+	 * Runs all the given stages in order, each on the survivors of the previous one.
+	 * 
+	 * @param items the candidates of the first stage.
+	 * @param stages the {@link ScoringStage} objects.
+	 * @param batchFactory creates {@link BatchScoreableRestrictedBatchSample} objects of a given batch size.
+	 * @param executor the {@link Executor} on which batches are modeled and scored in parallel, or {@code null} to run on the caller thread.
+	 * @param reporter receives the {@link StageReport} of each stage.
+	 * @param deadline the {@link Deadline} after which no new batch is formed and no new candidate is modeled in any stage, and batches are waited for only until it is nearly spent, so that candidates not scored by a stage in time do not survive it, or {@code null} for no time limit.
+	 * @return the survivors of the last stage.
+	 */
+	static <T extends Item> List<T> run(List<T> items, List<ScoringStage> stages, IntFunction<BatchScoreableRestrictedBatchSample<T>> batchFactory, Executor executor, Consumer<StageReport> reporter, Deadline deadline)
+	{
+		for(int i=0; i<stages.size(); i++)
+		{
+			long startNano=System.nanoTime();
+			ScoringStage stage=stages.get(i);
+			int inputNum=items.size();
+			items=runStage(items, stage, batchFactory, executor, deadline);
+			reporter.accept(new StageReport(i, stage, inputNum, items.size(), System.nanoTime()-startNano));
+		}
+		return items;
+	}
+
+	private static <T extends Item> List<T> runStage(List<T> items, ScoringStage stage, IntFunction<BatchScoreableRestrictedBatchSample<T>> batchFactory, Executor executor, Deadline deadline)
+	{
+		int batchSize=stage.getBatchSize();
+		int end=0;
+		List<T> scored;
+		if(executor==null)
+		{
+			BatchScoreableRestrictedBatchSample<T> batchSample=batchFactory.apply(batchSize);
+			while(end<items.size() && (deadline==null || !deadline.checkNearlySpent()))
+			{
+				List<T> batch=items.subList(end, Math.min(end+batchSize, items.size()));
+				int scoredNum=scoreBatch(batch, stage, batchSample, deadline);
+				end+=scoredNum;
+				if(scoredNum<batch.size())
+					break;
+			}
+			scored=end<items.size() ? items.subList(0, end) : items;
+		}
+		else
+		{
+			List<List<T>> batches=new ArrayList<>();
+			List<CompletableFuture<Integer>> futures=new ArrayList<>();
+			while(end<items.size() && (deadline==null || !deadline.checkNearlySpent()))
+			{
+				final List<T> batch=items.subList(end, Math.min(end+batchSize, items.size()));
+				batches.add(batch);
+				futures.add(CompletableFuture.supplyAsync(() -> scoreBatch(batch, stage, batchFactory.apply(batchSize), deadline), executor));
+				end+=batch.size();
+			}
+			scored=new ArrayList<>(end);
+			for(int i=0; i<futures.size(); i++)
+			{
+				Integer scoredNum=deadline!=null ? Futures.join(futures.get(i), deadline.getCutoffNano()) : Futures.join(futures.get(i));
+				if(scoredNum==null)
+					deadline.markTruncated();
+				else
+					scored.addAll(batches.get(i).subList(0, scoredNum));
+			}
+		}
+		items=scored;
+
+		int keepTopN=stage.getKeepTopN();
+		if(keepTopN>0 && keepTopN<items.size())
+		{
+			TopKHeap<T> heap=new TopKHeap<>(keepTopN, null);
+			for(T item : items)
+			{
+				if(stage.passThreshold(item.score))
+					heap.offer(item);
+			}
+			return heap.toSortedList();
+		}
+		List<T> survivors=new ArrayList<>(items.size());
+		for(T item : items)
+		{
+			if(stage.passThreshold(item.score))
+				survivors.add(item);
+		}
+		return survivors;
+	}
+
+	/**
+	 * Models and scores the given {@code batch}, but if a {@link Deadline} is given, stops modeling once it is nearly spent, and scores only the modeled part of the {@code batch}.
+	 *
+	 * @return the number of scored {@link Item} objects, which are the first ones of the {@code batch}.
+	 */
+	private static <T extends Item> int scoreBatch(List<T> batch, ScoringStage stage, BatchScoreableRestrictedBatchSample<T> batchSample, Deadline deadline)
+	{
+		int modeledNum=0;
+		for(T item : batch)
+		{
+			if(deadline!=null && deadline.checkNearlySpent())
+				break;
+			item.modelBy(stage.getModeler());
+			batchSample.add(item);
+			++modeledNum;
+		}
+		if(modeledNum>0)
+			batchSample.scoreBy(stage.getScorer());
+		return modeledNum;
+	}
+}
@@ -0,0 +1,104 @@
+package com.eroelf.javaxsx.util.ml.flow.estimate;
+
+import java.util.concurrent.TimeUnit;
+
+import com.eroelf.javaxsx.util.ml.feature.Item;
+
+/**
+ * A time budget of one generating flow, which also tells whether the flow was truncated because of the budget.
+ * The flow stops taking new candidates once the budget is nearly spent, i.e. only the reserved time is left, so that the in-flight batch can still be scored and the afterFilter can still run in time.
+ * A {@link Deadline} object belongs to a single flow invocation and should not be reused.
+ * 
+ * @author weikun.zhong
+ */
+public class Deadline
+{
+	private final long deadlineNano;
+	private final long reserveNano;
+	private volatile boolean truncated=false;
+
+	/**
+	 * @param budget the time budget counted from now.
+	 * @param reserve the time reserved from the budget for scoring the in-flight batch and running the afterFilter.
+	 * @param unit the {@link TimeUnit} of the {@code budget} and the {@code reserve}.
+	 */
+	public Deadline(long budget, long reserve, TimeUnit unit)
+	{
+		if(reserve<0 || reserve>budget)
+			throw new IllegalArgumentException("Deadline::Deadline: reserve must be in [0, budget]!");
+		deadlineNano=System.nanoTime()+unit.toNanos(budget);
+		reserveNano=unit.toNanos(reserve);
+	}
+
+	public Deadline(long budget, TimeUnit unit)
+	{
+		this(budget, 0, unit);
+	}
+
+	/**
+	 * @return the deadline compared with {@link System#nanoTime()}.
+	 */
+	public long getDeadlineNano()
+	{
+		return deadlineNano;
+	}
+
+	/**
+	 * @return the time compared with {@link System#nanoTime()} after which no new candidate should be taken.
+	 */
+	public long getCutoffNano()
+	{
+		return deadlineNano-reserveNano;
+	}
+
+	public long remaining(TimeUnit unit)
+	{
+		return unit.convert(deadlineNano-System.nanoTime(), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @return {@code true} if only the reserved time or less is left, otherwise {@code false}.
+	 */
+	public boolean isNearlySpent()
+	{
+		return System.nanoTime()-getCutoffNano()>=0;
+	}
+
+	public boolean isExpired()
+	{
+		return System.nanoTime()-deadlineNano>=0;
+	}
+
+	/**
+	 * Flags the flow as truncated, i.e. some candidates were not modeled, scored, or generated because of the budget.
+	 */
+	public void markTruncated()
+	{
+		truncated=true;
+	}
+
+	/**
+	 * Tells if the flow was truncated, in which case the generated {@link Item} objects are a partial result.
+	 * 
+	 * @return {@code true} if truncated, otherwise {@code false}.
+	 */
+	public boolean isTruncated()
+	{
+		return truncated;
+	}
+
+	/**
+	 * Checks if the budget is nearly spent, and flags the flow as truncated if so.
+	 * 
+	 * @return {@code true} if the flow should stop taking new candidates, otherwise {@code false}.
+	 */
+	public boolean checkNearlySpent()
+	{
+		if(isNearlySpent())
+		{
+			truncated=true;
+			return true;
+		}
+		return false;
+	}
+}
@@ -1,8 +1,15 @@
 package com.eroelf.javaxsx.util.ml.flow.estimate;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
 
+import com.eroelf.javaxsx.util.Futures;
 import com.eroelf.javaxsx.util.ml.feature.BatchSample;
 import com.eroelf.javaxsx.util.ml.feature.BatchScoreableRestrictedBatchSample;
 import com.eroelf.javaxsx.util.ml.feature.Item;
@@ -10,8 +17,10 @@ import com.eroelf.javaxsx.util.ml.feature.RestrictedBatchSample;
 import com.eroelf.javaxsx.util.ml.feature.model.Modeler;
 import com.eroelf.javaxsx.util.ml.feature.score.Scorer;
 import com.eroelf.javaxsx.util.ml.flow.controller.EnumerableFlowHandler;
+import com.eroelf.javaxsx.util.ml.flow.controller.ScoringStage;
 import com.eroelf.javaxsx.util.ml.flow.controller.filter.ItemFilter;
 import com.eroelf.javaxsx.util.ml.flow.controller.filter.ItemFilterHandler;
+import com.eroelf.javaxsx.util.ml.flow.controller.filter.NaiveItemFilter;
 import com.eroelf.javaxsx.util.ml.flow.controller.filter.NaiveItemFilterHandler;
 import com.eroelf.javaxsx.util.ml.flow.estimate.statistics.IdleItemGroupStatistics;
 import com.eroelf.javaxsx.util.ml.flow.estimate.statistics.ItemGroupStatistics;
@@ -81,27 +90,154 @@ public abstract class EnumerableItemGenerator<T extends Item> implements ItemGen
 		return IdleItemGroupStatistics.get();
 	}
 
+	/**
+	 * Receives the {@link StageReport} of each stage when the flow handler provides preliminary {@link ScoringStage}s, including the final stage which runs the modeler and scorer of the flow handler.
+	 * Does nothing by default.
+	 * 
+	 * @param report the {@link StageReport} object of a finished stage.
+	 * @see EnumerableFlowHandler#getStages()
+	 */
+	protected void stageFinished(StageReport report)
+	{}
+
 	@Override
 	public List<T> generate(List<T> destination)
+	{
+		return generate(destination, null);
+	}
+
+	@Override
+	public List<T> generate(List<T> destination, Deadline deadline)
 	{
 		int start=destination.size();
 
 		ItemFilterHandler<T> filterHandler=getFilterHandler();
+		ItemGroupStatistics<T> itemGroupStatistics=getItemGroupStatistics();
+
+		run(filterHandler, itemGroupStatistics, destination::add, deadline, null);
+
+		itemGroupStatistics.computeStatistics(destination.subList(start, destination.size()));
+		ItemFilter<T> afterFilter=filterHandler.getAfterFilter(itemGroupStatistics);
+		if(afterFilter!=null)
+		{
+			Iterator<T> iter=destination.listIterator(start);
+			while(iter.hasNext())
+			{
+				T item=iter.next();
+				if(!afterFilter.test(item))
+					iter.remove();
+			}
+		}
+		return destination;
+	}
+
+	/**
+	 * Runs the flow and generates only the best {@code k} {@link Item} objects, sorted best first.
+	 * If the filter handler returned by the {@link #getFilterHandler() getFilterHandler} method has no afterFilter, only {@code k} {@link Item} objects are retained during the flow and the {@link ItemGroupStatistics#computeStatistics(Iterable) computeStatistics} method sees only them.
+	 * In that case, if the {@code comparator} is {@code null} and the scorer of the flow handler is a {@link com.eroelf.javaxsx.util.ml.feature.score.PruningScorer PruningScorer}, the score of the K-th best retained object is passed to it, so that hopeless candidates are not fully scored, and neither inner-filtered nor counted by the {@link ItemGroupStatistics} object.
+	 * Otherwise all {@link Item} objects are retained so that the afterFilter works on the statistics of all of them, and the best {@code k} are selected after the afterFilter.
+	 */
+	@Override
+	public List<T> generateTopK(int k, Comparator<? super T> comparator)
+	{
+		return generateTopK(k, comparator, null);
+	}
+
+	@Override
+	public List<T> generateTopK(int k, Comparator<? super T> comparator, Deadline deadline)
+	{
+		ItemFilterHandler<T> filterHandler=getFilterHandler();
+		if(filterHandler.hasAfterFilter())
+			return TopKHeap.select(generate(deadline), k, comparator);
+
+		ItemGroupStatistics<T> itemGroupStatistics=getItemGroupStatistics();
+		TopKHeap<T> heap=new TopKHeap<>(k, comparator);
+		if(comparator==null)
+		{
+			ScoreThreshold threshold=new ScoreThreshold();
+			run(filterHandler, itemGroupStatistics, item -> threshold.offer(heap, item), deadline, threshold);
+		}
+		else
+			run(filterHandler, itemGroupStatistics, heap::offer, deadline, null);
+		List<T> res=heap.toSortedList();
+		itemGroupStatistics.computeStatistics(res);
+		return res;
+	}
+
+	/**
+	 * Models, scores, and inner-filters all pre-filtered candidates, after the preliminary {@link ScoringStage}s if any, and passes every accepted {@link Item} object to the {@code sink}.
+	 * If a {@link Deadline} is given, no new candidate is modeled once it is nearly spent.
+	 */
+	private void run(ItemFilterHandler<T> filterHandler, ItemGroupStatistics<T> itemGroupStatistics, Consumer<? super T> sink, Deadline deadline, ScoreThreshold threshold)
+	{
 		ItemFilter<T> preFilter=filterHandler.getPreFilter();
-		ItemFilter<T> innerFilter=filterHandler.getInnerFilter();
 
 		EnumerableFlowHandler<T> flowHandler=getFlowHandler();
 		Modeler modeler=flowHandler.getModeler();
-		Scorer scorer=flowHandler.getScorer();
-
-		ItemGroupStatistics<T> itemGroupStatistics=getItemGroupStatistics();
+		Scorer scorer=threshold!=null ? threshold.bind(flowHandler.getScorer()) : flowHandler.getScorer();
+		ItemFilter<T> innerFilter=threshold!=null ? threshold.bind(filterHandler.getInnerFilter(), flowHandler.getScorer()) : filterHandler.getInnerFilter();
 
 		int batchSize=flowHandler.getBatchSize();
+		Executor executor=flowHandler.getExecutor();
+		int pipelineDepth=flowHandler.getPipelineDepth();
+		List<ScoringStage> stages=flowHandler.getStages();
+		if(!stages.isEmpty())
+		{
+			runCascade(flowHandler.getCandidates(), stages, preFilter, innerFilter, modeler, scorer, itemGroupStatistics, batchSize, executor, pipelineDepth, sink, deadline);
+			return;
+		}
+		if(executor!=null && pipelineDepth>1)
+		{
+			runPipelined(flowHandler.getCandidates(), preFilter, innerFilter, modeler, scorer, itemGroupStatistics, batchSize, executor, pipelineDepth, sink, deadline);
+			return;
+		}
+		if(executor!=null)
+		{
+			runInParallel(flowHandler.getCandidates(), preFilter, innerFilter, modeler, scorer, itemGroupStatistics, batchSize, executor, sink, deadline);
+			return;
+		}
+		runSequentially(flowHandler.getCandidates(), preFilter, innerFilter, modeler, scorer, itemGroupStatistics, batchSize, sink, deadline);
+	}
+
+	/**
+	 * Runs the preliminary {@link ScoringStage}s on the pre-filtered candidates, then runs the final stage only on the survivors.
+	 */
+	private void runCascade(Iterable<T> candidates, List<ScoringStage> stages, ItemFilter<T> preFilter, ItemFilter<T> innerFilter, Modeler modeler, Scorer scorer, ItemGroupStatistics<T> itemGroupStatistics, int batchSize, Executor executor, int pipelineDepth, Consumer<? super T> sink, Deadline deadline)
+	{
+		List<T> survivors=new ArrayList<>();
+		for(T item : candidates)
+		{
+			if(deadline!=null && deadline.checkNearlySpent())
+				break;
+			if(preFilter.test(item))
+				survivors.add(item);
+		}
+		survivors=Cascade.run(survivors, stages, this::createBatchSample, executor, this::stageFinished, deadline);
+
+		long startNano=System.nanoTime();
+		int[] outputNum=new int[1];
+		Consumer<T> countingSink=item -> {
+			++outputNum[0];
+			sink.accept(item);
+		};
+		if(executor!=null && pipelineDepth>1)
+			runPipelined(survivors, NaiveItemFilter.get(), innerFilter, modeler, scorer, itemGroupStatistics, batchSize, executor, pipelineDepth, countingSink, deadline);
+		else if(executor!=null)
+			runInParallel(survivors, NaiveItemFilter.get(), innerFilter, modeler, scorer, itemGroupStatistics, batchSize, executor, countingSink, deadline);
+		else
+			runSequentially(survivors, NaiveItemFilter.get(), innerFilter, modeler, scorer, itemGroupStatistics, batchSize, countingSink, deadline);
+		stageFinished(new StageReport(stages.size(), null, survivors.size(), outputNum[0], System.nanoTime()-startNano));
+	}
+
+	private void runSequentially(Iterable<T> candidates, ItemFilter<T> preFilter, ItemFilter<T> innerFilter, Modeler modeler, Scorer scorer, ItemGroupStatistics<T> itemGroupStatistics, int batchSize, Consumer<? super T> sink, Deadline deadline)
+	{
 		BatchScoreableRestrictedBatchSample<T> batchSample=createBatchSample(batchSize);
 		int currSize;
 		boolean needScore=false;
-		for(T item : flowHandler.getCandidates())
+		for(T item : candidates)
 		{
+			if(deadline!=null && deadline.checkNearlySpent())
+				break;
 			if(preFilter.test(item))
 			{
 				item.modelBy(modeler);
@@ -117,7 +253,7 @@ public abstract class EnumerableItemGenerator<T extends Item> implements ItemGen
 						{
 							itemGroupStatistics.increaseStatistics(sample);
 							verbose(sample);
-							destination.add(sample);
+							sink.accept(sample);
 						}
 					}
 				}
@@ -133,23 +269,118 @@ public abstract class EnumerableItemGenerator<T extends Item> implements ItemGen
 				{
 					itemGroupStatistics.increaseStatistics(sample);
 					verbose(sample);
-					destination.add(sample);
+					sink.accept(sample);
 				}
 			}
 		}
+	}
 
-		itemGroupStatistics.computeStatistics(destination.subList(start, destination.size()));
-		ItemFilter<T> afterFilter=filterHandler.getAfterFilter(itemGroupStatistics);
-		if(afterFilter!=null)
+	/**
+	 * Models the pre-filtered candidates on the caller thread while the filled batches are scored on the given {@link Executor}, with {@code pipelineDepth} batches in hand.
+	 * Results are merged on the caller thread in the candidates order, as the {@link #runInParallel runInParallel} method does.
+	 * If a {@link Deadline} is given, no new candidate is modeled once it is nearly spent, and the submitted batches are waited for only until it expires.
+	 */
+	private void runPipelined(Iterable<T> candidates, ItemFilter<T> preFilter, ItemFilter<T> innerFilter, Modeler modeler, Scorer scorer, ItemGroupStatistics<T> itemGroupStatistics, int batchSize, Executor executor, int pipelineDepth, Consumer<? super T> sink, Deadline deadline)
+	{
+		Pipeline<T> pipeline=new Pipeline<>(pipelineDepth, batchSize, this::createBatchSample, scorer, innerFilter, executor, deadline, sample -> {
+			itemGroupStatistics.increaseStatistics(sample);
+			verbose(sample);
+			sink.accept(sample);
+		});
+		for(T item : candidates)
 		{
-			Iterator<T> iter=destination.listIterator(start);
-			while(iter.hasNext())
+			if(deadline!=null && deadline.checkNearlySpent())
+				break;
+			if(preFilter.test(item))
 			{
-				T item=iter.next();
-				if(!afterFilter.test(item))
-					iter.remove();
+				item.modelBy(modeler);
+				pipeline.add(item);
 			}
 		}
-		return destination;
+		pipeline.finish();
+	}
+
+	/**
+	 * Partitions the pre-filtered candidates into batches, then models, scores, and inner-filters every batch as a task on the given {@link Executor}.
+	 * Results are merged on the caller thread in the candidates order, so that the {@link ItemGroupStatistics} object, the {@link #verbose(Item) verbose} method, and the {@code sink} are never accessed concurrently and the output order is deterministic.
+	 * Finished batches are merged while the later batches are still being formed, so that in a top-K generation the threshold passed to a {@link com.eroelf.javaxsx.util.ml.feature.score.PruningScorer PruningScorer} rises early. Still, only the batches which start after {@code k} results have been merged can be pruned.
+	 * If a {@link Deadline} is given, no new batch is formed and no new candidate is modeled by a submitted batch once it is nearly spent, and the submitted batches are waited for only until it expires, after which the late ones are dropped.
+	 */
+	private void runInParallel(Iterable<T> candidates, ItemFilter<T> preFilter, ItemFilter<T> innerFilter, Modeler modeler, Scorer scorer, ItemGroupStatistics<T> itemGroupStatistics, int batchSize, Executor executor, Consumer<? super T> sink, Deadline deadline)
+	{
+		List<CompletableFuture<List<T>>> futures=new ArrayList<>();
+		int mergedNum=0;
+		List<T> batch=new ArrayList<>(batchSize);
+		for(T item : candidates)
+		{
+			if(deadline!=null && deadline.checkNearlySpent())
+				break;
+			if(preFilter.test(item))
+			{
+				batch.add(item);
+				if(batch.size()==batchSize)
+				{
+					futures.add(submitBatch(batch, innerFilter, modeler, scorer, batchSize, executor, deadline));
+					batch=new ArrayList<>(batchSize);
+					while(mergedNum<futures.size() && futures.get(mergedNum).isDone())
+					{
+						merge(futures.get(mergedNum++), itemGroupStatistics, sink, deadline);
+					}
+				}
+			}
+		}
+		if(!batch.isEmpty())
+			futures.add(submitBatch(batch, innerFilter, modeler, scorer, batchSize, executor, deadline));
+
+		while(mergedNum<futures.size())
+		{
+			merge(futures.get(mergedNum++), itemGroupStatistics, sink, deadline);
+		}
+	}
+
+	private void merge(CompletableFuture<List<T>> future, ItemGroupStatistics<T> itemGroupStatistics, Consumer<? super T> sink, Deadline deadline)
+	{
+		List<T> accepted=deadline!=null ? Futures.join(future, deadline.getDeadlineNano()) : Futures.join(future);
+		if(accepted==null)
+		{
+			deadline.markTruncated();
+			return;
+		}
+		for(T sample : accepted)
+		{
+			itemGroupStatistics.increaseStatistics(sample);
+			verbose(sample);
+			sink.accept(sample);
+		}
+	}
+
+	/**
+	 * Submits a task which models, scores, and inner-filters the given {@code batch}.
+	 * If a {@link Deadline} is given, the task stops modeling once it is nearly spent, and only the modeled part of the {@code batch} is scored.
+	 */
+	private CompletableFuture<List<T>> submitBatch(final List<T> batch, final ItemFilter<T> innerFilter, final Modeler modeler, final Scorer scorer, final int batchSize, Executor executor, final Deadline deadline)
+	{
+		return CompletableFuture.supplyAsync(() -> {
+			BatchScoreableRestrictedBatchSample<T> batchSample=createBatchSample(batchSize);
+			int modeledNum=0;
+			for(T item : batch)
+			{
+				if(deadline!=null && deadline.checkNearlySpent())
+					break;
+				item.modelBy(modeler);
+				batchSample.add(item);
+				++modeledNum;
+			}
+			if(modeledNum==0)
+				return Collections.<T>emptyList();
+			batchSample.scoreBy(scorer);
+			List<T> accepted=new ArrayList<>(batch.size());
+			for(T sample : batchSample)
+			{
+				if(innerFilter.test(sample))
+					accepted.add(sample);
+			}
+			return accepted;
+		}, executor);
 	}
 }
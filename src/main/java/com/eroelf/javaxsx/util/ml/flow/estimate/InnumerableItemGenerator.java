@@ -1,8 +1,17 @@
 package com.eroelf.javaxsx.util.ml.flow.estimate;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
+import com.eroelf.javaxsx.util.Futures;
 import com.eroelf.javaxsx.util.ml.feature.BatchSample;
 import com.eroelf.javaxsx.util.ml.feature.BatchScoreableRestrictedBatchSample;
 import com.eroelf.javaxsx.util.ml.feature.Item;
@@ -11,6 +20,7 @@ import com.eroelf.javaxsx.util.ml.feature.UpdatableByItem;
 import com.eroelf.javaxsx.util.ml.feature.score.Scorer;
 import com.eroelf.javaxsx.util.ml.feature.strategy.Strategy;
 import com.eroelf.javaxsx.util.ml.flow.controller.InnumerableFlowHandler;
+import com.eroelf.javaxsx.util.ml.flow.controller.ScoringStage;
 import com.eroelf.javaxsx.util.ml.flow.controller.filter.ItemFilter;
 import com.eroelf.javaxsx.util.ml.flow.controller.filter.ItemFilterHandler;
 import com.eroelf.javaxsx.util.ml.flow.controller.filter.NaiveItemFilterHandler;
@@ -71,6 +81,61 @@ public abstract class InnumerableItemGenerator<T extends Item & UpdatableByItem<
 			saveToExisted(item);
 	}
 
+	/**
+	 * Indicates whether the {@link #updateAll(List) updateAll} method can be called by multiple threads concurrently.
+	 * If {@code true}, concurrently running {@link Strategy}s merge their generated {@link Item} objects on their own threads, otherwise all merging happens on the caller thread.
+	 * Returns {@code false} by default.
+	 * 
+	 * @return {@code true} if updating is thread-safe, otherwise {@code false}.
+	 * @see StoredInnumerableItemGenerator
+	 */
+	protected boolean isUpdateThreadSafe()
+	{
+		return false;
+	}
+
+	/**
+	 * Updates a group of {@link Item} objects generated by one {@link Strategy} by the {@link #update(Item) update} method.
+	 * Implementations may reject the whole group if it arrives after the {@link #finishUpdate() finishUpdate} method was called.
+	 * 
+	 * @param items the {@link Item} objects generated by a certain {@link Strategy}.
+	 * @return {@code true} if updated, or {@code false} if rejected.
+	 */
+	protected boolean updateAll(List<T> items)
+	{
+		for(T item : items)
+		{
+			update(item);
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the function by which concurrently running {@link Strategy}s merge their generated {@link Item} objects when the {@link #isUpdateThreadSafe() isUpdateThreadSafe} method returns {@code true}.
+	 * It is obtained once per flow, just after the {@link #startUpdate() startUpdate} method, and must keep referring to the candidate set of that flow, so that a {@link Strategy} which outlives its flow can never merge into the candidate set of a later one.
+	 * Returns the {@link #updateAll(List) updateAll} method by default.
+	 * 
+	 * @return a function which merges a group of {@link Item} objects and returns {@code false} if it rejected them.
+	 */
+	protected Predicate<List<T>> getConcurrentUpdater()
+	{
+		return this::updateAll;
+	}
+
+	/**
+	 * This method will be called when a flow starts, before any {@link Strategy} runs.
+	 * Does nothing by default.
+	 */
+	protected void startUpdate()
+	{}
+
+	/**
+	 * This method will be called when all {@link Strategy} instances finished or timed out, just before the candidates are scored.
+	 * Does nothing by default.
+	 */
+	protected void finishUpdate()
+	{}
+
 	/**
 	 * Creates a specified filter handler for this generator to deal with {@link Item} objects with some filtering rules which has nothing to do with the flow handler returned by the {@link InnumerableItemGenerator#getFlowHandler() getFlowHandler} method.
 	 * Returns the {@link NaiveItemFilterHandler} instance by default.
@@ -119,34 +184,213 @@ public abstract class InnumerableItemGenerator<T extends Item & UpdatableByItem<
 		return IdleItemGroupStatistics.get();
 	}
 
+	/**
+	 * This method will be called if the given {@link Strategy} did not finish in its timeout when strategies run concurrently on the {@link InnumerableFlowHandler#getStrategyExecutor() strategy executor}, and its generated {@link Item} objects are discarded if they have not been merged yet.
+	 * Does nothing by default.
+	 * 
+	 * @param strategy the timed out {@link Strategy} instance.
+	 * @see InnumerableFlowHandler#getTimeout(Strategy, TimeUnit)
+	 */
+	protected void strategyTimedOut(Strategy<T> strategy)
+	{}
+
+	/**
+	 * Receives the {@link StageReport} of each stage when the flow handler provides preliminary {@link ScoringStage}s, including the final stage which runs the scorer of the flow handler.
+	 * Does nothing by default.
+	 * 
+	 * @param report the {@link StageReport} object of a finished stage.
+	 * @see InnumerableFlowHandler#getStages()
+	 */
+	protected void stageFinished(StageReport report)
+	{}
+
+	/**
+	 * Runs all {@link Strategy#generate(ItemFilter) generate} methods concurrently on the given strategy {@link Executor}, so that the latency approaches the slowest single {@link Strategy} instead of their sum.
+	 * If the {@link #isUpdateThreadSafe() isUpdateThreadSafe} method returns {@code true}, generated {@link Item} objects are merged on the {@link Strategy} threads, otherwise they are merged on the caller thread in the {@link Strategy} order so that no concurrent access to the candidate set happens.
+	 * If a {@link Deadline} is given, no {@link Strategy} is waited for beyond the time it is nearly spent.
+	 */
+	private void generateConcurrently(InnumerableFlowHandler<T> flowHandler, final ItemFilter<T> preFilter, Executor executor, Deadline deadline)
+	{
+		long startNano=System.nanoTime();
+		final Predicate<List<T>> updater=isUpdateThreadSafe() ? getConcurrentUpdater() : null;
+		List<Strategy<T>> strategies=flowHandler.getStrategies();
+		List<CompletableFuture<List<T>>> futures=new ArrayList<>(strategies.size());
+		for(final Strategy<T> strategy : strategies)
+		{
+			futures.add(CompletableFuture.supplyAsync(() -> {
+				List<T> items=strategy.generate(preFilter);
+				if(updater!=null && updater.test(items))
+					return Collections.<T>emptyList();
+				return items;
+			}, executor));
+		}
+		for(int i=0; i<strategies.size(); i++)
+		{
+			Strategy<T> strategy=strategies.get(i);
+			long timeoutNano=flowHandler.getTimeout(strategy, TimeUnit.NANOSECONDS);
+			List<T> items;
+			if(deadline!=null)
+			{
+				long cutoffNano=deadline.getCutoffNano();
+				items=Futures.join(futures.get(i), timeoutNano>0 && startNano+timeoutNano-cutoffNano<0 ? startNano+timeoutNano : cutoffNano);
+				if(items==null && deadline.isNearlySpent())
+					deadline.markTruncated();
+			}
+			else
+				items=timeoutNano>0 ? Futures.join(futures.get(i), startNano+timeoutNano) : Futures.join(futures.get(i));
+			if(items!=null)
+				updateAll(items);
+			else
+				strategyTimedOut(strategy);
+		}
+	}
+
 	@Override
 	public List<T> generate(List<T> destination)
+	{
+		return generate(destination, null);
+	}
+
+	@Override
+	public List<T> generate(List<T> destination, Deadline deadline)
 	{
 		int start=destination.size();
 
 		ItemFilterHandler<T> filterHandler=getFilterHandler();
-		ItemFilter<T> preFilter=filterHandler.getPreFilter();
-		ItemFilter<T> innerFilter=filterHandler.getInnerFilter();
+		ItemGroupStatistics<T> itemGroupStatistics=getItemGroupStatistics();
 
-		InnumerableFlowHandler<T> flowHandler=getFlowHandler();
-		Scorer scorer=flowHandler.getScorer();
+		run(filterHandler, itemGroupStatistics, destination::add, deadline, null);
 
-		for(Strategy<T> strategy : flowHandler.getStrategies())
+		itemGroupStatistics.computeStatistics(destination.subList(start, destination.size()));
+		ItemFilter<T> afterFilter=filterHandler.getAfterFilter(itemGroupStatistics);
+		if(afterFilter!=null)
 		{
-			for(T item : strategy.generate(preFilter))
+			Iterator<T> iter=destination.listIterator(start);
+			while(iter.hasNext())
 			{
-				update(item);
+				T item=iter.next();
+				if(!afterFilter.test(item))
+					iter.remove();
 			}
 		}
+		return destination;
+	}
+
+	/**
+	 * Runs the flow and generates only the best {@code k} {@link Item} objects, sorted best first.
+	 * If the filter handler returned by the {@link #getFilterHandler() getFilterHandler} method has no afterFilter, only {@code k} scored {@link Item} objects are retained during scoring and the {@link ItemGroupStatistics#computeStatistics(Iterable) computeStatistics} method sees only them.
+	 * In that case, if the {@code comparator} is {@code null} and the scorer of the flow handler is a {@link com.eroelf.javaxsx.util.ml.feature.score.PruningScorer PruningScorer}, the score of the K-th best retained object is passed to it, so that hopeless candidates are not fully scored, and neither inner-filtered nor counted by the {@link ItemGroupStatistics} object.
+	 * Otherwise all {@link Item} objects are retained so that the afterFilter works on the statistics of all of them, and the best {@code k} are selected after the afterFilter.
+	 */
+	@Override
+	public List<T> generateTopK(int k, Comparator<? super T> comparator)
+	{
+		return generateTopK(k, comparator, null);
+	}
+
+	@Override
+	public List<T> generateTopK(int k, Comparator<? super T> comparator, Deadline deadline)
+	{
+		ItemFilterHandler<T> filterHandler=getFilterHandler();
+		if(filterHandler.hasAfterFilter())
+			return TopKHeap.select(generate(deadline), k, comparator);
 
 		ItemGroupStatistics<T> itemGroupStatistics=getItemGroupStatistics();
+		TopKHeap<T> heap=new TopKHeap<>(k, comparator);
+		if(comparator==null)
+		{
+			ScoreThreshold threshold=new ScoreThreshold();
+			run(filterHandler, itemGroupStatistics, item -> threshold.offer(heap, item), deadline, threshold);
+		}
+		else
+			run(filterHandler, itemGroupStatistics, heap::offer, deadline, null);
+		List<T> res=heap.toSortedList();
+		itemGroupStatistics.computeStatistics(res);
+		return res;
+	}
+
+	/**
+	 * Generates candidates by all {@link Strategy} instances, then runs the preliminary {@link ScoringStage}s if any, scores and inner-filters the survivors, and passes every accepted {@link Item} object to the {@code sink}.
+	 * If a {@link Deadline} is given, no new {@link Strategy} is run and no new candidate is scored once it is nearly spent.
+	 */
+	private void run(ItemFilterHandler<T> filterHandler, ItemGroupStatistics<T> itemGroupStatistics, Consumer<? super T> sink, Deadline deadline, ScoreThreshold threshold)
+	{
+		ItemFilter<T> preFilter=filterHandler.getPreFilter();
+
+		InnumerableFlowHandler<T> flowHandler=getFlowHandler();
+		Scorer scorer=threshold!=null ? threshold.bind(flowHandler.getScorer()) : flowHandler.getScorer();
+		ItemFilter<T> innerFilter=threshold!=null ? threshold.bind(filterHandler.getInnerFilter(), flowHandler.getScorer()) : filterHandler.getInnerFilter();
+
+		startUpdate();
+		Executor strategyExecutor=flowHandler.getStrategyExecutor();
+		if(strategyExecutor!=null)
+			generateConcurrently(flowHandler, preFilter, strategyExecutor, deadline);
+		else
+		{
+			for(Strategy<T> strategy : flowHandler.getStrategies())
+			{
+				if(deadline!=null && deadline.checkNearlySpent())
+					break;
+				updateAll(strategy.generate(preFilter));
+			}
+		}
+		finishUpdate();
 
+		Executor executor=flowHandler.getExecutor();
 		int batchSize=flowHandler.getBatchSize();
+		int pipelineDepth=executor!=null ? flowHandler.getPipelineDepth() : 0;
+		List<ScoringStage> stages=flowHandler.getStages();
+		if(stages.isEmpty())
+		{
+			score(getCandidates(), innerFilter, scorer, itemGroupStatistics, batchSize, executor, pipelineDepth, sink, deadline);
+			return;
+		}
+
+		List<T> survivors=new ArrayList<>();
+		for(T item : getCandidates())
+		{
+			survivors.add(item);
+		}
+		survivors=Cascade.run(survivors, stages, this::createBatchSample, executor, this::stageFinished, deadline);
+
+		long startNano=System.nanoTime();
+		int[] outputNum=new int[1];
+		score(survivors, innerFilter, scorer, itemGroupStatistics, batchSize, executor, pipelineDepth, item -> {
+			++outputNum[0];
+			sink.accept(item);
+		}, deadline);
+		stageFinished(new StageReport(stages.size(), null, survivors.size(), outputNum[0], System.nanoTime()-startNano));
+	}
+
+	/**
+	 * Scores and inner-filters the candidates batch by batch.
+	 * If {@code pipelineDepth} is at least 2, filled batches are scored on the given {@link Executor} while the caller thread fills the next batch and merges the scored ones in the candidates order.
+	 */
+	private void score(Iterable<T> candidates, ItemFilter<T> innerFilter, Scorer scorer, ItemGroupStatistics<T> itemGroupStatistics, int batchSize, Executor executor, int pipelineDepth, Consumer<? super T> sink, Deadline deadline)
+	{
+		if(pipelineDepth>1)
+		{
+			Pipeline<T> pipeline=new Pipeline<>(pipelineDepth, batchSize, this::createBatchSample, scorer, innerFilter, executor, deadline, sample -> {
+				itemGroupStatistics.increaseStatistics(sample);
+				verbose(sample);
+				sink.accept(sample);
+			});
+			for(T item : candidates)
+			{
+				if(deadline!=null && deadline.checkNearlySpent())
+					break;
+				pipeline.add(item);
+			}
+			pipeline.finish();
+			return;
+		}
 		BatchScoreableRestrictedBatchSample<T> batchSample=createBatchSample(batchSize);
 		int currSize;
 		boolean needScore=false;
-		for(T item : getCandidates())
+		for(T item : candidates)
 		{
+			if(deadline!=null && deadline.checkNearlySpent())
+				break;
 			currSize=batchSample.add(item);
 			needScore=true;
 			if(currSize==batchSize)
@@ -159,7 +403,7 @@ public abstract class InnumerableItemGenerator<T extends Item & UpdatableByItem<
 					{
 						itemGroupStatistics.increaseStatistics(sample);
 						verbose(sample);
-						destination.add(sample);
+						sink.accept(sample);
 					}
 				}
 			}
@@ -174,23 +418,9 @@ public abstract class InnumerableItemGenerator<T extends Item & UpdatableByItem<
 				{
 					itemGroupStatistics.increaseStatistics(sample);
 					verbose(sample);
-					destination.add(sample);
+					sink.accept(sample);
 				}
 			}
 		}
-
-		itemGroupStatistics.computeStatistics(destination.subList(start, destination.size()));
-		ItemFilter<T> afterFilter=filterHandler.getAfterFilter(itemGroupStatistics);
-		if(afterFilter!=null)
-		{
-			Iterator<T> iter=destination.listIterator(start);
-			while(iter.hasNext())
-			{
-				T item=iter.next();
-				if(!afterFilter.test(item))
-					iter.remove();
-			}
-		}
-		return destination;
 	}
 }
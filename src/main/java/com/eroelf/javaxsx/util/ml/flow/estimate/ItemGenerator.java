@@ -1,6 +1,7 @@
 package com.eroelf.javaxsx.util.ml.flow.estimate;
 
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 
 import com.eroelf.javaxsx.util.ml.feature.Item;
@@ -32,4 +33,71 @@ public interface ItemGenerator<T extends Item>
 	{
 		return generate(new ArrayList<>());
 	}
+
+	/**
+	 * Runs the flow in the given time budget and generates {@link Item} objects without sorting.
+	 * Once the budget is nearly spent, no new candidate is taken while the in-flight batch is still scored and the afterFilter still runs, and the {@code deadline} is flagged as {@link Deadline#isTruncated() truncated}.
+	 * The default implementation ignores the {@code deadline}.
+	 * 
+	 * @param destination a {@link Item} {@link List} to which the generated objects are added.
+	 * @param deadline the {@link Deadline} of this invocation, or {@code null} for no time limit.
+	 * @return the input {@link Item} {@link List} with the generated objects appended.
+	 */
+	default public List<T> generate(List<T> destination, Deadline deadline)
+	{
+		return generate(destination);
+	}
+
+	/**
+	 * Runs the flow in the given time budget and generates {@link Item} objects without sorting.
+	 * 
+	 * @param deadline the {@link Deadline} of this invocation, or {@code null} for no time limit.
+	 * @return a new {@link Item} {@link List} contains the generated objects.
+	 * @see #generate(List, Deadline)
+	 */
+	default public List<T> generate(Deadline deadline)
+	{
+		return generate(new ArrayList<>(), deadline);
+	}
+
+	/**
+	 * Runs the flow and generates only the best {@code k} {@link Item} objects, sorted best first.
+	 * The default implementation generates all objects and selects from them by a {@link TopKHeap}.
+	 * 
+	 * @param k the maximum number of generated objects.
+	 * @param comparator the {@link Comparator} which orders the best object first, or {@code null} to rank objects by their scores in descending order.
+	 * @return a new {@link Item} {@link List} contains the generated objects, best first.
+	 * @see TopKHeap
+	 */
+	default public List<T> generateTopK(int k, Comparator<? super T> comparator)
+	{
+		return TopKHeap.select(generate(), k, comparator);
+	}
+
+	/**
+	 * Runs the flow in the given time budget and generates only the best {@code k} {@link Item} objects, sorted best first.
+	 * The default implementation generates all objects in the budget and selects from them by a {@link TopKHeap}.
+	 * 
+	 * @param k the maximum number of generated objects.
+	 * @param comparator the {@link Comparator} which orders the best object first, or {@code null} to rank objects by their scores in descending order.
+	 * @param deadline the {@link Deadline} of this invocation, or {@code null} for no time limit.
+	 * @return a new {@link Item} {@link List} contains the generated objects, best first.
+	 * @see #generate(List, Deadline)
+	 */
+	default public List<T> generateTopK(int k, Comparator<? super T> comparator, Deadline deadline)
+	{
+		return TopKHeap.select(generate(deadline), k, comparator);
+	}
+
+	/**
+	 * Runs the flow and generates only the {@code k} {@link Item} objects with the highest scores, sorted by their scores in descending order.
+	 * 
+	 * @param k the maximum number of generated objects.
+	 * @return a new {@link Item} {@link List} contains the generated objects, best first.
+	 * @see #generateTopK(int, Comparator)
+	 */
+	default public List<T> generateTopK(int k)
+	{
+		return generateTopK(k, null);
+	}
 }
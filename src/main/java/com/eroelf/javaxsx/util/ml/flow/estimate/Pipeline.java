@@ -0,0 +1,149 @@
+package com.eroelf.javaxsx.util.ml.flow.estimate;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+import com.eroelf.javaxsx.util.Futures;
+import com.eroelf.javaxsx.util.ml.feature.BatchScoreableRestrictedBatchSample;
+import com.eroelf.javaxsx.util.ml.feature.Item;
+import com.eroelf.javaxsx.util.ml.feature.score.Scorer;
+import com.eroelf.javaxsx.util.ml.flow.controller.ExecutorHandler;
+import com.eroelf.javaxsx.util.ml.flow.controller.filter.ItemFilter;
+
+/**
+ * Scores batches of {@link Item} objects on an {@link Executor} while the caller thread keeps filling the next batch, with a fixed number of reused {@link BatchScoreableRestrictedBatchSample} buffers.
+ * Scored batches are inner-filtered and passed to the {@code accepted} consumer on the caller thread in the order they were added.
+ * If a {@link Deadline} is given, a batch is not scored if it has expired when the scoring task starts, and a batch is waited for only until it expires, after which it is dropped and its buffer is replaced by a new one since the late task may still be using it.
+ *
+ * @author weikun.zhong
+ * @see ExecutorHandler#getPipelineDepth()
+ */
+final class Pipeline<T extends Item>
+{
+	private static final class InFlight<T extends Item>
+	{
+		private final BatchScoreableRestrictedBatchSample<T> batchSample;
+		private final CompletableFuture<Boolean> future;
+
+		private InFlight(BatchScoreableRestrictedBatchSample<T> batchSample, CompletableFuture<Boolean> future)
+		{
+			this.batchSample=batchSample;
+			this.future=future;
+		}
+	}
+
+	private final int batchSize;
+	private final Scorer scorer;
+	private final ItemFilter<T> innerFilter;
+	private final Executor executor;
+	private final Deadline deadline;
+	private final IntFunction<BatchScoreableRestrictedBatchSample<T>> batchFactory;
+	private final Consumer<? super T> accepted;
+	private final ArrayDeque<BatchScoreableRestrictedBatchSample<T>> free;
+	private final ArrayDeque<InFlight<T>> inFlight;
+	private BatchScoreableRestrictedBatchSample<T> filling=null;
+	private int fillingSize=0;
+
+	/**
+	 * @param depth the number of buffers, at least 2.
+	 * @param batchSize the batch size.
+	 * @param batchFactory creates the {@link BatchScoreableRestrictedBatchSample} buffers of the given batch size.
+	 * @param scorer the {@link Scorer} to score the batches.
+	 * @param innerFilter the inner filter applied to the scored {@link Item} objects.
+	 * @param executor the {@link Executor} on which batches are scored.
+	 * @param deadline the {@link Deadline} of the flow, or {@code null} for no time limit.
+	 * @param accepted receives the scored {@link Item} objects accepted by the {@code innerFilter}.
+	 */
+	Pipeline(int depth, int batchSize, IntFunction<BatchScoreableRestrictedBatchSample<T>> batchFactory, Scorer scorer, ItemFilter<T> innerFilter, Executor executor, Deadline deadline, Consumer<? super T> accepted)
+	{
+		this.batchSize=batchSize;
+		this.scorer=scorer;
+		this.innerFilter=innerFilter;
+		this.executor=executor;
+		this.deadline=deadline;
+		this.batchFactory=batchFactory;
+		this.accepted=accepted;
+		depth=Math.max(depth, 2);
+		free=new ArrayDeque<>(depth);
+		inFlight=new ArrayDeque<>(depth);
+		for(int i=0; i<depth; i++)
+		{
+			free.add(batchFactory.apply(batchSize));
+		}
+	}
+
+	/**
+	 * Adds an {@link Item} object to the batch being filled, and submits the batch for scoring once it is full.
+	 * Waits for the oldest scoring batch only if all buffers are in use.
+	 */
+	void add(T item)
+	{
+		if(filling==null)
+		{
+			while(free.isEmpty())
+			{
+				drainOldest();
+			}
+			filling=free.poll();
+			fillingSize=0;
+		}
+		fillingSize=filling.add(item);
+		if(fillingSize==batchSize)
+			submit();
+	}
+
+	/**
+	 * Submits the partially filled batch if any, and waits for all submitted batches, but not beyond the {@link Deadline} if any.
+	 */
+	void finish()
+	{
+		if(filling!=null && fillingSize>0)
+			submit();
+		while(!inFlight.isEmpty())
+		{
+			drainOldest();
+		}
+	}
+
+	private void submit()
+	{
+		final BatchScoreableRestrictedBatchSample<T> batchSample=filling;
+		filling=null;
+		inFlight.add(new InFlight<>(batchSample, CompletableFuture.supplyAsync(() -> {
+			if(deadline!=null && deadline.isExpired())
+				return false;
+			batchSample.scoreBy(scorer);
+			return true;
+		}, executor)));
+		while(!inFlight.isEmpty() && inFlight.peek().future.isDone())
+		{
+			drainOldest();
+		}
+	}
+
+	private void drainOldest()
+	{
+		InFlight<T> oldest=inFlight.poll();
+		Boolean scored=deadline!=null ? Futures.join(oldest.future, deadline.getDeadlineNano()) : Futures.join(oldest.future);
+		if(scored==null)
+		{
+			deadline.markTruncated();
+			free.add(batchFactory.apply(batchSize));
+			return;
+		}
+		if(scored)
+		{
+			for(T sample : oldest.batchSample)
+			{
+				if(innerFilter.test(sample))
+					accepted.accept(sample);
+			}
+		}
+		else
+			deadline.markTruncated();
+		free.add(oldest.batchSample);
+	}
+}
@@ -0,0 +1,60 @@
+package com.eroelf.javaxsx.util.ml.flow.estimate;
+
+import com.eroelf.javaxsx.util.ml.feature.Item;
+import com.eroelf.javaxsx.util.ml.feature.score.PruningScorer;
+import com.eroelf.javaxsx.util.ml.feature.score.Scoreable;
+import com.eroelf.javaxsx.util.ml.feature.score.Scorer;
+import com.eroelf.javaxsx.util.ml.flow.controller.filter.ItemFilter;
+
+/**
+ * Publishes the threshold of a {@link TopKHeap} owned by the caller thread of a top-K generation to the scoring threads, so that a {@link PruningScorer} can give up hopeless candidates.
+ * Only the caller thread raises the threshold, and a scoring thread reading a stale, thus lower, threshold only prunes less.
+ *
+ * @author weikun.zhong
+ */
+final class ScoreThreshold
+{
+	private volatile double threshold=Double.NEGATIVE_INFINITY;
+
+	/**
+	 * Offers the given object to the given heap, and publishes the new threshold of the heap if the object is retained.
+	 *
+	 * @return {@code true} if the object is retained, otherwise {@code false}.
+	 */
+	<T extends Scoreable> boolean offer(TopKHeap<T> heap, T item)
+	{
+		if(heap.offer(item))
+		{
+			if(heap.isFull())
+				threshold=heap.threshold();
+			return true;
+		}
+		return false;
+	}
+
+	double get()
+	{
+		return threshold;
+	}
+
+	/**
+	 * @return a {@link Scorer} which passes the published threshold to the given {@link Scorer} if it is a {@link PruningScorer}, otherwise the given {@link Scorer} itself.
+	 */
+	Scorer bind(Scorer scorer)
+	{
+		if(!(scorer instanceof PruningScorer))
+			return scorer;
+		final PruningScorer pruningScorer=(PruningScorer)scorer;
+		return scoreable -> pruningScorer.score(scoreable, threshold);
+	}
+
+	/**
+	 * @return an {@link ItemFilter} which rejects the {@link Item} objects given up by the given {@link Scorer} before testing them by the given {@code innerFilter} if the {@link Scorer} is a {@link PruningScorer}, otherwise the given {@code innerFilter} itself.
+	 */
+	<T extends Item> ItemFilter<T> bind(ItemFilter<T> innerFilter, Scorer scorer)
+	{
+		if(!(scorer instanceof PruningScorer))
+			return innerFilter;
+		return item -> item.score!=PruningScorer.PRUNED && innerFilter.test(item);
+	}
+}
@@ -0,0 +1,68 @@
+package com.eroelf.javaxsx.util.ml.flow.estimate;
+
+import com.eroelf.javaxsx.util.ml.flow.controller.ScoringStage;
+
+/**
+ * Reports the {@link com.eroelf.javaxsx.util.ml.feature.Item Item} counts and the elapsed time of one stage of a cascade modeling and scoring flow.
+ * 
+ * @author weikun.zhong
+ */
+public class StageReport
+{
+	private final int stageIdx;
+	private final ScoringStage stage;
+	private final int inputNum;
+	private final int outputNum;
+	private final long elapsedNano;
+
+	public StageReport(int stageIdx, ScoringStage stage, int inputNum, int outputNum, long elapsedNano)
+	{
+		this.stageIdx=stageIdx;
+		this.stage=stage;
+		this.inputNum=inputNum;
+		this.outputNum=outputNum;
+		this.elapsedNano=elapsedNano;
+	}
+
+	/**
+	 * @return the index of the stage in the flow, where the final stage of the flow takes the index right after all the preliminary ones.
+	 */
+	public int getStageIdx()
+	{
+		return stageIdx;
+	}
+
+	/**
+	 * @return the {@link ScoringStage} object, or {@code null} for the final stage which runs the modeler and scorer of the flow handler.
+	 */
+	public ScoringStage getStage()
+	{
+		return stage;
+	}
+
+	public boolean isFinalStage()
+	{
+		return stage==null;
+	}
+
+	public int getInputNum()
+	{
+		return inputNum;
+	}
+
+	public int getOutputNum()
+	{
+		return outputNum;
+	}
+
+	public long getElapsedNano()
+	{
+		return elapsedNano;
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("stage %d%s: %d -> %d in %.3f ms", stageIdx, stage==null ? " (final)" : "", inputNum, outputNum, elapsedNano/1e6);
+	}
+}
@@ -0,0 +1,90 @@
+package com.eroelf.javaxsx.util.ml.flow.estimate;
+
+import java.util.List;
+import java.util.function.Predicate;
+
+import com.eroelf.javaxsx.util.ml.feature.Item;
+import com.eroelf.javaxsx.util.ml.feature.UpdatableByItem;
+import com.eroelf.javaxsx.util.ml.feature.strategy.Strategy;
+
+/**
+ * An {@link InnumerableItemGenerator} whose candidate set is a {@link CandidateStore}, so subclasses need not implement their own deduplication.
+ * Updating is thread-safe, thus concurrently running {@link Strategy}s merge their generated {@link Item} objects by themselves.
+ *
+ * @author weikun.zhong
+ *
+ * @param <T> the type of the generated {@link Item} objects.
+ */
+public abstract class StoredInnumerableItemGenerator<T extends Item & UpdatableByItem<T>> extends InnumerableItemGenerator<T>
+{
+	private CandidateStore<T> candidateStore;
+
+	/**
+	 * Creates a new {@link CandidateStore} object for each flow, i.e. each {@link #generate(List) generate} or {@link #generateTopK(int, java.util.Comparator) generateTopK} invocation.
+	 *
+	 * @return a {@link CandidateStore} object.
+	 */
+	protected abstract CandidateStore<T> createCandidateStore();
+
+	protected CandidateStore<T> getCandidateStore()
+	{
+		return candidateStore;
+	}
+
+	@Override
+	protected T findExistedItem(T item)
+	{
+		return candidateStore.get(item);
+	}
+
+	@Override
+	protected void saveToExisted(T item)
+	{
+		candidateStore.merge(item);
+	}
+
+	@Override
+	protected void update(T item)
+	{
+		candidateStore.merge(item);
+	}
+
+	@Override
+	protected boolean isUpdateThreadSafe()
+	{
+		return true;
+	}
+
+	@Override
+	protected boolean updateAll(List<T> items)
+	{
+		return candidateStore.mergeAll(items);
+	}
+
+	/**
+	 * Binds the {@link CandidateStore} object of the current flow, which is sealed when the flow stops waiting, so that a late {@link Strategy} is rejected by it instead of merging into the {@link CandidateStore} object of the next flow.
+	 */
+	@Override
+	protected Predicate<List<T>> getConcurrentUpdater()
+	{
+		return candidateStore::mergeAll;
+	}
+
+	@Override
+	protected void startUpdate()
+	{
+		candidateStore=createCandidateStore();
+	}
+
+	@Override
+	protected void finishUpdate()
+	{
+		candidateStore.seal();
+	}
+
+	@Override
+	protected Iterable<T> getCandidates()
+	{
+		return candidateStore;
+	}
+}
@@ -0,0 +1,207 @@
+package com.eroelf.javaxsx.util.ml.flow.estimate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import com.eroelf.javaxsx.util.ml.feature.score.Scoreable;
+
+/**
+ * A bounded heap which retains the best {@code k} {@link Scoreable} objects offered to it, with O(k) memory and O(log k) work per offer.
+ * Its arrays grow with the number of retained objects up to {@code k}, so a large {@code k} costs nothing until that many objects are offered.
+ * Without a {@link Comparator}, objects are ranked by their primitive {@link Scoreable#score score} fields in descending order and {@code NaN} scores are regarded as negative infinity, avoiding the {@link Scoreable#compareTo(Scoreable) compareTo} calls.
+ * On ties, the earlier offered object is retained.
+ *
+ * @author weikun.zhong
+ *
+ * @param <T> the type of the {@link Scoreable} objects.
+ */
+public class TopKHeap<T extends Scoreable>
+{
+	private static final int INITIAL_CAPACITY=16;
+
+	private final int k;
+	private final Comparator<? super T> comparator;
+	private Object[] items;
+	private double[] keys;
+	private int size=0;
+
+	/**
+	 * @param k the maximum number of retained objects.
+	 * @param comparator the {@link Comparator} which orders the best object first, or {@code null} to rank objects by their scores.
+	 */
+	public TopKHeap(int k, Comparator<? super T> comparator)
+	{
+		if(k<0)
+			throw new IllegalArgumentException("TopKHeap::TopKHeap: k must not be negative!");
+		this.k=k;
+		this.comparator=comparator;
+		int capacity=Math.min(k, INITIAL_CAPACITY);
+		items=new Object[capacity];
+		keys=comparator==null ? new double[capacity] : null;
+	}
+
+	private static double key(double score)
+	{
+		return Double.isNaN(score) ? Double.NEGATIVE_INFINITY : score;
+	}
+
+	@SuppressWarnings("unchecked")
+	private boolean worse(int i, int j)
+	{
+		if(comparator==null)
+			return keys[i]<keys[j];
+		else
+			return comparator.compare((T)items[i], (T)items[j])>0;
+	}
+
+	/**
+	 * Offers an object to this heap.
+	 *
+	 * @param item the offered object.
+	 * @return {@code true} if the object is retained, otherwise {@code false}.
+	 */
+	@SuppressWarnings("unchecked")
+	public boolean offer(T item)
+	{
+		if(size<k)
+		{
+			if(size==items.length)
+				grow();
+			items[size]=item;
+			if(keys!=null)
+				keys[size]=key(item.score);
+			siftUp(size++);
+			return true;
+		}
+		else if(k>0)
+		{
+			boolean better=comparator==null ? key(item.score)>keys[0] : comparator.compare(item, (T)items[0])<0;
+			if(better)
+			{
+				items[0]=item;
+				if(keys!=null)
+					keys[0]=key(item.score);
+				siftDown(0);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void grow()
+	{
+		int capacity=(int)Math.min((long)items.length<<1, k);
+		items=Arrays.copyOf(items, capacity);
+		if(keys!=null)
+			keys=Arrays.copyOf(keys, capacity);
+	}
+
+	/**
+	 * Tells the score the K-th best retained object has, which is the minimum score a new object needs to be retained when ranking by scores.
+	 *
+	 * @return the score of the worst retained object if this heap is full, otherwise {@link Double#NEGATIVE_INFINITY}, or {@link Double#POSITIVE_INFINITY} if {@code k} is {@code 0}.
+	 */
+	public double threshold()
+	{
+		if(size<k || k==0)
+			return k==0 ? Double.POSITIVE_INFINITY : Double.NEGATIVE_INFINITY;
+		return keys!=null ? keys[0] : key(((Scoreable)items[0]).score);
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public boolean isFull()
+	{
+		return size==k;
+	}
+
+	/**
+	 * @return a new list contains the retained objects, best first.
+	 */
+	@SuppressWarnings("unchecked")
+	public List<T> toSortedList()
+	{
+		List<T> list=new ArrayList<>(size);
+		for(int i=0; i<size; i++)
+		{
+			list.add((T)items[i]);
+		}
+		if(comparator!=null)
+			list.sort(comparator);
+		else
+			list.sort((o1, o2) -> Double.compare(key(o2.score), key(o1.score)));
+		return list;
+	}
+
+	/**
+	 * Selects the best {@code k} objects from the given objects.
+	 *
+	 * @param items the objects to select from.
+	 * @param k the maximum number of selected objects.
+	 * @param comparator the {@link Comparator} which orders the best object first, or {@code null} to rank objects by their scores.
+	 * @return a new list contains the selected objects, best first.
+	 */
+	public static <U extends Scoreable> List<U> select(Iterable<U> items, int k, Comparator<? super U> comparator)
+	{
+		TopKHeap<U> heap=new TopKHeap<>(k, comparator);
+		for(U item : items)
+		{
+			heap.offer(item);
+		}
+		return heap.toSortedList();
+	}
+
+	private void siftUp(int i)
+	{
+		while(i>0)
+		{
+			int parent=(i-1)>>>1;
+			if(worse(i, parent))
+			{
+				swap(i, parent);
+				i=parent;
+			}
+			else
+				break;
+		}
+	}
+
+	private void siftDown(int i)
+	{
+		while(true)
+		{
+			int left=(i<<1)+1;
+			if(left>=size)
+				break;
+			int worst=left;
+			int right=left+1;
+			if(right<size && worse(right, left))
+				worst=right;
+			if(worse(worst, i))
+			{
+				swap(i, worst);
+				i=worst;
+			}
+			else
+				break;
+		}
+	}
+
+	private void swap(int i, int j)
+	{
+		Object item=items[i];
+		items[i]=items[j];
+		items[j]=item;
+		if(keys!=null)
+		{
+			double key=keys[i];
+			keys[i]=keys[j];
+			keys[j]=key;
+		}
+	}
+}
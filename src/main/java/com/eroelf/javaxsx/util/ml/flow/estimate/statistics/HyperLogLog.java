@@ -0,0 +1,108 @@
+package com.eroelf.javaxsx.util.ml.flow.estimate.statistics;
+
+/**
+ * A HyperLogLog sketch estimating the number of distinct {@code long} values in a stream.
+ * The relative standard error is about {@code 1.04/sqrt(2^precision)}, taking {@code 2^precision} bytes.
+ *
+ * An instance is not thread-safe. Fill one instance per thread and {@link #merge(HyperLogLog) merge} them instead.
+ *
+ * @author weikun.zhong
+ */
+public class HyperLogLog
+{
+	private final int precision;
+	private final byte[] registers;
+
+	/**
+	 * @param precision the number of index bits, in {@code [4, 18]}.
+	 */
+	public HyperLogLog(int precision)
+	{
+		if(precision<4 || precision>18)
+			throw new IllegalArgumentException("HyperLogLog::HyperLogLog: precision must be in [4, 18]!");
+		this.precision=precision;
+		registers=new byte[1<<precision];
+	}
+
+	private static long fmix64(long h)
+	{
+		h^=h>>>33;
+		h*=0xff51afd7ed558ccdL;
+		h^=h>>>33;
+		h*=0xc4ceb9fe1a85ec53L;
+		h^=h>>>33;
+		return h;
+	}
+
+	/**
+	 * Adds a value. The value is mixed before use, so raw ids or hash codes can be added directly.
+	 *
+	 * @param value the value.
+	 */
+	public void add(long value)
+	{
+		long hash=fmix64(value);
+		int idx=(int)(hash>>>(64-precision));
+		int rho=Long.numberOfLeadingZeros((hash<<precision)|(1L<<(precision-1)))+1;
+		if(rho>registers[idx])
+			registers[idx]=(byte)rho;
+	}
+
+	/**
+	 * Merges another sketch of the same precision into this one. The other sketch is not changed.
+	 *
+	 * @param other the other sketch.
+	 * @return this object.
+	 */
+	public HyperLogLog merge(HyperLogLog other)
+	{
+		if(other.precision!=precision)
+			throw new IllegalArgumentException("HyperLogLog::merge: inconsistent precisions!");
+		for(int i=0; i<registers.length; i++)
+		{
+			if(other.registers[i]>registers[i])
+				registers[i]=other.registers[i];
+		}
+		return this;
+	}
+
+	/**
+	 * @return the estimated number of distinct values.
+	 */
+	public long estimate()
+	{
+		int m=registers.length;
+		double sum=0;
+		int zeros=0;
+		for(byte register : registers)
+		{
+			sum+=Double.longBitsToDouble((1023L-register)<<52);
+			if(register==0)
+				++zeros;
+		}
+		double alpha;
+		switch(m)
+		{
+		case 16:
+			alpha=0.673;
+			break;
+		case 32:
+			alpha=0.697;
+			break;
+		case 64:
+			alpha=0.709;
+			break;
+		default:
+			alpha=0.7213/(1+1.079/m);
+		}
+		double estimate=alpha*m*m/sum;
+		if(estimate<=2.5*m && zeros>0)
+			estimate=m*Math.log((double)m/zeros);
+		return Math.round(estimate);
+	}
+
+	public int getPrecision()
+	{
+		return precision;
+	}
+}
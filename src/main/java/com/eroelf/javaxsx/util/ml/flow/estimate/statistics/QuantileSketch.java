@@ -0,0 +1,314 @@
+package com.eroelf.javaxsx.util.ml.flow.estimate.statistics;
+
+import java.util.Arrays;
+
+/**
+ * A KLL quantile sketch of a stream of {@code double} values.
+ * Values are kept in levels, where a value at level {@code h} stands for {@code 2^h} original values, and a full level is sorted and half of it, every other value from a random offset, is promoted to the next level.
+ * The rank error is about {@code 1.7/k} with high probability, taking {@code O(k)} memory however many values are seen.
+ *
+ * An instance is not thread-safe. Fill one instance per thread and {@link #merge(QuantileSketch) merge} them instead.
+ *
+ * @author weikun.zhong
+ */
+public class QuantileSketch
+{
+	private static final int MIN_CAPACITY=8;
+
+	private final int k;
+	private double[][] levels;
+	private int[] sizes;
+	private int levelNum;
+	private int retainedNum;
+	private int totalCapacity;
+	private long n;
+	private double min=Double.NaN;
+	private double max=Double.NaN;
+	private long seed;
+
+	private double[] sortedValues;
+	private long[] sortedRanks;
+
+	/**
+	 * @param k the accuracy parameter, at least 8.
+	 */
+	public QuantileSketch(int k)
+	{
+		if(k<MIN_CAPACITY)
+			throw new IllegalArgumentException("QuantileSketch::QuantileSketch: k must be at least "+MIN_CAPACITY+"!");
+		this.k=k;
+		levels=new double[4][];
+		sizes=new int[4];
+		levels[0]=new double[k];
+		levelNum=1;
+		totalCapacity=computeTotalCapacity();
+		seed=0x9E3779B97F4A7C15L^k;
+	}
+
+	/**
+	 * Creates a sketch with {@code k=200}, whose rank error is about 1%.
+	 */
+	public QuantileSketch()
+	{
+		this(200);
+	}
+
+	private int capacity(int h)
+	{
+		return Math.max(MIN_CAPACITY, (int)Math.ceil(k*Math.pow(2.0/3, levelNum-1-h)));
+	}
+
+	private boolean nextBit()
+	{
+		seed^=seed<<13;
+		seed^=seed>>>7;
+		seed^=seed<<17;
+		return (seed&1)!=0;
+	}
+
+	private void append(int h, double value)
+	{
+		if(sizes[h]==levels[h].length)
+			levels[h]=Arrays.copyOf(levels[h], Math.max(levels[h].length*2, MIN_CAPACITY));
+		levels[h][sizes[h]++]=value;
+		++retainedNum;
+	}
+
+	private void addLevel()
+	{
+		if(levelNum==levels.length)
+		{
+			levels=Arrays.copyOf(levels, levelNum*2);
+			sizes=Arrays.copyOf(sizes, levelNum*2);
+		}
+		levels[levelNum]=new double[MIN_CAPACITY];
+		sizes[levelNum]=0;
+		++levelNum;
+		totalCapacity=computeTotalCapacity();
+	}
+
+	private int computeTotalCapacity()
+	{
+		int total=0;
+		for(int h=0; h<levelNum; h++)
+		{
+			total+=capacity(h);
+		}
+		return total;
+	}
+
+	/**
+	 * Compacts the lowest full level until the retained values fit the total capacity, so that the lower levels buffer as many values as possible.
+	 */
+	private void compress()
+	{
+		while(retainedNum>=totalCapacity)
+		{
+			int h=0;
+			while(sizes[h]<capacity(h))
+			{
+				++h;
+			}
+			if(h+1==levelNum)
+				addLevel();
+			double[] level=levels[h];
+			int size=sizes[h];
+			Arrays.sort(level, 0, size);
+			int even=size&~1;
+			for(int i=nextBit() ? 1 : 0; i<even; i+=2)
+			{
+				append(h+1, level[i]);
+			}
+			if(size!=even)
+			{
+				level[0]=level[size-1];
+				sizes[h]=1;
+			}
+			else
+				sizes[h]=0;
+			retainedNum-=even;
+		}
+	}
+
+	/**
+	 * Adds a value. {@code NaN} is ignored.
+	 *
+	 * @param value the value.
+	 */
+	public void update(double value)
+	{
+		if(Double.isNaN(value))
+			return;
+		if(n==0)
+		{
+			min=value;
+			max=value;
+		}
+		else if(value<min)
+			min=value;
+		else if(value>max)
+			max=value;
+		++n;
+		sortedValues=null;
+		append(0, value);
+		if(retainedNum>=totalCapacity)
+			compress();
+	}
+
+	/**
+	 * Merges another sketch into this one. The other sketch is not changed.
+	 *
+	 * @param other the other sketch.
+	 * @return this object.
+	 */
+	public QuantileSketch merge(QuantileSketch other)
+	{
+		if(other.n==0)
+			return this;
+		while(levelNum<other.levelNum)
+		{
+			addLevel();
+		}
+		for(int h=0; h<other.levelNum; h++)
+		{
+			for(int i=0; i<other.sizes[h]; i++)
+			{
+				append(h, other.levels[h][i]);
+			}
+		}
+		min=n==0 ? other.min : Math.min(min, other.min);
+		max=n==0 ? other.max : Math.max(max, other.max);
+		n+=other.n;
+		sortedValues=null;
+		compress();
+		return this;
+	}
+
+	private void sort()
+	{
+		if(sortedValues!=null)
+			return;
+		int total=retainedNum;
+		double[] values=new double[total];
+		long[] weights=new long[total];
+		double[] buffer=new double[total];
+		long[] bufferWeights=new long[total];
+		int size=0;
+		for(int h=0; h<levelNum; h++)
+		{
+			Arrays.sort(levels[h], 0, sizes[h]);
+			int i=0, j=0, m=0;
+			while(i<size || j<sizes[h])
+			{
+				if(j==sizes[h] || (i<size && values[i]<=levels[h][j]))
+				{
+					buffer[m]=values[i];
+					bufferWeights[m++]=weights[i++];
+				}
+				else
+				{
+					buffer[m]=levels[h][j++];
+					bufferWeights[m++]=1L<<h;
+				}
+			}
+			double[] t=values;
+			values=buffer;
+			buffer=t;
+			long[] tw=weights;
+			weights=bufferWeights;
+			bufferWeights=tw;
+			size=m;
+		}
+		long rank=0;
+		for(int i=0; i<size; i++)
+		{
+			rank+=weights[i];
+			weights[i]=rank;
+		}
+		sortedValues=values;
+		sortedRanks=weights;
+	}
+
+	/**
+	 * Estimates a quantile.
+	 *
+	 * @param q the normalized rank in {@code [0, 1]}.
+	 * @return the estimated value whose normalized rank is {@code q}, or {@code NaN} if no value has been added.
+	 */
+	public double getQuantile(double q)
+	{
+		if(!(q>=0 && q<=1))
+			throw new IllegalArgumentException("QuantileSketch::getQuantile: q must be in [0, 1]!");
+		if(n==0)
+			return Double.NaN;
+		if(q==0)
+			return min;
+		if(q==1)
+			return max;
+		sort();
+		double target=q*sortedRanks[sortedRanks.length-1];
+		int lo=0, hi=sortedRanks.length-1;
+		while(lo<hi)
+		{
+			int mid=(lo+hi)>>>1;
+			if(sortedRanks[mid]<target)
+				lo=mid+1;
+			else
+				hi=mid;
+		}
+		return sortedValues[lo];
+	}
+
+	/**
+	 * Estimates the normalized rank of a value.
+	 *
+	 * @param value the value.
+	 * @return the estimated fraction of the added values which are not greater than {@code value}, or {@code NaN} if no value has been added.
+	 */
+	public double getRank(double value)
+	{
+		if(n==0)
+			return Double.NaN;
+		if(value<min)
+			return 0;
+		if(value>=max)
+			return 1;
+		sort();
+		int lo=0, hi=sortedValues.length;
+		while(lo<hi)
+		{
+			int mid=(lo+hi)>>>1;
+			if(sortedValues[mid]<=value)
+				lo=mid+1;
+			else
+				hi=mid;
+		}
+		return lo==0 ? 0 : (double)sortedRanks[lo-1]/sortedRanks[sortedRanks.length-1];
+	}
+
+	/**
+	 * @return the number of added values.
+	 */
+	public long getN()
+	{
+		return n;
+	}
+
+	public double getMin()
+	{
+		return min;
+	}
+
+	public double getMax()
+	{
+		return max;
+	}
+
+	/**
+	 * @return the number of values retained by this sketch.
+	 */
+	public int getRetainedNum()
+	{
+		return retainedNum;
+	}
+}
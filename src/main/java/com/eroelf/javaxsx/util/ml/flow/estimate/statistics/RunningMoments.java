@@ -0,0 +1,106 @@
+package com.eroelf.javaxsx.util.ml.flow.estimate.statistics;
+
+/**
+ * Maintains the count, mean, variance, minimum and maximum of a stream of {@code double} values by Welford's algorithm, which is numerically stable in one pass.
+ *
+ * An instance is not thread-safe. Fill one instance per thread and {@link #merge(RunningMoments) merge} them instead.
+ *
+ * @author weikun.zhong
+ */
+public class RunningMoments
+{
+	private long count;
+	private double mean;
+	private double m2;
+	private double min=Double.NaN;
+	private double max=Double.NaN;
+
+	/**
+	 * Adds a value. {@code NaN} is ignored.
+	 *
+	 * @param value the value.
+	 */
+	public void add(double value)
+	{
+		if(Double.isNaN(value))
+			return;
+		++count;
+		double delta=value-mean;
+		mean+=delta/count;
+		m2+=delta*(value-mean);
+		if(count==1)
+		{
+			min=value;
+			max=value;
+		}
+		else if(value<min)
+			min=value;
+		else if(value>max)
+			max=value;
+	}
+
+	/**
+	 * Merges another instance into this one by Chan's formula. The other instance is not changed.
+	 *
+	 * @param other the other instance.
+	 * @return this object.
+	 */
+	public RunningMoments merge(RunningMoments other)
+	{
+		if(other.count==0)
+			return this;
+		if(count==0)
+		{
+			count=other.count;
+			mean=other.mean;
+			m2=other.m2;
+			min=other.min;
+			max=other.max;
+			return this;
+		}
+		long total=count+other.count;
+		double delta=other.mean-mean;
+		mean+=delta*other.count/total;
+		m2+=other.m2+delta*delta*((double)count*other.count/total);
+		count=total;
+		min=Math.min(min, other.min);
+		max=Math.max(max, other.max);
+		return this;
+	}
+
+	public long getCount()
+	{
+		return count;
+	}
+
+	/**
+	 * @return the mean, or {@code NaN} if no value has been added.
+	 */
+	public double getMean()
+	{
+		return count>0 ? mean : Double.NaN;
+	}
+
+	/**
+	 * @return the unbiased sample variance, or {@code NaN} if less than 2 values have been added.
+	 */
+	public double getVariance()
+	{
+		return count>1 ? m2/(count-1) : Double.NaN;
+	}
+
+	public double getStd()
+	{
+		return Math.sqrt(getVariance());
+	}
+
+	public double getMin()
+	{
+		return min;
+	}
+
+	public double getMax()
+	{
+		return max;
+	}
+}
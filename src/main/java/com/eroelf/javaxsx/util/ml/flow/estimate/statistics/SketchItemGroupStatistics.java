@@ -0,0 +1,190 @@
+package com.eroelf.javaxsx.util.ml.flow.estimate.statistics;
+
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+
+import com.eroelf.javaxsx.util.ml.feature.Item;
+
+/**
+ * An {@link ItemGroupStatistics} filled entirely by the {@link #increaseStatistics(Item) increaseStatistics} method during scoring, so that an afterFilter gets its thresholds with no extra pass over the candidates.
+ * It maintains a {@link QuantileSketch} and {@link RunningMoments} of a value of each {@link Item}, the score by default, and optionally a {@link HyperLogLog} of a category of each {@link Item}.
+ *
+ * An instance is not thread-safe. To fill statistics on multiple threads, fill an {@link #emptyCopy() emptyCopy} per thread and {@link #merge(SketchItemGroupStatistics) merge} them.
+ *
+ * @author weikun.zhong
+ *
+ * @param <T> the type of those {@link Item} objects whose data need to be calculated into the statistics.
+ */
+public class SketchItemGroupStatistics<T extends Item> extends ItemGroupStatistics<T>
+{
+	private final ToDoubleFunction<? super T> valueFunction;
+	private final Function<? super T, ?> categoryFunction;
+	private final int quantileK;
+	private final int distinctPrecision;
+	private final QuantileSketch quantiles;
+	private final RunningMoments moments=new RunningMoments();
+	private final HyperLogLog distinct;
+
+	/**
+	 * @param valueFunction gives the value of an {@link Item} whose quantiles and moments are maintained, where {@code NaN} values are ignored.
+	 * @param categoryFunction gives the category of an {@link Item} whose distinct count is maintained, or {@code null} to maintain no distinct count. {@code null} categories are ignored.
+	 * @param quantileK the accuracy parameter of the {@link QuantileSketch}.
+	 * @param distinctPrecision the precision of the {@link HyperLogLog}.
+	 */
+	public SketchItemGroupStatistics(ToDoubleFunction<? super T> valueFunction, Function<? super T, ?> categoryFunction, int quantileK, int distinctPrecision)
+	{
+		this.valueFunction=valueFunction;
+		this.categoryFunction=categoryFunction;
+		this.quantileK=quantileK;
+		this.distinctPrecision=distinctPrecision;
+		quantiles=new QuantileSketch(quantileK);
+		distinct=categoryFunction!=null ? new HyperLogLog(distinctPrecision) : null;
+	}
+
+	/**
+	 * Creates statistics with a {@link QuantileSketch} of about 1% rank error and a {@link HyperLogLog} of about 1.6% relative error.
+	 */
+	public SketchItemGroupStatistics(ToDoubleFunction<? super T> valueFunction, Function<? super T, ?> categoryFunction)
+	{
+		this(valueFunction, categoryFunction, 200, 12);
+	}
+
+	/**
+	 * Creates statistics of the scores with no distinct count.
+	 */
+	public SketchItemGroupStatistics()
+	{
+		this(item -> item.score, null);
+	}
+
+	/**
+	 * @return a new instance with the same configuration and no data.
+	 */
+	public SketchItemGroupStatistics<T> emptyCopy()
+	{
+		return new SketchItemGroupStatistics<>(valueFunction, categoryFunction, quantileK, distinctPrecision);
+	}
+
+	/**
+	 * Merges other statistics of the same configuration into this one.
+	 *
+	 * @param other the other statistics.
+	 * @return this object.
+	 */
+	public SketchItemGroupStatistics<T> merge(SketchItemGroupStatistics<? extends T> other)
+	{
+		if((distinct==null)!=(other.distinct==null))
+			throw new IllegalArgumentException("SketchItemGroupStatistics::merge: inconsistent configurations!");
+		quantiles.merge(other.quantiles);
+		moments.merge(other.moments);
+		if(distinct!=null)
+			distinct.merge(other.distinct);
+		return this;
+	}
+
+	private static long hash(Object category)
+	{
+		if(category instanceof Long || category instanceof Integer || category instanceof Short || category instanceof Byte)
+			return ((Number)category).longValue();
+		if(category instanceof CharSequence)
+		{
+			CharSequence s=(CharSequence)category;
+			long h=0xcbf29ce484222325L;
+			for(int i=0; i<s.length(); i++)
+			{
+				h=(h^s.charAt(i))*0x100000001b3L;
+			}
+			return h;
+		}
+		return category.hashCode();
+	}
+
+	@Override
+	public void increaseStatistics(T item)
+	{
+		double value=valueFunction.applyAsDouble(item);
+		quantiles.update(value);
+		moments.add(value);
+		if(distinct!=null)
+		{
+			Object category=categoryFunction.apply(item);
+			if(category!=null)
+				distinct.add(hash(category));
+		}
+	}
+
+	/**
+	 * Does nothing since all statistics are maintained by the {@link #increaseStatistics(Item) increaseStatistics} method.
+	 */
+	@Override
+	public void computeStatistics(Iterable<T> itemIter)
+	{
+		return;
+	}
+
+	/**
+	 * @param q the normalized rank in {@code [0, 1]}.
+	 * @return the estimated value whose normalized rank is {@code q}, e.g. {@code getQuantile(0.9)} gives a threshold above which about 10% of the values lie.
+	 */
+	public double getQuantile(double q)
+	{
+		return quantiles.getQuantile(q);
+	}
+
+	/**
+	 * @param value a value.
+	 * @return the estimated fraction of the values which are not greater than {@code value}.
+	 */
+	public double getRank(double value)
+	{
+		return quantiles.getRank(value);
+	}
+
+	/**
+	 * @return the estimated number of distinct categories, or {@code -1} if no category function is given.
+	 */
+	public long getDistinctCount()
+	{
+		return distinct!=null ? distinct.estimate() : -1;
+	}
+
+	public long getCount()
+	{
+		return moments.getCount();
+	}
+
+	public double getMean()
+	{
+		return moments.getMean();
+	}
+
+	public double getStd()
+	{
+		return moments.getStd();
+	}
+
+	public double getMin()
+	{
+		return moments.getMin();
+	}
+
+	public double getMax()
+	{
+		return moments.getMax();
+	}
+
+	public QuantileSketch getQuantileSketch()
+	{
+		return quantiles;
+	}
+
+	public RunningMoments getMoments()
+	{
+		return moments;
+	}
+
+	public HyperLogLog getDistinctSketch()
+	{
+		return distinct;
+	}
+}
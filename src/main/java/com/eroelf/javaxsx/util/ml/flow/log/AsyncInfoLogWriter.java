@@ -0,0 +1,463 @@
+package com.eroelf.javaxsx.util.ml.flow.log;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import com.eroelf.javaxsx.util.StdLoggers;
+import com.eroelf.javaxsx.util.io.Compressor.CompressorBuilder;
+import com.eroelf.javaxsx.util.io.StreamFactory;
+
+/**
+ * Writes {@link InfoLog} objects to rotating, optionally compressed, text files on a background thread, so that a request thread only pays for putting its logs into a bounded queue.
+ * The writer thread drains the queue in batches, serializes every {@link InfoLog} object into one line, and writes the lines through the compression stream given by {@link CompressorBuilder#setCompression(String)}.
+ * A file is rotated when it has received a given number of uncompressed bytes or has been open for a given period. When the queue is full, an {@link OverflowPolicy} decides whether the caller waits or an {@link InfoLog} object is dropped.
+ *
+ * @author weikun.zhong
+ *
+ * @param <L> the type of the {@link InfoLog} objects to be written.
+ */
+public class AsyncInfoLogWriter<L extends InfoLog> implements Closeable
+{
+	/**
+	 * Decides what to do when the queue is full.
+	 */
+	public static enum OverflowPolicy
+	{
+		/**
+		 * The caller waits for at most {@link AsyncInfoLogWriterBuilder#blockMillis blockMillis} milliseconds, then drops the new {@link InfoLog} object.
+		 */
+		BLOCK,
+		/**
+		 * Drops the new {@link InfoLog} object at once.
+		 */
+		DROP_NEWEST,
+		/**
+		 * Drops the oldest queued {@link InfoLog} object to make room for the new one.
+		 */
+		DROP_OLDEST
+	}
+
+	public static class AsyncInfoLogWriterBuilder<L extends InfoLog>
+	{
+		public Function<? super L, String> serializer;
+		public String directory;
+		public String filePrefix;
+		/**
+		 * One of the compression types accepted by {@link CompressorBuilder#setCompression(String)}, or {@code null} to write plain text.
+		 */
+		public String compressionType="gzip";
+		public String encoding="UTF-8";
+		public int queueCapacity=65536;
+		public OverflowPolicy overflowPolicy=OverflowPolicy.DROP_NEWEST;
+		public long blockMillis=10;
+		public int batchSize=1024;
+		public long flushMillis=1000;
+		/**
+		 * A file is rotated after receiving this number of uncompressed bytes, or never rotated by size if not positive.
+		 */
+		public long rotateBytes=256L<<20;
+		/**
+		 * A file is rotated after being open for this period, or never rotated by time if not positive.
+		 */
+		public long rotateMillis=TimeUnit.HOURS.toMillis(1);
+		public BiConsumer<Throwable, String> loggerFunc=StdLoggers.STD_ERR_EXCEPTION_MSG_LOGGER;
+
+		/**
+		 * @param serializer serializes an {@link InfoLog} object into one line, without the line separator.
+		 * @param directory the directory of the log files.
+		 * @param filePrefix the prefix of the log file names.
+		 */
+		public AsyncInfoLogWriterBuilder(Function<? super L, String> serializer, String directory, String filePrefix)
+		{
+			this.serializer=serializer;
+			this.directory=directory;
+			this.filePrefix=filePrefix;
+		}
+
+		public AsyncInfoLogWriter<L> build()
+		{
+			return new AsyncInfoLogWriter<>(this);
+		}
+	}
+
+	/**
+	 * A snapshot of the counters of an {@link AsyncInfoLogWriter}.
+	 */
+	public static class Metrics
+	{
+		private final long offeredNum;
+		private final long droppedNum;
+		private final long writtenNum;
+		private final long failedNum;
+		private final long batchNum;
+		private final long rotationNum;
+		private final int queueSize;
+
+		private Metrics(long offeredNum, long droppedNum, long writtenNum, long failedNum, long batchNum, long rotationNum, int queueSize)
+		{
+			this.offeredNum=offeredNum;
+			this.droppedNum=droppedNum;
+			this.writtenNum=writtenNum;
+			this.failedNum=failedNum;
+			this.batchNum=batchNum;
+			this.rotationNum=rotationNum;
+			this.queueSize=queueSize;
+		}
+
+		public long getOfferedNum()
+		{
+			return offeredNum;
+		}
+
+		/**
+		 * @return the number of {@link InfoLog} objects dropped by the {@link OverflowPolicy} or after closing.
+		 */
+		public long getDroppedNum()
+		{
+			return droppedNum;
+		}
+
+		public long getWrittenNum()
+		{
+			return writtenNum;
+		}
+
+		/**
+		 * @return the number of {@link InfoLog} objects lost by serialization or I/O failures.
+		 */
+		public long getFailedNum()
+		{
+			return failedNum;
+		}
+
+		public long getBatchNum()
+		{
+			return batchNum;
+		}
+
+		public long getRotationNum()
+		{
+			return rotationNum;
+		}
+
+		public int getQueueSize()
+		{
+			return queueSize;
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format("offered=%d, dropped=%d, written=%d, failed=%d, batches=%d, rotations=%d, queued=%d", offeredNum, droppedNum, writtenNum, failedNum, batchNum, rotationNum, queueSize);
+		}
+	}
+
+	private final Function<? super L, String> serializer;
+	private final File directory;
+	private final String filePrefix;
+	private final String fileSuffix;
+	private final StreamFactory<OutputStream> outCompressorFactory;
+	private final Charset charset;
+	private final OverflowPolicy overflowPolicy;
+	private final long blockMillis;
+	private final int batchSize;
+	private final long flushMillis;
+	private final long rotateBytes;
+	private final long rotateMillis;
+	private final BiConsumer<Throwable, String> loggerFunc;
+
+	private final ArrayBlockingQueue<L> queue;
+	private final Thread writerThread;
+	private volatile boolean closed=false;
+
+	private final LongAdder offeredNum=new LongAdder();
+	private final LongAdder droppedNum=new LongAdder();
+	private final LongAdder writtenNum=new LongAdder();
+	private final LongAdder failedNum=new LongAdder();
+	private final LongAdder batchNum=new LongAdder();
+	private final LongAdder rotationNum=new LongAdder();
+
+	private OutputStream out;
+	private long fileBytes;
+	private long fileOpenMillis;
+	private int fileSeq;
+
+	public AsyncInfoLogWriter(AsyncInfoLogWriterBuilder<L> builder)
+	{
+		if(builder.serializer==null || builder.directory==null || builder.filePrefix==null)
+			throw new IllegalArgumentException("AsyncInfoLogWriter::AsyncInfoLogWriter: serializer, directory and filePrefix must not be null!");
+		if(builder.queueCapacity<=0 || builder.batchSize<=0 || builder.flushMillis<=0 || builder.blockMillis<0)
+			throw new IllegalArgumentException("AsyncInfoLogWriter::AsyncInfoLogWriter: illegal parameters!");
+		serializer=builder.serializer;
+		directory=new File(builder.directory);
+		filePrefix=builder.filePrefix;
+		if(builder.compressionType!=null)
+		{
+			CompressorBuilder compressorBuilder=new CompressorBuilder();
+			compressorBuilder.setCompression(builder.compressionType);
+			outCompressorFactory=compressorBuilder.outCompressorFactory;
+			fileSuffix=suffixOf(builder.compressionType);
+		}
+		else
+		{
+			outCompressorFactory=null;
+			fileSuffix=".log";
+		}
+		charset=Charset.forName(builder.encoding);
+		overflowPolicy=builder.overflowPolicy;
+		blockMillis=builder.blockMillis;
+		batchSize=builder.batchSize;
+		flushMillis=builder.flushMillis;
+		rotateBytes=builder.rotateBytes;
+		rotateMillis=builder.rotateMillis;
+		loggerFunc=builder.loggerFunc;
+		if(!directory.isDirectory() && !directory.mkdirs())
+			throw new IllegalArgumentException("AsyncInfoLogWriter::AsyncInfoLogWriter: cannot create the directory "+directory+"!");
+
+		queue=new ArrayBlockingQueue<>(builder.queueCapacity);
+		writerThread=new Thread(this::drain, "info-log-writer-"+filePrefix);
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+
+	private static String suffixOf(String compressionType)
+	{
+		switch(compressionType.trim().toLowerCase(Locale.ENGLISH))
+		{
+		case "zip":
+			return ".log.zip";
+		case "gzip":
+		case "gz":
+			return ".log.gz";
+		default:
+			return ".log.bz2";
+		}
+	}
+
+	/**
+	 * Puts an {@link InfoLog} object into the queue, applying the {@link OverflowPolicy} if the queue is full.
+	 *
+	 * @param infoLog the {@link InfoLog} object.
+	 * @return {@code true} if queued, {@code false} if dropped.
+	 */
+	public boolean offer(L infoLog)
+	{
+		offeredNum.increment();
+		if(closed)
+		{
+			droppedNum.increment();
+			return false;
+		}
+		if(queue.offer(infoLog))
+			return true;
+		switch(overflowPolicy)
+		{
+		case BLOCK:
+			try
+			{
+				if(queue.offer(infoLog, blockMillis, TimeUnit.MILLISECONDS))
+					return true;
+			}
+			catch(InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			break;
+		case DROP_OLDEST:
+			do
+			{
+				if(queue.poll()!=null)
+					droppedNum.increment();
+			}
+			while(!queue.offer(infoLog));
+			return true;
+		default:
+			break;
+		}
+		droppedNum.increment();
+		return false;
+	}
+
+	/**
+	 * Puts {@link InfoLog} objects into the queue one by one, e.g. the {@code infoLogList} filled by a {@link com.eroelf.javaxsx.util.ml.flow.convert.Converter Converter}.
+	 *
+	 * @param infoLogs the {@link InfoLog} objects.
+	 * @return the number of queued {@link InfoLog} objects.
+	 */
+	public int offerAll(Iterable<? extends L> infoLogs)
+	{
+		int count=0;
+		for(L infoLog : infoLogs)
+		{
+			if(offer(infoLog))
+				++count;
+		}
+		return count;
+	}
+
+	private void drain()
+	{
+		List<L> batch=new ArrayList<>(batchSize);
+		long lastFlushMillis=System.currentTimeMillis();
+		while(true)
+		{
+			boolean stopping=closed;
+			L first=null;
+			try
+			{
+				first=stopping ? queue.poll() : queue.poll(flushMillis, TimeUnit.MILLISECONDS);
+			}
+			catch(InterruptedException e)
+			{
+				// woken up by the close method, the remaining InfoLog objects are drained by the following rounds.
+			}
+			if(first!=null)
+			{
+				batch.add(first);
+				queue.drainTo(batch, batchSize-1);
+				write(batch);
+				batch.clear();
+			}
+			long now=System.currentTimeMillis();
+			if(out!=null && rotateMillis>0 && now-fileOpenMillis>=rotateMillis)
+				closeFile(true);
+			if(out!=null && (first==null || now-lastFlushMillis>=flushMillis))
+			{
+				try
+				{
+					out.flush();
+				}
+				catch(IOException e)
+				{
+					loggerFunc.accept(e, "AsyncInfoLogWriter::drain: failed to flush!");
+				}
+				lastFlushMillis=now;
+			}
+			if(stopping && first==null)
+				break;
+		}
+		closeFile(false);
+	}
+
+	private void write(List<L> batch)
+	{
+		batchNum.increment();
+		int written=0;
+		try
+		{
+			for(L infoLog : batch)
+			{
+				String line;
+				try
+				{
+					line=serializer.apply(infoLog);
+				}
+				catch(RuntimeException e)
+				{
+					failedNum.increment();
+					loggerFunc.accept(e, "AsyncInfoLogWriter::write: failed to serialize an InfoLog object!");
+					++written;
+					continue;
+				}
+				byte[] bytes=(line+"\n").getBytes(charset);
+				if(out==null)
+					openFile();
+				out.write(bytes);
+				fileBytes+=bytes.length;
+				writtenNum.increment();
+				++written;
+				if(rotateBytes>0 && fileBytes>=rotateBytes)
+					closeFile(true);
+			}
+		}
+		catch(IOException e)
+		{
+			failedNum.add(batch.size()-written);
+			loggerFunc.accept(e, "AsyncInfoLogWriter::write: failed to write "+(batch.size()-written)+" InfoLog objects!");
+			closeFile(false);
+		}
+	}
+
+	private void openFile() throws IOException
+	{
+		String time=new SimpleDateFormat("yyyyMMddHHmmss").format(new Date());
+		File file=new File(directory, filePrefix+"."+time+"."+(fileSeq++)+fileSuffix);
+		OutputStream fileOut=new FileOutputStream(file);
+		try
+		{
+			out=new BufferedOutputStream(outCompressorFactory!=null ? outCompressorFactory.get(new BufferedOutputStream(fileOut)) : fileOut, 1<<16);
+		}
+		catch(IOException e)
+		{
+			fileOut.close();
+			throw e;
+		}
+		fileBytes=0;
+		fileOpenMillis=System.currentTimeMillis();
+	}
+
+	private void closeFile(boolean rotation)
+	{
+		if(out!=null)
+		{
+			try
+			{
+				out.close();
+			}
+			catch(IOException e)
+			{
+				loggerFunc.accept(e, "AsyncInfoLogWriter::closeFile: failed to close a log file!");
+			}
+			out=null;
+			if(rotation)
+				rotationNum.increment();
+		}
+	}
+
+	/**
+	 * @return a snapshot of the counters.
+	 */
+	public Metrics getMetrics()
+	{
+		return new Metrics(offeredNum.sum(), droppedNum.sum(), writtenNum.sum(), failedNum.sum(), batchNum.sum(), rotationNum.sum(), queue.size());
+	}
+
+	/**
+	 * Stops accepting {@link InfoLog} objects, waits for the queued ones to be written, and closes the current file.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		if(closed)
+			return;
+		closed=true;
+		writerThread.interrupt();
+		try
+		{
+			writerThread.join();
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("AsyncInfoLogWriter::close: interrupted while waiting for the writer thread!", e);
+		}
+		int remaining=queue.size();
+		queue.clear();
+		droppedNum.add(remaining);
+	}
+}
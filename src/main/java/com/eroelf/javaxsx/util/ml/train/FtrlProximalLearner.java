@@ -0,0 +1,425 @@
+package com.eroelf.javaxsx.util.ml.train;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
+
+import com.eroelf.javaxsx.util.ml.feature.FeatureStringParser;
+import com.eroelf.javaxsx.util.ml.feature.Item;
+import com.eroelf.javaxsx.util.ml.feature.Item.IndexedFeature;
+import com.eroelf.javaxsx.util.ml.feature.SparseBatch;
+import com.eroelf.javaxsx.util.ml.feature.score.impl.BinaryModel;
+import com.eroelf.javaxsx.util.ml.feature.score.impl.LogisticRegressionScorer;
+
+/**
+ * An online logistic regression learner by the FTRL-Proximal algorithm, with per-coordinate learning rates and L1 and L2 regularization.
+ * The per-coordinate states are kept in primitive arrays indexed by the original feature indices in {@code [0, featureNum)}, and the bias is learnt as an always-on extra coordinate without regularization.
+ *
+ * All learning methods can be called by multiple threads concurrently without any lock, in the Hogwild style: concurrent updates of the same coordinate may overwrite each other, which is negligible for sparse features.
+ * The model can be exported at any time, e.g. by the {@link #toScorer() toScorer} method or the {@link #export(String, String) export} method, in the {@link LogisticRegressionScorer} format.
+ *
+ * @author weikun.zhong
+ */
+public class FtrlProximalLearner
+{
+	private static class Scratch
+	{
+		private final FeatureStringParser parser=new FeatureStringParser(true);
+		private final SparseBatch batch=new SparseBatch();
+		private int[] indices=new int[64];
+		private double[] values=new double[64];
+		private double[] weights=new double[64];
+
+		private void reserve(int size)
+		{
+			if(indices.length<size)
+			{
+				int capacity=Math.max(size, indices.length<<1);
+				indices=Arrays.copyOf(indices, capacity);
+				values=Arrays.copyOf(values, capacity);
+			}
+		}
+	}
+
+	private final int featureNum;
+	private final double alpha;
+	private final double beta;
+	private final double l1;
+	private final double l2;
+	private final double[] z;
+	private final double[] n;
+	private final LongAdder exampleNum=new LongAdder();
+	private final LongAdder ignoredNum=new LongAdder();
+	private final ThreadLocal<Scratch> scratches=ThreadLocal.withInitial(Scratch::new);
+
+	/**
+	 * @param featureNum the number of features, features whose indices are out of {@code [0, featureNum)} are ignored.
+	 * @param alpha the learning rate parameter alpha.
+	 * @param beta the learning rate parameter beta, usually 1.
+	 * @param l1 the L1 regularization strength.
+	 * @param l2 the L2 regularization strength.
+	 */
+	public FtrlProximalLearner(int featureNum, double alpha, double beta, double l1, double l2)
+	{
+		if(featureNum<0 || alpha<=0 || beta<0 || l1<0 || l2<0)
+			throw new IllegalArgumentException("FtrlProximalLearner::FtrlProximalLearner: illegal parameters!");
+		this.featureNum=featureNum;
+		this.alpha=alpha;
+		this.beta=beta;
+		this.l1=l1;
+		this.l2=l2;
+		z=new double[featureNum+1];
+		n=new double[featureNum+1];
+	}
+
+	private double weight(int i)
+	{
+		double zi=z[i];
+		if(i==featureNum)
+			return -zi/((beta+Math.sqrt(n[i]))/alpha);
+		if(Math.abs(zi)<=l1)
+			return 0;
+		return -(zi-Math.copySign(l1, zi))/((beta+Math.sqrt(n[i]))/alpha+l2);
+	}
+
+	/**
+	 * Learns one example given in primitive sparse arrays.
+	 *
+	 * @param label the label, regarded as positive if greater than 0.
+	 * @param indices the feature indices.
+	 * @param values the feature values.
+	 * @param size the number of valid entries in {@code indices} and {@code values}.
+	 * @return the predicted probability before this update.
+	 */
+	public double learn(double label, int[] indices, double[] values, int size)
+	{
+		Scratch scratch=scratches.get();
+		if(scratch.weights.length<size)
+			scratch.weights=new double[Math.max(size, scratch.weights.length<<1)];
+		double[] w=scratch.weights;
+		double s=weight(featureNum);
+		for(int k=0; k<size; k++)
+		{
+			int i=indices[k];
+			if(i>=0 && i<featureNum)
+			{
+				w[k]=weight(i);
+				s+=w[k]*values[k];
+			}
+		}
+		double p=sigmoid(s);
+		double g=p-(label>0 ? 1 : 0);
+		update(featureNum, g, weight(featureNum));
+		boolean ignored=false;
+		for(int k=0; k<size; k++)
+		{
+			int i=indices[k];
+			if(i>=0 && i<featureNum)
+				update(i, g*values[k], w[k]);
+			else
+				ignored=true;
+		}
+		exampleNum.increment();
+		if(ignored)
+			ignoredNum.increment();
+		return p;
+	}
+
+	private void update(int i, double g, double w)
+	{
+		double ni=n[i];
+		double sigma=(Math.sqrt(ni+g*g)-Math.sqrt(ni))/alpha;
+		z[i]+=g-sigma*w;
+		n[i]=ni+g*g;
+	}
+
+	private static double sigmoid(double s)
+	{
+		return 1/(1+Math.exp(-Math.max(Math.min(s, 35), -35)));
+	}
+
+	/**
+	 * Learns one labeled {@link Item} object by its valid features.
+	 *
+	 * @param item the {@link Item} object.
+	 * @param label the label, regarded as positive if greater than 0.
+	 * @return the predicted probability before this update.
+	 */
+	public double learn(Item item, double label)
+	{
+		Scratch scratch=scratches.get();
+		int size=0;
+		for(IndexedFeature indexedFeature : item.getValidFeatures())
+		{
+			scratch.reserve(size+1);
+			scratch.indices[size]=indexedFeature.getIdx();
+			scratch.values[size++]=indexedFeature.getFeature();
+		}
+		return learn(label, scratch.indices, scratch.values, size);
+	}
+
+	/**
+	 * Learns one LIBSVM line, i.e. a label followed by space separated {@code idx:value} pairs, such as a label and the result of {@link Item#getFeatureString()}.
+	 *
+	 * @param line the LIBSVM line.
+	 * @return the predicted probability before this update.
+	 */
+	public double learn(String line)
+	{
+		Scratch scratch=scratches.get();
+		scratch.batch.clear();
+		if(!scratch.parser.parseLine(line, scratch.batch))
+			throw new IllegalArgumentException("FtrlProximalLearner::learn: empty LIBSVM line!");
+		return learn(scratch.batch, 0);
+	}
+
+	/**
+	 * Learns one row of a {@link SparseBatch}, e.g. one filled by a {@link FeatureStringParser}.
+	 *
+	 * @param batch the {@link SparseBatch}.
+	 * @param row the row index.
+	 * @return the predicted probability before this update.
+	 */
+	public double learn(SparseBatch batch, int row)
+	{
+		Scratch scratch=scratches.get();
+		int from=batch.rowStart(row);
+		int size=batch.rowEnd(row)-from;
+		scratch.reserve(size);
+		for(int k=0; k<size; k++)
+		{
+			scratch.indices[k]=batch.getIndex(from+k);
+			scratch.values[k]=batch.getValue(from+k);
+		}
+		return learn(batch.getLabel(row), scratch.indices, scratch.values, size);
+	}
+
+	/**
+	 * Learns all LIBSVM lines from the given {@link Iterator} by multiple threads, each of which takes a chunk of lines at a time.
+	 * Blank lines are skipped.
+	 *
+	 * @param lines the LIBSVM lines, e.g. a {@link com.eroelf.javaxsx.util.io.FileIterator FileIterator}.
+	 * @param threadNum the number of learning threads.
+	 * @return the number of learnt lines.
+	 */
+	public long learnAll(Iterator<String> lines, int threadNum)
+	{
+		return runAll(lines, line -> {
+			Scratch scratch=scratches.get();
+			scratch.batch.clear();
+			if(!scratch.parser.parseLine(line, scratch.batch))
+				return false;
+			learn(scratch.batch, 0);
+			return true;
+		}, threadNum);
+	}
+
+	/**
+	 * Learns all labeled {@link Item} objects from the given {@link Iterator} by multiple threads, each of which takes a chunk of {@link Item} objects at a time.
+	 *
+	 * @param items the {@link Item} objects.
+	 * @param labelFunction gives the label of an {@link Item} object.
+	 * @param threadNum the number of learning threads.
+	 * @return the number of learnt {@link Item} objects.
+	 */
+	public <T extends Item> long learnAll(Iterator<T> items, ToDoubleFunction<? super T> labelFunction, int threadNum)
+	{
+		return runAll(items, item -> {
+			learn(item, labelFunction.applyAsDouble(item));
+			return true;
+		}, threadNum);
+	}
+
+	/**
+	 * @param learner learns an example, and tells if it has been learnt.
+	 */
+	private <E> long runAll(final Iterator<E> examples, final Predicate<E> learner, int threadNum)
+	{
+		final int chunkSize=256;
+		final LongAdder count=new LongAdder();
+		threadNum=Math.max(threadNum, 1);
+		ExecutorService executor=Executors.newFixedThreadPool(threadNum);
+		try
+		{
+			List<Future<?>> futures=new ArrayList<>(threadNum);
+			for(int t=0; t<threadNum; t++)
+			{
+				futures.add(executor.submit(() -> {
+					List<E> chunk=new ArrayList<>(chunkSize);
+					while(true)
+					{
+						chunk.clear();
+						synchronized(examples)
+						{
+							while(chunk.size()<chunkSize && examples.hasNext())
+							{
+								chunk.add(examples.next());
+							}
+						}
+						if(chunk.isEmpty())
+							return;
+						int learnt=0;
+						for(E example : chunk)
+						{
+							if(learner.test(example))
+								++learnt;
+						}
+						count.add(learnt);
+					}
+				}));
+			}
+			for(Future<?> future : futures)
+			{
+				future.get();
+			}
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("FtrlProximalLearner::learnAll: interrupted!", e);
+		}
+		catch(ExecutionException e)
+		{
+			if(e.getCause() instanceof RuntimeException)
+				throw (RuntimeException)e.getCause();
+			throw new IllegalStateException("FtrlProximalLearner::learnAll: learning failed!", e.getCause());
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+		return count.sum();
+	}
+
+	/**
+	 * Predicts the probability of the given {@link Item} object being positive by the current model.
+	 *
+	 * @param item the {@link Item} object.
+	 * @return the predicted probability.
+	 */
+	public double predict(Item item)
+	{
+		double s=weight(featureNum);
+		for(IndexedFeature indexedFeature : item.getValidFeatures())
+		{
+			int i=indexedFeature.getIdx();
+			if(i>=0 && i<featureNum)
+				s+=weight(i)*indexedFeature.getFeature();
+		}
+		return sigmoid(s);
+	}
+
+	public double getBias()
+	{
+		return weight(featureNum);
+	}
+
+	public double getWeight(int idx)
+	{
+		return idx>=0 && idx<featureNum ? weight(idx) : 0;
+	}
+
+	public int getFeatureNum()
+	{
+		return featureNum;
+	}
+
+	public long getExampleNum()
+	{
+		return exampleNum.sum();
+	}
+
+	/**
+	 * @return the number of examples which contain any feature out of {@code [0, featureNum)}.
+	 */
+	public long getIgnoredNum()
+	{
+		return ignoredNum.sum();
+	}
+
+	/**
+	 * A snapshot of the current model, only features with non-zero weights are included.
+	 */
+	private static class Snapshot
+	{
+		private final double bias;
+		private final int[] featureIds;
+		private final double[] weights;
+
+		private Snapshot(double bias, int[] featureIds, double[] weights)
+		{
+			this.bias=bias;
+			this.featureIds=featureIds;
+			this.weights=weights;
+		}
+	}
+
+	private Snapshot snapshot()
+	{
+		double bias=weight(featureNum);
+		int[] featureIds=new int[16];
+		double[] weights=new double[16];
+		int size=0;
+		for(int i=0; i<featureNum; i++)
+		{
+			double w=weight(i);
+			if(w!=0)
+			{
+				if(size==featureIds.length)
+				{
+					featureIds=Arrays.copyOf(featureIds, size<<1);
+					weights=Arrays.copyOf(weights, size<<1);
+				}
+				featureIds[size]=i;
+				weights[size++]=w;
+			}
+		}
+		return new Snapshot(bias, Arrays.copyOf(featureIds, size), Arrays.copyOf(weights, size));
+	}
+
+	/**
+	 * Creates a {@link LogisticRegressionScorer} from a snapshot of the current model.
+	 *
+	 * @return a new {@link LogisticRegressionScorer} object.
+	 */
+	public LogisticRegressionScorer toScorer()
+	{
+		Snapshot snapshot=snapshot();
+		return LogisticRegressionModels.toScorer(snapshot.bias, snapshot.featureIds, snapshot.weights);
+	}
+
+	/**
+	 * Exports a snapshot of the current model as the {@link LogisticRegressionScorer} text weight and mapping files.
+	 * Only features with non-zero weights are exported, each mapped by the identity mapping.
+	 *
+	 * @param weightFile the weight file to write.
+	 * @param mappingFile the mapping file to write.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public void export(String weightFile, String mappingFile) throws IOException
+	{
+		Snapshot snapshot=snapshot();
+		LogisticRegressionModels.write(weightFile, mappingFile, snapshot.bias, snapshot.featureIds, snapshot.weights);
+	}
+
+	/**
+	 * Exports a snapshot of the current model as a {@link BinaryModel} container file, which can be loaded by {@link LogisticRegressionScorer#loadBinary(String)}.
+	 *
+	 * @param binaryFile the container file to write.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public void exportBinary(String binaryFile) throws IOException
+	{
+		Snapshot snapshot=snapshot();
+		LogisticRegressionModels.writeBinary(binaryFile, snapshot.bias, snapshot.featureIds, snapshot.weights);
+	}
+}
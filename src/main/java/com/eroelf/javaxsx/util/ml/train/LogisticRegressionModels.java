@@ -0,0 +1,66 @@
+package com.eroelf.javaxsx.util.ml.train;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.eroelf.javaxsx.util.ml.feature.score.impl.BinaryModel;
+import com.eroelf.javaxsx.util.ml.feature.score.impl.LogisticRegressionScorer;
+
+/**
+ * Exports trained sparse linear models in the formats {@link LogisticRegressionScorer} reads, each feature mapped by the identity mapping.
+ * 
+ * @author weikun.zhong
+ */
+final class LogisticRegressionModels
+{
+	private LogisticRegressionModels()
+	{}
+
+	static LogisticRegressionScorer toScorer(double bias, int[] featureIds, double[] weights)
+	{
+		List<Double> weightList=new ArrayList<>(weights.length+1);
+		List<String> mapping=new ArrayList<>(weights.length);
+		weightList.add(bias);
+		for(int i=0; i<weights.length; i++)
+		{
+			weightList.add(weights[i]);
+			mapping.add(featureIds[i]+"\t1\t0");
+		}
+		return new LogisticRegressionScorer(weightList, mapping);
+	}
+
+	static void write(String weightFile, String mappingFile, double bias, int[] featureIds, double[] weights) throws IOException
+	{
+		try(BufferedWriter writer=Files.newBufferedWriter(Paths.get(weightFile), StandardCharsets.UTF_8))
+		{
+			writer.write(Double.toString(bias));
+			writer.newLine();
+			for(double w : weights)
+			{
+				writer.write(Double.toString(w));
+				writer.newLine();
+			}
+		}
+		try(BufferedWriter writer=Files.newBufferedWriter(Paths.get(mappingFile), StandardCharsets.UTF_8))
+		{
+			for(int featureId : featureIds)
+			{
+				writer.write(featureId+"\t1\t0");
+				writer.newLine();
+			}
+		}
+	}
+
+	static void writeBinary(String binaryFile, double bias, int[] featureIds, double[] weights) throws IOException
+	{
+		double[] mapK=new double[featureIds.length];
+		Arrays.fill(mapK, 1);
+		BinaryModel.write(binaryFile, bias, 1, featureIds, weights, mapK, new double[featureIds.length]);
+	}
+}
@@ -0,0 +1,386 @@
+package com.eroelf.javaxsx.util.ml.train;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import com.eroelf.javaxsx.util.io.DirFileIterator;
+import com.eroelf.javaxsx.util.ml.feature.FeatureStringParser;
+import com.eroelf.javaxsx.util.ml.feature.SparseBatch;
+import com.eroelf.javaxsx.util.ml.feature.score.impl.BinaryModel;
+import com.eroelf.javaxsx.util.ml.feature.score.impl.LogisticRegressionScorer;
+
+/**
+ * A multi-threaded batch logistic regression trainer by mini-batch stochastic gradient descent, with L2 regularization and proximal L1 regularization.
+ * Training files contain LIBSVM lines, i.e. a label followed by the result of {@link com.eroelf.javaxsx.util.ml.feature.Item#getFeatureString() Item.getFeatureString}, and are streamed once per epoch.
+ * Chunks of lines are read on the caller thread and parsed into {@link SparseBatch} buffers by {@link FeatureStringParser} objects and learnt on the worker threads, which update the shared weights without any lock in the Hogwild style.
+ *
+ * The trained model is written in the {@link LogisticRegressionScorer} format, where the weights are indexed by the original feature indices in {@code [0, featureNum)}.
+ *
+ * @author weikun.zhong
+ */
+public class LogisticRegressionTrainer
+{
+	public static class TrainerBuilder
+	{
+		/**
+		 * The number of features, features whose indices are out of {@code [0, featureNum)} are ignored.
+		 */
+		public int featureNum;
+		public double learningRate=0.1;
+		/**
+		 * The learning rate is multiplied by this factor after each epoch.
+		 */
+		public double learningRateDecay=0.9;
+		public double l1=0;
+		public double l2=0;
+		public int batchSize=64;
+		public int epochNum=5;
+		public int threadNum=Runtime.getRuntime().availableProcessors();
+		/**
+		 * The number of lines a worker thread takes at a time.
+		 */
+		public int chunkSize=4096;
+
+		public TrainerBuilder(int featureNum)
+		{
+			this.featureNum=featureNum;
+		}
+	}
+
+	/**
+	 * The buffers of a worker thread. The gradient of a mini-batch is accumulated in an open-addressing map from feature indices to gradients, sized by the number of non-zero values of the mini-batch instead of the number of features.
+	 */
+	private static class Worker
+	{
+		private static final int EMPTY=-1;
+
+		private final FeatureStringParser parser=new FeatureStringParser(true);
+		private final SparseBatch batch=new SparseBatch();
+		private int[] slotKeys=new int[0];
+		private double[] slotGradients=new double[0];
+		private int[] touchedSlots=new int[0];
+		private int touchedNum=0;
+		private int shift;
+
+		/**
+		 * Makes the map able to hold {@code nnz} keys at a load factor of at most 0.5.
+		 */
+		private void reserve(int nnz)
+		{
+			int capacity=Integer.highestOneBit(Math.max(nnz, 2)*2-1)<<1;
+			if(capacity<=slotKeys.length)
+				return;
+			slotKeys=new int[capacity];
+			Arrays.fill(slotKeys, EMPTY);
+			slotGradients=new double[capacity];
+			touchedSlots=new int[capacity>>1];
+			shift=Integer.numberOfLeadingZeros(capacity)+1;
+		}
+
+		/**
+		 * Adds the given value to the gradient of the given key.
+		 */
+		private void add(int key, double value)
+		{
+			int mask=slotKeys.length-1;
+			int slot=(key*0x9E3779B9)>>>shift;
+			while(slotKeys[slot]!=key)
+			{
+				if(slotKeys[slot]==EMPTY)
+				{
+					slotKeys[slot]=key;
+					slotGradients[slot]=0;
+					touchedSlots[touchedNum++]=slot;
+					break;
+				}
+				slot=(slot+1)&mask;
+			}
+			slotGradients[slot]+=value;
+		}
+
+		/**
+		 * Empties the map by resetting the touched slots only.
+		 */
+		private void clear()
+		{
+			for(int t=0; t<touchedNum; t++)
+			{
+				slotKeys[touchedSlots[t]]=EMPTY;
+			}
+			touchedNum=0;
+		}
+	}
+
+	private final TrainerBuilder builder;
+	private final int featureNum;
+	private final double[] w;
+	private volatile double bias=0;
+	private final ThreadLocal<Worker> workers;
+	private final List<Double> epochLosses=new ArrayList<>();
+
+	public LogisticRegressionTrainer(TrainerBuilder builder)
+	{
+		if(builder.featureNum<0 || builder.learningRate<=0 || builder.l1<0 || builder.l2<0 || builder.batchSize<=0 || builder.chunkSize<=0)
+			throw new IllegalArgumentException("LogisticRegressionTrainer::LogisticRegressionTrainer: illegal parameters!");
+		this.builder=builder;
+		featureNum=builder.featureNum;
+		w=new double[featureNum];
+		workers=ThreadLocal.withInitial(Worker::new);
+	}
+
+	/**
+	 * Trains on all files under the given path, see {@link DirFileIterator}.
+	 *
+	 * @param path the training file or directory.
+	 * @return this trainer.
+	 */
+	public LogisticRegressionTrainer train(String path)
+	{
+		return train(() -> new DirFileIterator<String>(path));
+	}
+
+	/**
+	 * Trains on the files under the given path whose names are accepted by the given regular expressions, see {@link DirFileIterator}.
+	 *
+	 * @param path the training directory.
+	 * @param acceptRegex the regular expressions of accepted file names.
+	 * @param refuseRegex the regular expressions of refused file names.
+	 * @return this trainer.
+	 */
+	public LogisticRegressionTrainer train(String path, String[] acceptRegex, String[] refuseRegex)
+	{
+		return train(() -> new DirFileIterator<String>(path, acceptRegex, refuseRegex));
+	}
+
+	/**
+	 * Trains on the LIBSVM lines given by a new {@link Iterator} for each epoch.
+	 *
+	 * @param source supplies a new {@link Iterator} of all training lines for each epoch.
+	 * @return this trainer.
+	 */
+	public LogisticRegressionTrainer train(Supplier<? extends Iterator<String>> source)
+	{
+		int threadNum=Math.max(builder.threadNum, 1);
+		ExecutorService executor=Executors.newFixedThreadPool(threadNum);
+		try
+		{
+			double learningRate=builder.learningRate;
+			for(int epoch=0; epoch<builder.epochNum; epoch++)
+			{
+				epochLosses.add(runEpoch(source.get(), learningRate, executor, threadNum));
+				learningRate*=builder.learningRateDecay;
+			}
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+		return this;
+	}
+
+	private double runEpoch(Iterator<String> lines, final double learningRate, ExecutorService executor, int threadNum)
+	{
+		final DoubleAdder loss=new DoubleAdder();
+		final LongAdder count=new LongAdder();
+		final Semaphore inFlight=new Semaphore(threadNum*2);
+		List<Future<?>> futures=new ArrayList<>();
+		try
+		{
+			while(lines.hasNext())
+			{
+				final List<String> chunk=new ArrayList<>(builder.chunkSize);
+				while(chunk.size()<builder.chunkSize && lines.hasNext())
+				{
+					chunk.add(lines.next());
+				}
+				inFlight.acquire();
+				futures.add(executor.submit(() -> {
+					try
+					{
+						learnChunk(chunk, learningRate, loss, count);
+					}
+					finally
+					{
+						inFlight.release();
+					}
+				}));
+				if(futures.size()>threadNum*4)
+					futures.remove(0).get();
+			}
+			for(Future<?> future : futures)
+			{
+				future.get();
+			}
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("LogisticRegressionTrainer::runEpoch: interrupted!", e);
+		}
+		catch(ExecutionException e)
+		{
+			if(e.getCause() instanceof RuntimeException)
+				throw (RuntimeException)e.getCause();
+			throw new IllegalStateException("LogisticRegressionTrainer::runEpoch: training failed!", e.getCause());
+		}
+		return loss.sum()/Math.max(count.sum(), 1);
+	}
+
+	private void learnChunk(List<String> chunk, double learningRate, DoubleAdder loss, LongAdder count)
+	{
+		Worker worker=workers.get();
+		SparseBatch batch=worker.batch;
+		batch.clear();
+		for(String line : chunk)
+		{
+			worker.parser.parseLine(line, batch);
+		}
+		double chunkLoss=0;
+		for(int from=0; from<batch.size(); from+=builder.batchSize)
+		{
+			chunkLoss+=learnMiniBatch(worker, batch, from, Math.min(from+builder.batchSize, batch.size()), learningRate);
+		}
+		loss.add(chunkLoss);
+		count.add(batch.size());
+	}
+
+	/**
+	 * Computes the gradient of a mini-batch on the touched coordinates, then updates those coordinates and applies the regularization to them.
+	 *
+	 * @return the sum of the log losses of the mini-batch before updating.
+	 */
+	private double learnMiniBatch(Worker worker, SparseBatch batch, int from, int to, double learningRate)
+	{
+		worker.reserve(batch.rowStart(to)-batch.rowStart(from));
+		double biasGradient=0;
+		double loss=0;
+		for(int row=from; row<to; row++)
+		{
+			double s=bias;
+			int end=batch.rowEnd(row);
+			for(int k=batch.rowStart(row); k<end; k++)
+			{
+				int i=batch.getIndex(k);
+				if(i>=0 && i<featureNum)
+					s+=w[i]*batch.getValue(k);
+			}
+			double p=1/(1+Math.exp(-Math.max(Math.min(s, 35), -35)));
+			boolean positive=batch.getLabel(row)>0;
+			loss-=Math.log(positive ? p : 1-p);
+			double g=p-(positive ? 1 : 0);
+			biasGradient+=g;
+			for(int k=batch.rowStart(row); k<end; k++)
+			{
+				int i=batch.getIndex(k);
+				if(i>=0 && i<featureNum)
+					worker.add(i, g*batch.getValue(k));
+			}
+		}
+
+		double m=to-from;
+		double shrink=learningRate*builder.l1;
+		bias-=learningRate*biasGradient/m;
+		for(int t=0; t<worker.touchedNum; t++)
+		{
+			int slot=worker.touchedSlots[t];
+			int i=worker.slotKeys[slot];
+			double wi=w[i]-learningRate*(worker.slotGradients[slot]/m+builder.l2*w[i]);
+			if(shrink>0)
+				wi=wi>shrink ? wi-shrink : (wi<-shrink ? wi+shrink : 0);
+			w[i]=wi;
+		}
+		worker.clear();
+		return loss;
+	}
+
+	/**
+	 * @return the average training log loss of each finished epoch, computed before each mini-batch update.
+	 */
+	public List<Double> getEpochLosses()
+	{
+		return epochLosses;
+	}
+
+	public double getBias()
+	{
+		return bias;
+	}
+
+	public double getWeight(int idx)
+	{
+		return idx>=0 && idx<featureNum ? w[idx] : 0;
+	}
+
+	private int[] nonZeroFeatures()
+	{
+		int size=0;
+		for(int i=0; i<featureNum; i++)
+		{
+			if(w[i]!=0)
+				++size;
+		}
+		int[] featureIds=new int[size];
+		for(int i=0, j=0; i<featureNum && j<size; i++)
+		{
+			if(w[i]!=0)
+				featureIds[j++]=i;
+		}
+		return featureIds;
+	}
+
+	private double[] weightsOf(int[] featureIds)
+	{
+		double[] weights=new double[featureIds.length];
+		for(int j=0; j<featureIds.length; j++)
+		{
+			weights[j]=w[featureIds[j]];
+		}
+		return weights;
+	}
+
+	/**
+	 * @return a new {@link LogisticRegressionScorer} object of the trained model.
+	 */
+	public LogisticRegressionScorer toScorer()
+	{
+		int[] featureIds=nonZeroFeatures();
+		return LogisticRegressionModels.toScorer(bias, featureIds, weightsOf(featureIds));
+	}
+
+	/**
+	 * Writes the trained model as the {@link LogisticRegressionScorer} text weight and mapping files.
+	 * Only features with non-zero weights are written, each mapped by the identity mapping.
+	 *
+	 * @param weightFile the weight file to write.
+	 * @param mappingFile the mapping file to write.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public void export(String weightFile, String mappingFile) throws IOException
+	{
+		int[] featureIds=nonZeroFeatures();
+		LogisticRegressionModels.write(weightFile, mappingFile, bias, featureIds, weightsOf(featureIds));
+	}
+
+	/**
+	 * Writes the trained model as a {@link BinaryModel} container file.
+	 *
+	 * @param binaryFile the container file to write.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public void exportBinary(String binaryFile) throws IOException
+	{
+		int[] featureIds=nonZeroFeatures();
+		LogisticRegressionModels.writeBinary(binaryFile, bias, featureIds, weightsOf(featureIds));
+	}
+}
@@ -0,0 +1,122 @@
+package com.eroelf.javaxsx.util.ml.feature;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.Test;
+
+public class FeatureDictionaryTest
+{
+	private static final int NAME_NUM=1000;
+
+	private static FeatureDictionary build()
+	{
+		FeatureDictionary dictionary=new FeatureDictionary();
+		for(int i=0; i<NAME_NUM; i++)
+		{
+			assertEquals(i, dictionary.intern("feature_"+i));
+		}
+		assertEquals(0, dictionary.intern("feature_0"));
+		return dictionary;
+	}
+
+	private static File tempFile() throws IOException
+	{
+		File file=File.createTempFile("dictionary", ".snapshot");
+		file.deleteOnExit();
+		return file;
+	}
+
+	private static void checkLookups(FeatureDictionary dictionary)
+	{
+		assertEquals(NAME_NUM, dictionary.size());
+		for(int i=0; i<NAME_NUM; i++)
+		{
+			assertEquals(i, dictionary.idOf("feature_"+i));
+			assertEquals("feature_"+i, dictionary.nameOf(i));
+		}
+		assertEquals(FeatureDictionary.ABSENT, dictionary.idOf("unknown"));
+	}
+
+	private static void checkLookups(FrozenFeatureDictionary dictionary)
+	{
+		assertEquals(NAME_NUM, dictionary.size());
+		for(int i=0; i<NAME_NUM; i++)
+		{
+			assertEquals(i, dictionary.idOf("feature_"+i));
+			assertEquals("feature_"+i, dictionary.nameOf(i));
+		}
+		assertEquals(FeatureDictionary.ABSENT, dictionary.idOf("unknown"));
+		assertEquals(FeatureDictionary.ABSENT, dictionary.idOf("feature_"+NAME_NUM));
+		assertEquals(FeatureDictionary.ABSENT, dictionary.idOf(""));
+	}
+
+	@Test
+	public void testFreezeAndThaw()
+	{
+		FeatureDictionary dictionary=build();
+		checkLookups(dictionary);
+		FrozenFeatureDictionary frozen=dictionary.freeze();
+		checkLookups(frozen);
+		checkLookups(frozen.thaw());
+	}
+
+	@Test
+	public void testSaveAndLoad() throws IOException
+	{
+		File file=tempFile();
+		build().save(file.getPath());
+		checkLookups(FeatureDictionary.load(file.getPath()));
+		checkLookups(FrozenFeatureDictionary.load(file.getPath()));
+
+		File frozenFile=tempFile();
+		FrozenFeatureDictionary.load(file.getPath()).save(frozenFile.getPath());
+		checkLookups(FrozenFeatureDictionary.load(frozenFile.getPath()));
+		checkLookups(FeatureDictionary.load(frozenFile.getPath()).freeze());
+	}
+
+	@Test
+	public void testEmpty() throws IOException
+	{
+		File file=tempFile();
+		new FeatureDictionary().save(file.getPath());
+		FrozenFeatureDictionary frozen=FrozenFeatureDictionary.load(file.getPath());
+		assertEquals(0, frozen.size());
+		assertEquals(FeatureDictionary.ABSENT, frozen.idOf("unknown"));
+		assertEquals(0, FeatureDictionary.load(file.getPath()).size());
+	}
+
+	@Test
+	public void testCorruptedOffsets() throws IOException
+	{
+		int[][] corruptions={{0, 1}, {10, Integer.MAX_VALUE}, {10, -1}, {NAME_NUM, 0}};
+		for(int[] corruption : corruptions)
+		{
+			File file=tempFile();
+			build().save(file.getPath());
+			try(RandomAccessFile raf=new RandomAccessFile(file, "rw"))
+			{
+				raf.seek(24+4*corruption[0]);
+				raf.writeInt(Integer.reverseBytes(corruption[1]));
+			}
+			try
+			{
+				FrozenFeatureDictionary.load(file.getPath());
+				fail("corrupted offset "+corruption[0]+" is not rejected!");
+			}
+			catch(IOException e)
+			{}
+			try
+			{
+				FeatureDictionary.load(file.getPath());
+				fail("corrupted offset "+corruption[0]+" is not rejected!");
+			}
+			catch(IOException e)
+			{}
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package com.eroelf.javaxsx.util.ml.feature.model.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.eroelf.javaxsx.util.ml.feature.Item;
+import com.eroelf.javaxsx.util.ml.feature.MapFeatureItem;
+import com.eroelf.javaxsx.util.ml.feature.model.Modelable;
+import com.eroelf.javaxsx.util.ml.feature.model.StagedModeler;
+
+public class ModelerGraphTest
+{
+	private static final class SlowModeler implements StagedModeler<Double>
+	{
+		private final int idx;
+
+		private SlowModeler(int idx)
+		{
+			this.idx=idx;
+		}
+
+		@Override
+		public Double fetch(Modelable modelable)
+		{
+			try
+			{
+				Thread.sleep(100);
+			}
+			catch(InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			return (double)idx;
+		}
+
+		@Override
+		public void apply(Modelable modelable, Double fetched)
+		{
+			((Item)modelable).setFeature(idx, fetched);
+		}
+	}
+
+	/**
+	 * Independent {@link com.eroelf.javaxsx.util.ml.feature.model.Modeler Modeler}s writing into the same {@link MapFeatureItem} must lose no feature.
+	 */
+	@Test
+	public void independentWritesAreSerialized()
+	{
+		ExecutorService executor=Executors.newFixedThreadPool(8);
+		try
+		{
+			ModelerGraph graph=new ModelerGraph(executor);
+			for(int m=0; m<8; m++)
+			{
+				final int offset=m*1000;
+				graph.addModeler("m"+m, modelable -> {
+					for(int i=1; i<=200; i++)
+					{
+						((Item)modelable).setFeature(offset+i, i);
+					}
+					return modelable;
+				});
+			}
+			List<MapFeatureItem> items=new ArrayList<>();
+			for(int i=0; i<200; i++)
+			{
+				items.add(new MapFeatureItem());
+			}
+			graph.modelAll(items);
+			for(MapFeatureItem item : items)
+			{
+				graph.model(item);
+				assertEquals(8*200, item.getFeatures().size());
+			}
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * The fetching stages of independent {@link StagedModeler}s overlap, and a dependent modeler sees all their features.
+	 */
+	@Test
+	public void independentFetchesOverlap() throws Exception
+	{
+		ExecutorService executor=Executors.newFixedThreadPool(4);
+		try
+		{
+			final double[] sum=new double[1];
+			ModelerGraph graph=new ModelerGraph(executor)
+					.addModeler("user", new SlowModeler(1))
+					.addModeler("item", new SlowModeler(2))
+					.addModeler("context", new SlowModeler(3))
+					.addModeler("cross", modelable -> {
+						Item item=(Item)modelable;
+						sum[0]=item.getFeature(1)+item.getFeature(2)+item.getFeature(3);
+						return modelable;
+					}, "user", "item", "context");
+			graph.model(new MapFeatureItem());
+
+			long start=System.nanoTime();
+			graph.model(new MapFeatureItem());
+			long elapsedMillis=TimeUnit.NANOSECONDS.toMillis(System.nanoTime()-start);
+			assertEquals(6, sum[0], 0);
+			assertTrue("took "+elapsedMillis+"ms", elapsedMillis<250);
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,59 @@
+package com.eroelf.javaxsx.util.ml.feature.score.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TreeEnsembleCompilerTest
+{
+	private static final int FEATURE_NUM=50;
+
+	/**
+	 * Appends a complete tree of the given depth, whose nodes are numbered in breadth-first order.
+	 */
+	private static void appendTree(List<String> nodes, int treeIdx, int depth, Random random)
+	{
+		int innerNum=(1<<depth)-1;
+		int nodeNum=(1<<(depth+1))-1;
+		for(int n=0; n<nodeNum; n++)
+		{
+			if(n<innerNum)
+				nodes.add(treeIdx+"\t"+n+"\t"+random.nextInt(FEATURE_NUM)+"\t"+random.nextGaussian()+"\t"+(2*n+1)+"\t"+(2*n+2)+"\t0");
+			else
+				nodes.add(treeIdx+"\t"+n+"\t-1\t0\t-1\t-1\t"+random.nextGaussian()*0.1);
+		}
+	}
+
+	/**
+	 * A model of 1000 trees of depth 6, i.e. about 127K nodes, far beyond the constants one generated class could hold as literals, must be compiled and give exactly the scores of the interpreter.
+	 */
+	@Test
+	public void largeModelIsCompiledExactly()
+	{
+		Random random=new Random(7);
+		List<String> nodes=new ArrayList<>();
+		for(int t=0; t<1000; t++)
+		{
+			appendTree(nodes, t, 6, random);
+		}
+		TreeEnsembleScorer compiled=new TreeEnsembleScorer(nodes, 0.5, false, true);
+		TreeEnsembleScorer interpreted=new TreeEnsembleScorer(nodes, 0.5, false, false);
+		assertTrue(nodes.size()>1<<14);
+		assertTrue(compiled.isCompiled());
+
+		double[] x=new double[FEATURE_NUM];
+		for(int i=0; i<1000; i++)
+		{
+			for(int j=0; j<x.length; j++)
+			{
+				x[j]=random.nextInt(10)==0 ? 0 : random.nextGaussian();
+			}
+			assertEquals(Double.doubleToLongBits(interpreted.evaluate(x)), Double.doubleToLongBits(compiled.evaluate(x)));
+		}
+	}
+}
@@ -0,0 +1,190 @@
+package com.eroelf.javaxsx.util.ml.flow.estimate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.eroelf.javaxsx.util.ml.feature.ArrayListFeatureItem;
+import com.eroelf.javaxsx.util.ml.feature.UpdatableByItem;
+import com.eroelf.javaxsx.util.ml.feature.model.Modelable;
+import com.eroelf.javaxsx.util.ml.feature.score.Scorer;
+import com.eroelf.javaxsx.util.ml.feature.strategy.Strategy;
+import com.eroelf.javaxsx.util.ml.flow.controller.InnumerableFlowHandler;
+import com.eroelf.javaxsx.util.ml.flow.controller.StatisticsInfo;
+
+public class StoredInnumerableItemGeneratorTest
+{
+	static final class NamedItem extends ArrayListFeatureItem implements UpdatableByItem<NamedItem>
+	{
+		final String name;
+
+		private NamedItem(String name)
+		{
+			this.name=name;
+		}
+
+		@Override
+		public void update(NamedItem item)
+		{}
+	}
+
+	private static abstract class NamedStrategy extends Strategy<NamedItem>
+	{
+		protected final AtomicInteger callNum=new AtomicInteger();
+
+		protected abstract List<String> names(int call) throws InterruptedException;
+
+		@Override
+		protected Set<NamedItem> candicates()
+		{
+			Set<NamedItem> res=new HashSet<>();
+			try
+			{
+				for(String name : names(callNum.getAndIncrement()))
+				{
+					res.add(new NamedItem(name));
+				}
+			}
+			catch(InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			return res;
+		}
+
+		@Override
+		public Modelable model(Modelable modelable)
+		{
+			return modelable;
+		}
+	}
+
+	/**
+	 * A {@link Strategy} which outlives its flow must be rejected by the {@link CandidateStore} of that flow, and must never merge into the one of the next flow.
+	 */
+	@Test
+	public void lateStrategyDoesNotLeakIntoNextGenerate() throws Exception
+	{
+		final CountDownLatch release=new CountDownLatch(1);
+		final CountDownLatch lateMergeTried=new CountDownLatch(1);
+		final Strategy<NamedItem> slow=new NamedStrategy() {
+			@Override
+			protected List<String> names(int call) throws InterruptedException
+			{
+				if(call==0)
+				{
+					release.await();
+					return Collections.singletonList("late");
+				}
+				return Collections.emptyList();
+			}
+		};
+		final Strategy<NamedItem> fast=new NamedStrategy() {
+			@Override
+			protected List<String> names(int call) throws InterruptedException
+			{
+				if(call==0)
+					return Collections.singletonList("first");
+				release.countDown();
+				assertTrue(lateMergeTried.await(10, TimeUnit.SECONDS));
+				return Collections.singletonList("second");
+			}
+		};
+
+		ExecutorService executor=Executors.newFixedThreadPool(4);
+		try
+		{
+			final InnumerableFlowHandler<NamedItem> flowHandler=new InnumerableFlowHandler<NamedItem>() {
+				@Override
+				public StatisticsInfo calcStatisticsInfo()
+				{
+					return null;
+				}
+
+				@Override
+				public List<Strategy<NamedItem>> getStrategies()
+				{
+					return Arrays.asList(slow, fast);
+				}
+
+				@Override
+				public long getTimeout(Strategy<NamedItem> strategy, TimeUnit unit)
+				{
+					return strategy==slow ? unit.convert(100, TimeUnit.MILLISECONDS) : 0;
+				}
+
+				@Override
+				public Scorer getScorer()
+				{
+					return scoreable -> 0;
+				}
+
+				@Override
+				public int getBatchSize()
+				{
+					return 16;
+				}
+
+				@Override
+				public Executor getStrategyExecutor()
+				{
+					return executor;
+				}
+			};
+			StoredInnumerableItemGenerator<NamedItem> generator=new StoredInnumerableItemGenerator<NamedItem>() {
+				@Override
+				protected CandidateStore<NamedItem> createCandidateStore()
+				{
+					return new CandidateStore<NamedItem>(item -> item.name, 16) {
+						@Override
+						public boolean mergeAll(Iterable<? extends NamedItem> items)
+						{
+							boolean late=items.iterator().hasNext() && "late".equals(items.iterator().next().name);
+							boolean res=super.mergeAll(items);
+							if(late)
+								lateMergeTried.countDown();
+							return res;
+						}
+					};
+				}
+
+				@Override
+				protected InnumerableFlowHandler<NamedItem> getFlowHandler()
+				{
+					return flowHandler;
+				}
+			};
+
+			assertEquals(Collections.singletonList("first"), names(generator.generate(new ArrayList<>())));
+			assertEquals(Collections.singletonList("second"), names(generator.generate(new ArrayList<>())));
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+
+	private static List<String> names(List<NamedItem> items)
+	{
+		List<String> res=new ArrayList<>();
+		for(NamedItem item : items)
+		{
+			res.add(item.name);
+		}
+		return res;
+	}
+}